@@ -9,24 +9,17 @@ import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.DataCallback;
-import com.github.jsbxyyx.xbook.common.IdUtil;
-import com.github.jsbxyyx.xbook.common.JsonUtil;
 import com.github.jsbxyyx.xbook.common.LogUtil;
-import com.github.jsbxyyx.xbook.common.ProgressListener;
-import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.common.UiUtils;
-import com.github.jsbxyyx.xbook.data.BookDbHelper;
 import com.github.jsbxyyx.xbook.data.BookNetHelper;
+import com.github.jsbxyyx.xbook.data.DownloadQueue;
 import com.github.jsbxyyx.xbook.data.bean.Book;
+import com.github.jsbxyyx.xbook.data.bean.Download;
 import com.squareup.picasso.Picasso;
 
-import java.io.File;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author jsbxyyx
@@ -36,7 +29,8 @@ public class DetailActivity extends AppCompatActivity {
 
     private static final String TAG = "xbook";
     private BookNetHelper bookNetHelper;
-    private BookDbHelper bookDbHelper;
+    private DownloadQueue downloadQueue;
+    private DownloadQueue.Listener downloadListener;
 
     private ListView lv_detail_suggest;
     private ListBookAdapter lvListAdapter;
@@ -53,8 +47,6 @@ public class DetailActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_detail);
 
-        bookDbHelper = new BookDbHelper(this);
-
         detailUrl = getIntent().getStringExtra("detailUrl");
         if (Common.isEmpty(detailUrl)) {
             UiUtils.showToast("书籍地址为空");
@@ -124,6 +116,44 @@ public class DetailActivity extends AppCompatActivity {
             }
         });
 
+        downloadQueue = DownloadQueue.get(this);
+        downloadListener = new DownloadQueue.Listener() {
+            private long speedTime;
+            private long speedDone;
+            private long speed;
+
+            @Override
+            public void onChanged(Download download) {
+                if (mBook == null || !mBook.getBid().equals(download.getBookId())) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                if (now - speedTime >= 1000) {
+                    speed = speedTime == 0 ? 0 : Math.max(0, download.getDone() - speedDone) * 1000 / (now - speedTime);
+                    speedTime = now;
+                    speedDone = download.getDone();
+                }
+                runOnUiThread(() -> {
+                    tv_download_progress.setVisibility(View.VISIBLE);
+                    String state = download.getState();
+                    if (DownloadQueue.DONE.equals(state)) {
+                        tv_download_progress.setText("下载完成");
+                        UiUtils.showToast("下载成功");
+                    } else if (DownloadQueue.FAILED.equals(state)) {
+                        tv_download_progress.setText("下载失败");
+                        UiUtils.showToast("书籍下载失败:" + download.getError());
+                    } else if (DownloadQueue.QUEUED.equals(state)) {
+                        tv_download_progress.setText(download.getError() == null ? "等待下载..." : "下载重试...");
+                    } else if (DownloadQueue.PAUSED.equals(state)) {
+                        tv_download_progress.setText("下载暂停");
+                    } else if (DownloadQueue.RUNNING.equals(state) && download.getTotal() > 0) {
+                        tv_download_progress.setText(String.format("下载进度：%.1f%% %.1fKB/s", download.getDone() * 1.0 / download.getTotal() * 100, speed / 1024.0));
+                    }
+                });
+            }
+        };
+        downloadQueue.addListener(downloadListener);
+
         findViewById(R.id.btn_detail_download).setOnClickListener(v -> {
             if (mBook == null || Common.isEmpty(mBook.getDownloadUrl())) {
                 UiUtils.showToast("下载地址为空，请登录");
@@ -131,65 +161,15 @@ public class DetailActivity extends AppCompatActivity {
             }
             tv_download_progress.setVisibility(View.VISIBLE);
             tv_download_progress.setText("开始下载...");
-            bookNetHelper.downloadWithMagic(mBook.getDownloadUrl(), Common.xbook_dir, mBook.getBid(), new DataCallback<File>() {
-                @Override
-                public void call(File file, Throwable err) {
-                    if (err != null) {
-                        runOnUiThread(() -> {
-                            UiUtils.showToast("书籍下载失败:" + err.getMessage());
-                        });
-                        return;
-                    }
-                    LogUtil.d(TAG, "call: file: %s : %s", file.getAbsolutePath(), file.length());
-                    Map<String, Object> remark = new HashMap<>();
-                    remark.put("file_path", file.getAbsolutePath());
-                    mBook.setRemark(JsonUtil.toJson(remark));
-                    mBook.setUser(SPUtils.getData(getBaseContext(), Common.profile_email_key));
-                    Book by = bookDbHelper.findBookByBid(mBook.getBid());
-                    if (by == null) {
-                        mBook.setId(IdUtil.nextId());
-                        bookDbHelper.insertBook(mBook);
-                        String sync_data = SPUtils.getData(getBaseContext(), Common.sync_key);
-                        if (Common.checked.equals(sync_data)) {
-                            bookNetHelper.cloudSync(bookDbHelper.findBookByBid(mBook.getBid()), new DataCallback<JsonNode>() {
-                                @Override
-                                public void call(JsonNode o, Throwable err) {
-                                    if (err != null) {
-                                        runOnUiThread(() -> {
-                                            UiUtils.showToast("同步失败:" + err.getMessage());
-                                        });
-                                        return;
-                                    }
-
-                                    String sha = o.get("data").get("sha").asText();
-                                    Book book_db = bookDbHelper.findBookById(mBook.getId() + "");
-                                    if (book_db != null) {
-                                        book_db.putRemarkProperty("sha", sha);
-                                        bookDbHelper.updateBook(book_db);
-                                    }
-
-                                    runOnUiThread(() -> {
-                                        if (book_db != null) {
-                                            UiUtils.showToast("同步成功");
-                                        }
-                                    });
-                                }
-                            });
-                        }
-                    }
-                    runOnUiThread(() -> {
-                        UiUtils.showToast("下载成功");
-                    });
-                }
-            }, new ProgressListener() {
-                @Override
-                public void onProgress(long bytesRead, long contentLength) {
-                    runOnUiThread(() -> {
-                        tv_download_progress.setVisibility(View.VISIBLE);
-                        tv_download_progress.setText(String.format("下载进度：%.1f%%", bytesRead * 1.0 / contentLength * 100));
-                    });
-                }
-            }, Common.MAGIC);
+            downloadQueue.enqueue(mBook, DownloadQueue.PRIORITY_USER, false);
         });
     }
+
+    @Override
+    protected void onDestroy() {
+        if (downloadQueue != null) {
+            downloadQueue.removeListener(downloadListener);
+        }
+        super.onDestroy();
+    }
 }
\ No newline at end of file
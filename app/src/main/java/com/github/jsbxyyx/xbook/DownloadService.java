@@ -0,0 +1,168 @@
+package com.github.jsbxyyx.xbook;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.IBinder;
+
+import androidx.core.app.NotificationCompat;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.ThreadUtils;
+import com.github.jsbxyyx.xbook.data.DownloadQueue;
+import com.github.jsbxyyx.xbook.data.bean.Download;
+
+/**
+ * Keeps the process alive while {@link DownloadQueue} has work, showing the overall progress, and
+ * stops once the queue is idle.
+ *
+ * @author jsbxyyx
+ */
+public class DownloadService extends Service implements DownloadQueue.Listener {
+
+    private static final String TAG = "DownloadService";
+
+    private static final int NOTIFICATION_ID = 1;
+    private static final String CHANNEL_ID = "xplay_download";
+    private static final long NOTIFY_TICK = 1000;
+
+    private static volatile boolean started;
+
+    private DownloadQueue queue;
+    private NotificationManager notificationManager;
+    private NotificationCompat.Builder builder;
+    private long notifyTime;
+
+    /**
+     * Starts the service whenever the queue gets work, call once at startup. The queue is built
+     * on a worker thread, restoring it reads the database.
+     */
+    public static void watch(Context context) {
+        Context app = context.getApplicationContext();
+        ThreadUtils.submit(() -> {
+            DownloadQueue queue = DownloadQueue.get(app);
+            queue.addListener(download -> {
+                if (!started && queue.isActive()) {
+                    start(app);
+                }
+            });
+            if (queue.isActive()) {
+                start(app);
+            }
+        });
+    }
+
+    private static void start(Context context) {
+        started = true;
+        try {
+            context.startForegroundService(new Intent(context, DownloadService.class));
+        } catch (IllegalStateException e) {
+            // not allowed from the background, downloads go on while the app is open
+            started = false;
+            LogUtil.d(TAG, "start failed: %s", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel mChannel = new NotificationChannel(CHANNEL_ID, "书籍下载", NotificationManager.IMPORTANCE_LOW);
+            mChannel.setSound(null, null);
+            notificationManager.createNotificationChannel(mChannel);
+            builder = new NotificationCompat.Builder(this, CHANNEL_ID);
+        } else {
+            builder = new NotificationCompat.Builder(this);
+        }
+        builder.setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setWhen(System.currentTimeMillis())
+                .setContentTitle("xplay APP")
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setContentText("书籍下载");
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        queue = DownloadQueue.get(this);
+        queue.addListener(this);
+        if (!queue.isActive()) {
+            stop();
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // every startForegroundService has to be answered, also on a running service
+        synchronized (builder) {
+            startForeground(NOTIFICATION_ID, builder.build());
+        }
+        // the queue restores itself on the next start
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onChanged(Download download) {
+        if (!queue.isActive()) {
+            stop();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (builder) {
+            if (now - notifyTime < NOTIFY_TICK) {
+                return;
+            }
+            notifyTime = now;
+        }
+        int count = 0;
+        long done = 0;
+        long total = 0;
+        boolean known = true;
+        for (Download d : queue.getDownloads()) {
+            if (!DownloadQueue.RUNNING.equals(d.getState()) && !DownloadQueue.QUEUED.equals(d.getState())) {
+                continue;
+            }
+            count++;
+            if (d.getTotal() <= 0) {
+                known = false;
+            } else {
+                done += d.getDone();
+                total += d.getTotal();
+            }
+        }
+        int percent = total > 0 ? (int) (done * 100 / total) : 0;
+        // listeners are called on the download threads
+        synchronized (builder) {
+            builder.setContentText(String.format("书籍下载：%s本", count))
+                    .setProgress(100, percent, !known);
+            notificationManager.notify(NOTIFICATION_ID, builder.build());
+        }
+    }
+
+    /**
+     * Clears {@link #started} before stopping, so work queued from now on starts the service again.
+     */
+    private void stop() {
+        started = false;
+        stopSelf();
+    }
+
+    @Override
+    public void onDestroy() {
+        queue.removeListener(this);
+        started = false;
+        // work queued while stopping found the service still started
+        if (queue.isActive()) {
+            start(getApplicationContext());
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+}
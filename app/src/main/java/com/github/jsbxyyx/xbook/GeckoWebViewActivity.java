@@ -9,7 +9,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.LogUtil;
 import com.github.jsbxyyx.xbook.common.UiUtils;
-import com.github.jsbxyyx.xbook.httpserver.BizHttpServer;
+import com.github.jsbxyyx.xbook.httpserver.LocalHttpServer;
 
 import org.mozilla.geckoview.GeckoRuntime;
 import org.mozilla.geckoview.GeckoRuntimeSettings;
@@ -19,16 +19,12 @@ import org.mozilla.geckoview.GeckoView;
 
 import java.io.IOException;
 
-import fi.iki.elonen.NanoHTTPD;
-
 public class GeckoWebViewActivity extends AppCompatActivity {
 
     private GeckoView webView;
     private String url;
     private static GeckoRuntime runtime;
 
-    private NanoHTTPD mHttpd;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -41,11 +37,12 @@ public class GeckoWebViewActivity extends AppCompatActivity {
             return;
         }
 
-        mHttpd = new BizHttpServer(5201, this);
+        // the page reaches the biz routes on the shared loopback server
         try {
-            mHttpd.start();
+            LocalHttpServer.get(this);
         } catch (IOException e) {
-            LogUtil.e(getClass().getSimpleName(), "onCreate: %s", LogUtil.getStackTraceString(e));
+            LogUtil.e(getClass().getSimpleName(), "local server: %s", e.getMessage());
+            UiUtils.showToast("本地服务启动失败:" + e.getMessage());
         }
 
         String orientation = getIntent().getStringExtra("orientation");
@@ -126,8 +123,5 @@ public class GeckoWebViewActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         LogUtil.d(getClass().getSimpleName(), "onDestroy");
-        if (mHttpd != null) {
-            mHttpd.stop();
-        }
     }
 }
\ No newline at end of file
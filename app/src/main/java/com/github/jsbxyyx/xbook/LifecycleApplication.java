@@ -11,10 +11,14 @@ import com.github.jsbxyyx.xbook.common.LogUtil;
 import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.common.UiUtils;
 import com.github.jsbxyyx.xbook.data.BookNetHelper;
+import com.github.jsbxyyx.xbook.data.EdgeSelector;
+import com.github.jsbxyyx.xbook.data.HttpHelper;
 import com.github.jsbxyyx.xbook.data.IpNetHelper;
 import com.github.jsbxyyx.xbook.data.bean.Ip;
 import com.github.jsbxyyx.xbook.data.bean.MLog;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCache;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -34,6 +38,7 @@ public class LifecycleApplication extends Application {
         super.onCreate();
 
         UiUtils.initContext(getApplicationContext());
+        ProxyCache.init(new File(getCacheDir(), "proxy"));
 
         bookNetHelper = new BookNetHelper();
         ipNetHelper = new IpNetHelper();
@@ -56,22 +61,29 @@ public class LifecycleApplication extends Application {
             SPUtils.putData(getBaseContext(), Common.sync_key, syncData);
         }
 
-        CountDownLatch latch = new CountDownLatch(1);
+        List<Ip> cachedIps = IpNetHelper.load(getBaseContext());
+        if (!cachedIps.isEmpty()) {
+            Common.setIPS(cachedIps);
+            EdgeSelector.update(Common.getIPS());
+        }
+        HttpHelper.prewarm();
+        DownloadService.watch(this);
         ipNetHelper.fetchIP(new DataCallback<List<Ip>>() {
             @Override
             public void call(List<Ip> ips, Throwable err) {
                 if (err != null) {
-                    UiUtils.showToast(err.getMessage());
+                    LogUtil.d(getClass().getSimpleName(), "fetch ips: %s", err.getMessage());
+                    return;
+                }
+                if (ips.isEmpty()) {
+                    return;
                 }
                 Common.setIPS(ips);
+                EdgeSelector.update(Common.getIPS());
+                IpNetHelper.save(getBaseContext(), ips);
                 LogUtil.d(getClass().getSimpleName(), "set ips : %s", Common.getIPS().size());
-                latch.countDown();
             }
         });
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-        }
 
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             @Override
@@ -29,14 +29,16 @@ import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.DataCallback;
 import com.github.jsbxyyx.xbook.common.JsonUtil;
 import com.github.jsbxyyx.xbook.common.LogUtil;
-import com.github.jsbxyyx.xbook.common.ProgressListener;
 import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.common.SessionManager;
 import com.github.jsbxyyx.xbook.common.UiUtils;
+import com.github.jsbxyyx.xbook.data.BlobStore;
 import com.github.jsbxyyx.xbook.data.BookDbHelper;
 import com.github.jsbxyyx.xbook.data.BookNetHelper;
+import com.github.jsbxyyx.xbook.data.DownloadQueue;
 import com.github.jsbxyyx.xbook.data.bean.Book;
 import com.github.jsbxyyx.xbook.data.bean.BookReader;
+import com.github.jsbxyyx.xbook.data.bean.Download;
 import com.github.jsbxyyx.xbook.data.bean.Profile;
 import com.squareup.picasso.Picasso;
 
@@ -198,7 +200,7 @@ public class ProfileFragment extends Fragment {
                             .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
                                 public void onClick(DialogInterface dialog, int whichButton) {
                                     bookDbHelper.deleteBook(book.getId());
-                                    boolean delete = new File(file_path).delete();
+                                    boolean delete = BlobStore.get(mActivity).release(new File(file_path));
                                     LogUtil.d(TAG, "onClick: delete [%s] : %s", file_path, delete);
                                     onResume();
                                 }
@@ -267,17 +269,39 @@ public class ProfileFragment extends Fragment {
                     if (!new File(book.getRemarkProperty("file_path")).exists()) {
                         View parent = (View) view.getParent();
                         TextView tv_text = parent.findViewById(R.id.tv_text);
-                        bookNetHelper.downloadWithMagic(book.getDownloadUrl(), Common.xbook_dir, book.getBid(), new DataCallback.NopDataCallback(), new ProgressListener() {
+                        DownloadQueue downloadQueue = DownloadQueue.get(mActivity);
+                        downloadQueue.addListener(new DownloadQueue.Listener() {
                             @Override
-                            public void onProgress(long bytesRead, long total) {
-                                double percent = bytesRead * 1.0 / total * 100;
-                                LogUtil.d(TAG, "下载进度：%.1f%%", percent);
-                                mActivity.runOnUiThread(() -> {
+                            public void onChanged(Download download) {
+                                if (!book.getBid().equals(download.getBookId())) {
+                                    return;
+                                }
+                                String state = download.getState();
+                                boolean finished = DownloadQueue.DONE.equals(state) || DownloadQueue.FAILED.equals(state)
+                                        || DownloadQueue.CANCELED.equals(state);
+                                if (finished) {
+                                    downloadQueue.removeListener(this);
+                                }
+                                Activity activity = mActivity;
+                                if (activity == null) {
+                                    return;
+                                }
+                                activity.runOnUiThread(() -> {
                                     tv_text.setVisibility(View.VISIBLE);
-                                    tv_text.setText(String.format("进度条：%.1f%%", percent));
+                                    if (DownloadQueue.DONE.equals(state)) {
+                                        tv_text.setText("下载完成");
+                                    } else if (DownloadQueue.FAILED.equals(state)) {
+                                        tv_text.setText("下载失败");
+                                    } else if (DownloadQueue.RUNNING.equals(state) && download.getTotal() > 0) {
+                                        tv_text.setText(String.format("进度条：%.1f%%", download.getDone() * 1.0 / download.getTotal() * 100));
+                                    } else if (DownloadQueue.QUEUED.equals(state)) {
+                                        tv_text.setText("等待下载...");
+                                    }
                                 });
                             }
-                        }, Common.MAGIC);
+                        });
+                        String unmetered_data = SPUtils.getData(mActivity, Common.download_unmetered_key, Common.unchecked);
+                        downloadQueue.enqueue(book, DownloadQueue.PRIORITY_RESTORE, Common.checked.equals(unmetered_data));
                     }
                 } else if (Common.action_image_hide.equals(type)) {
                     Book book = mBookDownloadAdapter.getDataList().get(position);
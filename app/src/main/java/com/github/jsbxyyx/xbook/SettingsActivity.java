@@ -14,6 +14,8 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.LinearLayout;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
@@ -28,6 +30,7 @@ import com.github.jsbxyyx.xbook.common.ProgressListener;
 import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.common.UiUtils;
 import com.github.jsbxyyx.xbook.data.BookNetHelper;
+import com.github.jsbxyyx.xbook.data.DownloadQueue;
 
 import java.io.File;
 import java.util.Arrays;
@@ -51,6 +54,9 @@ public class SettingsActivity extends AppCompatActivity {
             Common.sync_key,
             Common.reader_image_show_key,
             Common.online_read_key,
+            Common.segmented_download_key,
+            Common.download_unmetered_key,
+            Common.download_parallel_key,
     };
 
     @Override
@@ -303,6 +309,55 @@ public class SettingsActivity extends AppCompatActivity {
             LogUtil.d(getClass().getSimpleName(), "online read checked : %s", cb.isChecked());
         });
 
+        String segmented_download_data = SPUtils.getData(getBaseContext(), Common.segmented_download_key, Common.unchecked);
+        CheckBox cb_segmented_download = findViewById(R.id.cb_segmented_download);
+        if (Common.checked.equals(segmented_download_data)) {
+            cb_segmented_download.setChecked(true);
+        } else {
+            cb_segmented_download.setChecked(false);
+        }
+        cb_segmented_download.setOnClickListener((v) -> {
+            CheckBox cb = (CheckBox) v;
+            if (cb.isChecked()) {
+                SPUtils.putData(getBaseContext(), Common.segmented_download_key, Common.checked);
+            } else {
+                SPUtils.putData(getBaseContext(), Common.segmented_download_key, Common.unchecked);
+            }
+            LogUtil.d(getClass().getSimpleName(), "segmented download checked : %s", cb.isChecked());
+        });
+
+        String download_unmetered_data = SPUtils.getData(getBaseContext(), Common.download_unmetered_key, Common.unchecked);
+        CheckBox cb_download_unmetered = findViewById(R.id.cb_download_unmetered);
+        if (Common.checked.equals(download_unmetered_data)) {
+            cb_download_unmetered.setChecked(true);
+        } else {
+            cb_download_unmetered.setChecked(false);
+        }
+        cb_download_unmetered.setOnClickListener((v) -> {
+            CheckBox cb = (CheckBox) v;
+            if (cb.isChecked()) {
+                SPUtils.putData(getBaseContext(), Common.download_unmetered_key, Common.checked);
+            } else {
+                SPUtils.putData(getBaseContext(), Common.download_unmetered_key, Common.unchecked);
+            }
+            LogUtil.d(getClass().getSimpleName(), "download unmetered checked : %s", cb.isChecked());
+        });
+
+        DownloadQueue downloadQueue = DownloadQueue.get(this);
+        RadioGroup rg_download_parallel = findViewById(R.id.rg_download_parallel);
+        int parallel = downloadQueue.getParallelism();
+        for (int i = 0; i < rg_download_parallel.getChildCount(); i++) {
+            View view = rg_download_parallel.getChildAt(i);
+            if (view instanceof RadioButton && String.valueOf(parallel).equals(((RadioButton) view).getText().toString())) {
+                ((RadioButton) view).setChecked(true);
+            }
+        }
+        rg_download_parallel.setOnCheckedChangeListener((group, checkedId) -> {
+            RadioButton rb = group.findViewById(checkedId);
+            downloadQueue.setParallelism(Integer.parseInt(rb.getText().toString()));
+            LogUtil.d(getClass().getSimpleName(), "download parallel : %s", rb.getText());
+        });
+
         Button btn_clear_settings = findViewById(R.id.btn_clear_settings);
         btn_clear_settings.setOnClickListener((v) -> {
             for (String key : clearKeys) {
@@ -22,7 +22,7 @@ import com.github.jsbxyyx.xbook.data.BookDbHelper;
 import com.github.jsbxyyx.xbook.data.BookNetHelper;
 import com.github.jsbxyyx.xbook.data.bean.Book;
 import com.github.jsbxyyx.xbook.data.bean.ViewTime;
-import com.github.jsbxyyx.xbook.httpserver.FileHttpServer;
+import com.github.jsbxyyx.xbook.httpserver.LocalHttpServer;
 import com.github.jsbxyyx.xbook.httpserver.MediaTypeFactory;
 
 import java.io.File;
@@ -36,7 +36,6 @@ import java.util.Map;
  */
 public class ViewActivity extends AppCompatActivity {
 
-    private FileHttpServer mHttpd;
     private WebView webView;
     private String bookId;
     private String bookTitle;
@@ -76,67 +75,61 @@ public class ViewActivity extends AppCompatActivity {
             return;
         }
 
-        int port = 5200;
-        mHttpd = new FileHttpServer(port, new MediaTypeFactory(getBaseContext()));
+        String fileUrl;
         try {
-            mHttpd.start();
+            fileUrl = LocalHttpServer.get(this).getFileUrl();
         } catch (IOException e) {
-            LogUtil.e(getClass().getSimpleName(), "onCreate: %s", LogUtil.getStackTraceString(e));
+            LogUtil.e(getClass().getSimpleName(), "local server: %s", e.getMessage());
+            UiUtils.showToast("本地服务启动失败:" + e.getMessage());
+            return;
         }
 
-        try {
-
-            String www = "www";
-            Common.copyAssets(this, www, Common.xbook_dir + "/" + www);
-
-            webView = findViewById(R.id.wv_view);
-            webView.getSettings().setJavaScriptEnabled(true);
-            // webView.getSettings().setCacheMode(WebSettings.LOAD_NO_CACHE);
-            // webView.clearCache(true);
-            webView.addJavascriptInterface(new BookJavascript(this), "xbook");
-            String name = Common.urlEncode(
-                    Common.urlEncode(
-                            file_path.replace(Common.xbook_dir + "/", "")
-                    )
-            );
-            String extension = MediaTypeFactory.getFilenameExtension(file_path);
-            String html = "";
-            if ("epub".equalsIgnoreCase(extension)) {
-                html = "epub.html";
-            } else if ("pdf".equalsIgnoreCase(extension)) {
-                webView.getSettings().setUseWideViewPort(true);
-                webView.getSettings().setLoadWithOverviewMode(true);
-                webView.getSettings().setSupportZoom(true);
-                webView.getSettings().setBuiltInZoomControls(true);
-                webView.getSettings().setDisplayZoomControls(false);
-                webView.setInitialScale(10);
-                html = "pdf.html";
-            }
-            if (Common.isEmpty(html)) {
-                UiUtils.showToast("不支持的文件格式:" + extension);
-                return;
-            }
-            String onlineReadData = SPUtils.getData(getBaseContext(), Common.online_read_key, Common.unchecked);
-            String htmlUrl = "";
-            if (Common.checked.equals(onlineReadData)) {
-                htmlUrl = "https://xxzkid.github.io/public/" + html;
-            } else {
-                htmlUrl = "http://127.0.0.1:" + port + "/" + www + "/" + html;
-            }
-            LogUtil.d(getClass().getSimpleName(), "html : %s", htmlUrl);
-            String fileUrl = "http://127.0.0.1:" + port;
-            String param = String.format(
-                    "cur=%s&pages=%s&book_id=%s&name=%s&t=%s&navh=%s&file_url=%s&online=%s",
-                    cur, pages, bookId, name, System.currentTimeMillis(), navH,
-                    Common.urlEncode(fileUrl), onlineReadData
-            );
-            String url = "${htmlUrl}?${param}"
-                    .replace("${htmlUrl}", htmlUrl)
-                    .replace("${param}", param);
-            webView.loadUrl(url);
-        } catch (IOException e) {
-            LogUtil.e(getClass().getSimpleName(), "onCreate: %s", LogUtil.getStackTraceString(e));
+        String www = "www";
+
+        webView = findViewById(R.id.wv_view);
+        webView.getSettings().setJavaScriptEnabled(true);
+        // webView.getSettings().setCacheMode(WebSettings.LOAD_NO_CACHE);
+        // webView.clearCache(true);
+        webView.addJavascriptInterface(new BookJavascript(this), "xbook");
+        String name = Common.urlEncode(
+                Common.urlEncode(
+                        file_path.replace(Common.xbook_dir + "/", "")
+                )
+        );
+        String extension = MediaTypeFactory.getFilenameExtension(file_path);
+        String html = "";
+        if ("epub".equalsIgnoreCase(extension)) {
+            html = "epub.html";
+        } else if ("pdf".equalsIgnoreCase(extension)) {
+            webView.getSettings().setUseWideViewPort(true);
+            webView.getSettings().setLoadWithOverviewMode(true);
+            webView.getSettings().setSupportZoom(true);
+            webView.getSettings().setBuiltInZoomControls(true);
+            webView.getSettings().setDisplayZoomControls(false);
+            webView.setInitialScale(10);
+            html = "pdf.html";
+        }
+        if (Common.isEmpty(html)) {
+            UiUtils.showToast("不支持的文件格式:" + extension);
+            return;
         }
+        String onlineReadData = SPUtils.getData(getBaseContext(), Common.online_read_key, Common.unchecked);
+        String htmlUrl = "";
+        if (Common.checked.equals(onlineReadData)) {
+            htmlUrl = "https://xxzkid.github.io/public/" + html;
+        } else {
+            htmlUrl = fileUrl + "/" + www + "/" + BuildConfig.VERSION_CODE + "/" + html;
+        }
+        LogUtil.d(getClass().getSimpleName(), "html : %s", htmlUrl);
+        String param = String.format(
+                "cur=%s&pages=%s&book_id=%s&name=%s&navh=%s&file_url=%s&online=%s",
+                cur, pages, bookId, name, navH,
+                Common.urlEncode(fileUrl), onlineReadData
+        );
+        String url = "${htmlUrl}?${param}"
+                .replace("${htmlUrl}", htmlUrl)
+                .replace("${param}", param);
+        webView.loadUrl(url);
     }
 
     @Override
@@ -170,9 +163,6 @@ public class ViewActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         LogUtil.d(getClass().getSimpleName(), "onDestroy");
-        if (mHttpd != null) {
-            mHttpd.stop();
-        }
         if (webView != null) {
             webView.destroy();
         }
@@ -0,0 +1,35 @@
+package com.github.jsbxyyx.xbook.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reusable transfer buffers, so a download does not allocate one per attempt or per connection.
+ * A buffer not handed back is simply collected; at most {@link #MAX_POOLED} are kept.
+ *
+ * @author jsbxyyx
+ */
+public class BufferPool {
+
+    public static final int SIZE = 64 * 1024;
+    private static final int MAX_POOLED = 8;
+
+    private static final ArrayBlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    /**
+     * A buffer of {@link #SIZE} bytes, contents undefined.
+     */
+    public static byte[] acquire() {
+        byte[] buffer = pool.poll();
+        return buffer != null ? buffer : new byte[SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer != null && buffer.length == SIZE) {
+            pool.offer(buffer);
+        }
+    }
+
+}
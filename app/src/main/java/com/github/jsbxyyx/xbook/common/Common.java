@@ -1,19 +1,16 @@
 package com.github.jsbxyyx.xbook.common;
 
-import android.content.Context;
-import android.content.res.AssetManager;
 import android.os.Environment;
 
 import com.github.jsbxyyx.xbook.data.bean.Ip;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,7 +22,7 @@ public class Common {
 
     public static final String sdcard = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS).getAbsolutePath();
 
-    private static final List<Ip> IPS = new ArrayList<>();
+    private static volatile List<Ip> IPS = Collections.emptyList();
 
     public static final String host = "http2.idingdang.org";
     private static final String xurl = "https://" + host + "/xbook";
@@ -49,6 +46,10 @@ public class Common {
     public static final String sync_key = "sync";
     public static final String reader_image_show_key = "reader_image_show";
     public static final String online_read_key = "online_read";
+    public static final String ips_key = "ips";
+    public static final String segmented_download_key = "segmented_download";
+    public static final String download_unmetered_key = "download_unmetered";
+    public static final String download_parallel_key = "download_parallel";
     public static final String checked = "1";
     public static final String unchecked = "0";
 
@@ -150,49 +151,6 @@ public class Common {
         return kvMap;
     }
 
-    public static byte[] xor(byte[] rawData, int len, byte number) {
-        byte[] encodeData = new byte[len];
-        for (int i = 0; i < len; i++) {
-            encodeData[i] = (byte) (rawData[i] ^ number);
-        }
-        return encodeData;
-    }
-
-    public static void copyAssets(Context context, String asset, String dest) throws IOException {
-        AssetManager assetManager = context.getAssets();
-        String[] assets = assetManager.list(asset);
-        File destDir = new File(dest);
-        if (!destDir.exists()) {
-            destDir.mkdirs();
-        }
-        if (assets != null) {
-            for (String file : assets) {
-                String assetPath = asset + "/" + file;
-                File targetFile = new File(destDir, file);
-                if (isDirectory(assetManager, assetPath)) {
-                    if (!targetFile.exists()) {
-                        targetFile.mkdirs();
-                    }
-                    copyAssets(context, assetPath, targetFile.getAbsolutePath());
-                } else {
-                    try (InputStream in = assetManager.open(assetPath);
-                         FileOutputStream out = new FileOutputStream(targetFile)) {
-                        copy(in, out);
-                    }
-                }
-            }
-        }
-    }
-
-    public static boolean isDirectory(AssetManager assetManager, String assetPath) {
-        try {
-            String[] files = assetManager.list(assetPath);
-            return files != null && files.length > 0;
-        } catch (IOException e) {
-            return false;
-        }
-    }
-
     public static String getXurl() {
         return xurl;
     }
@@ -203,8 +161,7 @@ public class Common {
 
     public static void setIPS(List<Ip> ips) {
         if (!isEmpty(ips)) {
-            IPS.clear();
-            IPS.addAll(ips);
+            IPS = Collections.unmodifiableList(new ArrayList<>(ips));
         }
     }
 
@@ -213,10 +170,11 @@ public class Common {
     }
 
     public static String getIp() {
-        if (IPS.isEmpty()) {
+        List<Ip> ips = IPS;
+        if (ips.isEmpty()) {
             return host;
         }
-        return IPS.get(0).getIp();
+        return ips.get(0).getIp();
     }
 
 }
@@ -0,0 +1,66 @@
+package com.github.jsbxyyx.xbook.common;
+
+/**
+ * Coalesces progress before it reaches a listener that updates the screen. An event gets through
+ * when it moved the progress by at least half a percent and the last one is {@link #INTERVAL} old,
+ * or once a second whatever it moved; the first and the final event always get through, see
+ * {@link #flush()} for downloads of unknown length.
+ *
+ * @author jsbxyyx
+ */
+public class ProgressDispatcher implements ProgressListener {
+
+    private static final long INTERVAL = 200;
+    private static final long HEARTBEAT = 1000;
+    private static final double MIN_STEP = 0.005;
+
+    private final ProgressListener listener;
+    private long time;
+    private long sent = -1;
+    private long bytesRead = -1;
+    private long total;
+
+    public ProgressDispatcher(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void onProgress(long bytesRead, long total) {
+        this.bytesRead = bytesRead;
+        this.total = total;
+        if (bytesRead == sent) {
+            return;
+        }
+        if (sent < 0 || (total >= 0 && bytesRead >= total)) {
+            dispatch(System.currentTimeMillis());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long elapsed = now - time;
+        if (elapsed >= HEARTBEAT
+                || (elapsed >= INTERVAL && (total <= 0 || bytesRead - sent >= total * MIN_STEP))) {
+            dispatch(now);
+        }
+    }
+
+    @Override
+    public void onSpeed(long bytesPerSecond) {
+        listener.onSpeed(bytesPerSecond);
+    }
+
+    /**
+     * Hands on the last event if it was held back.
+     */
+    public synchronized void flush() {
+        if (bytesRead >= 0 && bytesRead != sent) {
+            dispatch(System.currentTimeMillis());
+        }
+    }
+
+    private void dispatch(long now) {
+        time = now;
+        sent = bytesRead;
+        listener.onProgress(bytesRead, total);
+    }
+
+}
@@ -7,4 +7,10 @@ public interface ProgressListener {
 
     void onProgress(long bytesRead, long total);
 
+    /**
+     * Measured throughput, reported about once a second.
+     */
+    default void onSpeed(long bytesPerSecond) {
+    }
+
 }
@@ -25,6 +25,10 @@ public class UiUtils {
         mContext = context;
     }
 
+    public static Context getContext() {
+        return mContext;
+    }
+
     public static int getNavigationBarRealHeight(Activity activity) {
         Window window = activity.getWindow();
         View decorView = window.getDecorView();
@@ -38,6 +42,9 @@ public class UiUtils {
 
     public static String getVersionName() {
         String versionName = "0";
+        if (mContext == null) {
+            return versionName;
+        }
         try {
             versionName = mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).versionName;
         } catch (PackageManager.NameNotFoundException ex) {
@@ -47,6 +54,9 @@ public class UiUtils {
 
     public static int getVersionCode() {
         int versionCode = 0;
+        if (mContext == null) {
+            return versionCode;
+        }
         try {
             versionCode = mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).versionCode;
         } catch (PackageManager.NameNotFoundException ex) {
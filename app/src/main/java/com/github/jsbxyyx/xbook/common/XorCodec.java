@@ -0,0 +1,50 @@
+package com.github.jsbxyyx.xbook.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * In-place XOR with a single key byte.
+ * <p>
+ * The key is the same for every byte, so a chunk decodes the same way at any stream offset
+ * and encoding and decoding are the same operation.
+ *
+ * @author jsbxyyx
+ */
+public class XorCodec {
+
+    private XorCodec() {
+    }
+
+    /**
+     * XOR {@code data[off, off + len)} in place.
+     * <p>
+     * A plain indexed loop over an array is picked up by the loop vectorizer, which is faster
+     * than going through a long view and keeps array and buffer call sites apart.
+     */
+    public static void xor(byte[] data, int off, int len, byte key) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            data[i] = (byte) (data[i] ^ key);
+        }
+    }
+
+    /**
+     * XOR the remaining bytes of {@code buf} in place, leaving position and limit untouched.
+     * Eight bytes per step through a native order long view.
+     */
+    public static void xor(ByteBuffer buf, byte key) {
+        long mask = (key & 0xFFL) * 0x0101010101010101L;
+        // the mask is byte-symmetric, native order just avoids swapping every long
+        LongBuffer words = buf.duplicate().order(ByteOrder.nativeOrder()).asLongBuffer();
+        int n = words.limit();
+        for (int i = 0; i < n; i++) {
+            words.put(i, words.get(i) ^ mask);
+        }
+        for (int i = buf.position() + n * 8; i < buf.limit(); i++) {
+            buf.put(i, (byte) (buf.get(i) ^ key));
+        }
+    }
+
+}
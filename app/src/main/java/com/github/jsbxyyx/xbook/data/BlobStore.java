@@ -0,0 +1,186 @@
+package com.github.jsbxyyx.xbook.data;
+
+import android.content.Context;
+
+import com.github.jsbxyyx.xbook.common.BufferPool;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.bean.Blob;
+import com.github.jsbxyyx.xbook.data.bean.Book;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Downloaded books stored by content. A book file is named by the SHA-256 of its bytes, as
+ * written to disk, so the same content downloaded again, for another book row, after the row
+ * was deleted or by a restore, ends up as the one file it already is.
+ * <p>
+ * The blob table counts the book rows referring to each file, the file goes with the last
+ * reference. A blob is recorded together with its first reference, those left without one by an
+ * older version are swept at startup. The url a blob was downloaded from is remembered, a later
+ * download of that url is answered from disk without going to the network.
+ *
+ * @author jsbxyyx
+ */
+public class BlobStore {
+
+    private static final String TAG = "BlobStore";
+
+    private static volatile BlobStore instance = null;
+
+    private final BookDbHelper bookDbHelper;
+
+    BlobStore(BookDbHelper bookDbHelper) {
+        this.bookDbHelper = bookDbHelper;
+        sweep();
+    }
+
+    public static BlobStore get(Context context) {
+        if (instance != null) {
+            return instance;
+        }
+        synchronized (BlobStore.class) {
+            if (instance == null) {
+                instance = new BlobStore(new BookDbHelper(context.getApplicationContext()));
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * The file downloaded before from {@code url}, null when there is none or it is gone.
+     */
+    public synchronized File find(String url) {
+        Blob blob = bookDbHelper.findBlobByUrl(url);
+        if (blob == null) {
+            return null;
+        }
+        File file = new File(blob.getPath());
+        if (!file.exists() || file.length() != blob.getSize()) {
+            // downloaded again, the same content lands on the same path and keeps the references
+            LogUtil.d(TAG, "gone: %s", blob);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Counts one more book row referring to {@code file}, named by its digest, recording it first
+     * if it is new. {@code url} is remembered as where it was downloaded from when not null.
+     */
+    public synchronized void acquire(File file, String url) {
+        Blob blob = new Blob();
+        blob.setDigest(digestOf(file));
+        blob.setPath(file.getAbsolutePath());
+        blob.setSize(file.length());
+        bookDbHelper.acquireBlob(blob, url);
+    }
+
+    /**
+     * Remembers {@code url} as where {@code file} was downloaded from, if it is in the store.
+     */
+    public synchronized void remember(File file, String url) {
+        Blob blob = bookDbHelper.findBlobByDigest(digestOf(file));
+        if (blob != null) {
+            bookDbHelper.saveBlobUrl(url, blob.getDigest());
+        }
+    }
+
+    /**
+     * Counts one book row less referring to {@code file} and deletes it with the last one.
+     * A file that is not in the store is deleted right away.
+     *
+     * @return whether the file was deleted
+     */
+    public synchronized boolean release(File file) {
+        Blob blob = bookDbHelper.findBlobByDigest(digestOf(file));
+        if (blob == null) {
+            return file.delete();
+        }
+        if (blob.getRefs() > 1) {
+            bookDbHelper.updateBlobRefs(blob.getDigest(), blob.getRefs() - 1);
+            return false;
+        }
+        bookDbHelper.deleteBlob(blob.getDigest());
+        LogUtil.d(TAG, "delete: %s", blob);
+        return file.delete();
+    }
+
+    /**
+     * Deletes the blobs without references and their files. A blob a book row still refers to
+     * lost its reference to a crash, its count is restored instead.
+     */
+    private synchronized void sweep() {
+        Map<String, Integer> held = new HashMap<>();
+        for (Book book : bookDbHelper.findAllBook()) {
+            String path = Common.isEmpty(book.getRemark()) ? null : book.getRemarkProperty("file_path");
+            if (!Common.isEmpty(path)) {
+                held.merge(path, 1, Integer::sum);
+            }
+        }
+        for (Blob blob : bookDbHelper.findUnreferencedBlobs()) {
+            Integer refs = held.get(blob.getPath());
+            if (refs != null) {
+                LogUtil.d(TAG, "refs %s: %s", refs, blob);
+                bookDbHelper.updateBlobRefs(blob.getDigest(), refs);
+                continue;
+            }
+            LogUtil.d(TAG, "sweep: %s", blob);
+            bookDbHelper.deleteBlob(blob.getDigest());
+            new File(blob.getPath()).delete();
+        }
+    }
+
+    /**
+     * The digest a stored file is named by, its name without the extension.
+     */
+    public static String digestOf(File file) {
+        String name = file.getName();
+        int dot = name.indexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Adds the first {@code length} bytes of {@code file} to {@code digest}.
+     */
+    public static void update(MessageDigest digest, File file, long length) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try (InputStream input = new FileInputStream(file)) {
+            long left = length;
+            while (left > 0) {
+                int n = input.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n == -1) {
+                    throw new IOException("file ended at " + (length - left) + ": " + file);
+                }
+                digest.update(buffer, 0, n);
+                left -= n;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    public static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -8,8 +8,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.bean.Blob;
 import com.github.jsbxyyx.xbook.data.bean.Book;
 import com.github.jsbxyyx.xbook.data.bean.BookReader;
+import com.github.jsbxyyx.xbook.data.bean.Download;
 import com.github.jsbxyyx.xbook.data.bean.ViewTime;
 
 import java.text.SimpleDateFormat;
@@ -27,7 +29,7 @@ public class BookDbHelper extends SQLiteOpenHelper {
 
     private String TAG = getClass().getName();
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 3;
     private static final String DATABASE_NAME = "xbook.db";
 
     private final ReentrantLock l = new ReentrantLock();
@@ -67,6 +69,40 @@ public class BookDbHelper extends SQLiteOpenHelper {
     private String f_view_time_user = "user";
     private String f_view_time_remark = "remark";
 
+    private String t_download = "download";
+    private String f_download_id = "id";
+    private String f_download_book_id = "book_id";
+    private String f_download_title = "title";
+    private String f_download_url = "url";
+    private String f_download_dest_dir = "dest_dir";
+    private String f_download_uid = "uid";
+    private String f_download_magic = "magic";
+    private String f_download_priority = "priority";
+    private String f_download_unmetered = "unmetered";
+    private String f_download_state = "state";
+    private String f_download_done = "done";
+    private String f_download_total = "total";
+    private String f_download_attempts = "attempts";
+    private String f_download_not_before = "not_before";
+    private String f_download_file = "file";
+    private String f_download_error = "error";
+    private String f_download_book = "book";
+    private String f_download_created = "created";
+    private String f_download_user = "user";
+    private String f_download_remark = "remark";
+
+    private String t_blob = "blob";
+    private String f_blob_digest = "digest";
+    private String f_blob_path = "path";
+    private String f_blob_size = "size";
+    private String f_blob_refs = "refs";
+    private String f_blob_created = "created";
+
+    private String t_blob_url = "blob_url";
+    private String f_blob_url_url = "url";
+    private String f_blob_url_digest = "digest";
+    private String f_blob_url_created = "created";
+
     public BookDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -110,6 +146,41 @@ public class BookDbHelper extends SQLiteOpenHelper {
                 + ", " + f_view_time_user + " TEXT NOT NULL"
                 + ", " + f_view_time_remark + " TEXT"
                 + ")");
+
+        db.execSQL("create table if not exists " + t_download + " ( "
+                + f_download_id + " INTEGER primary key AUTOINCREMENT"
+                + ", " + f_download_book_id + " TEXT"
+                + ", " + f_download_title + " TEXT"
+                + ", " + f_download_url + " TEXT NOT NULL"
+                + ", " + f_download_dest_dir + " TEXT NOT NULL"
+                + ", " + f_download_uid + " TEXT"
+                + ", " + f_download_magic + " INTEGER NOT NULL"
+                + ", " + f_download_priority + " INTEGER NOT NULL"
+                + ", " + f_download_unmetered + " INTEGER NOT NULL"
+                + ", " + f_download_state + " TEXT NOT NULL"
+                + ", " + f_download_done + " INTEGER NOT NULL"
+                + ", " + f_download_total + " INTEGER NOT NULL"
+                + ", " + f_download_attempts + " INTEGER NOT NULL"
+                + ", " + f_download_not_before + " INTEGER NOT NULL"
+                + ", " + f_download_file + " TEXT"
+                + ", " + f_download_error + " TEXT"
+                + ", " + f_download_book + " TEXT"
+                + ", " + f_download_created + " DATETIME NOT NULL"
+                + ", " + f_download_user + " TEXT"
+                + ", " + f_download_remark + " TEXT"
+                + ")");
+        db.execSQL("create table if not exists " + t_blob + " ( "
+                + f_blob_digest + " TEXT primary key"
+                + ", " + f_blob_path + " TEXT NOT NULL"
+                + ", " + f_blob_size + " INTEGER NOT NULL"
+                + ", " + f_blob_refs + " INTEGER NOT NULL"
+                + ", " + f_blob_created + " DATETIME NOT NULL"
+                + ")");
+        db.execSQL("create table if not exists " + t_blob_url + " ( "
+                + f_blob_url_url + " TEXT primary key"
+                + ", " + f_blob_url_digest + " TEXT NOT NULL"
+                + ", " + f_blob_url_created + " DATETIME NOT NULL"
+                + ")");
     }
 
 
@@ -386,4 +457,283 @@ public class BookDbHelper extends SQLiteOpenHelper {
         e.setUser(cursor.getString(cursor.getColumnIndex(f_view_time_user)));
         e.setRemark(cursor.getString(cursor.getColumnIndex(f_view_time_remark)));
     }
+
+    public long insertDownload(Download e) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            ContentValues values = new ContentValues();
+            values.put(f_download_book_id, e.getBookId());
+            values.put(f_download_title, e.getTitle());
+            values.put(f_download_url, e.getUrl());
+            values.put(f_download_dest_dir, e.getDestDir());
+            values.put(f_download_uid, e.getUid());
+            values.put(f_download_magic, e.getMagic());
+            values.put(f_download_priority, e.getPriority());
+            values.put(f_download_unmetered, e.getUnmetered());
+            values.put(f_download_state, e.getState());
+            values.put(f_download_done, e.getDone());
+            values.put(f_download_total, e.getTotal());
+            values.put(f_download_attempts, e.getAttempts());
+            values.put(f_download_not_before, e.getNotBefore());
+            values.put(f_download_file, e.getFile());
+            values.put(f_download_error, e.getError());
+            values.put(f_download_book, e.getBook());
+            values.put(f_download_created, new Date().getTime());
+            values.put(f_download_user, e.getUser());
+            values.put(f_download_remark, e.getRemark());
+            long id = db.insert(t_download, null, values);
+            e.setId(id);
+            return id;
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void updateDownload(Download e) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("update %s set %s=?, %s=?, %s=?, %s=?, %s=?, %s=?, %s=?, %s=?, %s=?, %s=?, %s=? where %s=?",
+                    t_download,
+                    f_download_priority, f_download_unmetered, f_download_state, f_download_done,
+                    f_download_total, f_download_attempts, f_download_not_before, f_download_file,
+                    f_download_error, f_download_book, f_download_remark,
+                    f_download_id);
+            Object[] params = new Object[]{
+                    e.getPriority(), e.getUnmetered(), e.getState(), e.getDone(),
+                    e.getTotal(), e.getAttempts(), e.getNotBefore(), e.getFile(),
+                    e.getError(), e.getBook(), e.getRemark(),
+                    e.getId()
+            };
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            db.execSQL(sql, params);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void deleteDownload(Long id) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("delete from %s where %s=?", t_download, f_download_id);
+            Object[] params = new Object[]{id};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            db.execSQL(sql, params);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * All downloads, the next to run first.
+     */
+    public List<Download> findAllDownload() {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("select * from %s order by %s desc, %s asc", t_download, f_download_priority, f_download_id);
+            String[] params = new String[]{};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            try (Cursor cursor = db.rawQuery(sql, params)) {
+                List<Download> list = new ArrayList<>();
+                if (cursor.moveToFirst()) {
+                    do {
+                        Download e = new Download();
+                        buildDownload(cursor, e);
+                        list.add(e);
+                    } while (cursor.moveToNext());
+                }
+                return list;
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    @SuppressLint("Range")
+    private void buildDownload(Cursor cursor, Download e) {
+        e.setId(cursor.getLong(cursor.getColumnIndex(f_download_id)));
+        e.setBookId(cursor.getString(cursor.getColumnIndex(f_download_book_id)));
+        e.setTitle(cursor.getString(cursor.getColumnIndex(f_download_title)));
+        e.setUrl(cursor.getString(cursor.getColumnIndex(f_download_url)));
+        e.setDestDir(cursor.getString(cursor.getColumnIndex(f_download_dest_dir)));
+        e.setUid(cursor.getString(cursor.getColumnIndex(f_download_uid)));
+        e.setMagic(cursor.getLong(cursor.getColumnIndex(f_download_magic)));
+        e.setPriority(cursor.getInt(cursor.getColumnIndex(f_download_priority)));
+        e.setUnmetered(cursor.getInt(cursor.getColumnIndex(f_download_unmetered)));
+        e.setState(cursor.getString(cursor.getColumnIndex(f_download_state)));
+        e.setDone(cursor.getLong(cursor.getColumnIndex(f_download_done)));
+        e.setTotal(cursor.getLong(cursor.getColumnIndex(f_download_total)));
+        e.setAttempts(cursor.getInt(cursor.getColumnIndex(f_download_attempts)));
+        e.setNotBefore(cursor.getLong(cursor.getColumnIndex(f_download_not_before)));
+        e.setFile(cursor.getString(cursor.getColumnIndex(f_download_file)));
+        e.setError(cursor.getString(cursor.getColumnIndex(f_download_error)));
+        e.setBook(cursor.getString(cursor.getColumnIndex(f_download_book)));
+        e.setCreated(cursor.getString(cursor.getColumnIndex(f_download_created)));
+        e.setUser(cursor.getString(cursor.getColumnIndex(f_download_user)));
+        e.setRemark(cursor.getString(cursor.getColumnIndex(f_download_remark)));
+    }
+
+    /**
+     * Counts one more reference to the blob, recording it first when it is new, and remembers
+     * {@code url} for it if not null. One transaction, so no blob is left without its reference.
+     */
+    public void acquireBlob(Blob e, String url) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                String sql1 = String.format("insert or ignore into %s (%s, %s, %s, %s, %s) values (?, ?, ?, 0, ?)",
+                        t_blob, f_blob_digest, f_blob_path, f_blob_size, f_blob_refs, f_blob_created);
+                Object[] params1 = new Object[]{e.getDigest(), e.getPath(), e.getSize(), new Date().getTime()};
+                LogUtil.d(TAG, "sql:[%s] params:%s", sql1, Arrays.toString(params1));
+                db.execSQL(sql1, params1);
+                String sql2 = String.format("update %s set %s=%s+1 where %s=?", t_blob, f_blob_refs, f_blob_refs, f_blob_digest);
+                Object[] params2 = new Object[]{e.getDigest()};
+                LogUtil.d(TAG, "sql:[%s] params:%s", sql2, Arrays.toString(params2));
+                db.execSQL(sql2, params2);
+                if (url != null) {
+                    String sql3 = String.format("insert or replace into %s (%s, %s, %s) values (?, ?, ?)",
+                            t_blob_url, f_blob_url_url, f_blob_url_digest, f_blob_url_created);
+                    Object[] params3 = new Object[]{url, e.getDigest(), new Date().getTime()};
+                    LogUtil.d(TAG, "sql:[%s] params:%s", sql3, Arrays.toString(params3));
+                    db.execSQL(sql3, params3);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Blobs no book row refers to.
+     */
+    public List<Blob> findUnreferencedBlobs() {
+        try {
+            l.lock();
+            List<Blob> list = new ArrayList<>();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("select * from %s where %s<=0", t_blob, f_blob_refs);
+            String[] params = new String[]{};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            try (Cursor cursor = db.rawQuery(sql, params)) {
+                if (cursor.moveToFirst()) {
+                    do {
+                        Blob e = new Blob();
+                        buildBlob(cursor, e);
+                        list.add(e);
+                    } while (cursor.moveToNext());
+                }
+            }
+            return list;
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public Blob findBlobByDigest(String digest) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("select * from %s where %s=?", t_blob, f_blob_digest);
+            String[] params = new String[]{digest};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            try (Cursor cursor = db.rawQuery(sql, params)) {
+                if (cursor.moveToFirst()) {
+                    Blob e = new Blob();
+                    buildBlob(cursor, e);
+                    return e;
+                }
+                return null;
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * The blob last downloaded from {@code url}.
+     */
+    public Blob findBlobByUrl(String url) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("select b.* from %s b, %s u where u.%s=? and b.%s=u.%s",
+                    t_blob, t_blob_url, f_blob_url_url, f_blob_digest, f_blob_url_digest);
+            String[] params = new String[]{url};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            try (Cursor cursor = db.rawQuery(sql, params)) {
+                if (cursor.moveToFirst()) {
+                    Blob e = new Blob();
+                    buildBlob(cursor, e);
+                    return e;
+                }
+                return null;
+            }
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void updateBlobRefs(String digest, int refs) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("update %s set %s=? where %s=?", t_blob, f_blob_refs, f_blob_digest);
+            Object[] params = new Object[]{refs, digest};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            db.execSQL(sql, params);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    /**
+     * Deletes the blob and the urls it was downloaded from.
+     */
+    public void deleteBlob(String digest) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql1 = String.format("delete from %s where %s=?", t_blob, f_blob_digest);
+            Object[] params1 = new Object[]{digest};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql1, Arrays.toString(params1));
+            db.execSQL(sql1, params1);
+            String sql2 = String.format("delete from %s where %s=?", t_blob_url, f_blob_url_digest);
+            Object[] params2 = new Object[]{digest};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql2, Arrays.toString(params2));
+            db.execSQL(sql2, params2);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    public void saveBlobUrl(String url, String digest) {
+        try {
+            l.lock();
+            SQLiteDatabase db = getWritableDatabase();
+            String sql = String.format("insert or replace into %s (%s, %s, %s) values (?, ?, ?)",
+                    t_blob_url, f_blob_url_url, f_blob_url_digest, f_blob_url_created);
+            Object[] params = new Object[]{url, digest, new Date().getTime()};
+            LogUtil.d(TAG, "sql:[%s] params:%s", sql, Arrays.toString(params));
+            db.execSQL(sql, params);
+        } finally {
+            l.unlock();
+        }
+    }
+
+    @SuppressLint("Range")
+    private void buildBlob(Cursor cursor, Blob e) {
+        e.setDigest(cursor.getString(cursor.getColumnIndex(f_blob_digest)));
+        e.setPath(cursor.getString(cursor.getColumnIndex(f_blob_path)));
+        e.setSize(cursor.getLong(cursor.getColumnIndex(f_blob_size)));
+        e.setRefs(cursor.getInt(cursor.getColumnIndex(f_blob_refs)));
+        e.setCreated(cursor.getString(cursor.getColumnIndex(f_blob_created)));
+    }
 }
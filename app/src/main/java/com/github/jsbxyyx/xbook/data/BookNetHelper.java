@@ -1,25 +1,36 @@
 package com.github.jsbxyyx.xbook.data;
 
-import static com.github.jsbxyyx.xbook.common.Common.getXurl;
-import static com.github.jsbxyyx.xbook.common.Common.getXburl;
 import static com.github.jsbxyyx.xbook.common.Common.zurl;
-
-import androidx.annotation.NonNull;
+import static com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint.Target.XBURL;
+import static com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint.Target.XURL;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.BufferPool;
 import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.ContentDispositionParser;
 import com.github.jsbxyyx.xbook.common.DataCallback;
 import com.github.jsbxyyx.xbook.common.HttpStatusException;
 import com.github.jsbxyyx.xbook.common.JsonUtil;
 import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.ProgressDispatcher;
 import com.github.jsbxyyx.xbook.common.ProgressListener;
+import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.common.SessionManager;
 import com.github.jsbxyyx.xbook.common.UiUtils;
+import com.github.jsbxyyx.xbook.common.XorCodec;
 import com.github.jsbxyyx.xbook.data.bean.Book;
 import com.github.jsbxyyx.xbook.data.bean.MLog;
 import com.github.jsbxyyx.xbook.data.bean.Profile;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCache;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCall;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyClient;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyResponse;
+import com.github.jsbxyyx.xbook.data.proxy.ResponseDecoder;
+import com.github.jsbxyyx.xbook.data.proxy.RetryPolicy;
+import com.github.jsbxyyx.xbook.data.proxy.SingleFlight;
 import com.github.jsbxyyx.xbook.httpserver.MediaTypeFactory;
 
 import java.io.File;
@@ -28,19 +39,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Base64;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -49,156 +54,104 @@ import okhttp3.Response;
  */
 public class BookNetHelper {
 
+    private static final TypeReference<List<Book>> BOOK_LIST = new TypeReference<List<Book>>() {
+    };
+    private static final TypeReference<Book> BOOK = new TypeReference<Book>() {
+    };
+    private static final TypeReference<JsonNode> JSON = new TypeReference<JsonNode>() {
+    };
+    private static final TypeReference<Profile> USER_PROFILE = new TypeReference<Profile>() {
+    };
+
+    private static final ProxyEndpoint<List<Book>> SEARCH = ProxyEndpoint.of("search", XURL,
+                    ResponseDecoder.dataList(BOOK_LIST))
+            .fallback(ArrayList::new)
+            .intercept(SingleFlight.of(BOOK_LIST))
+            .intercept(ProxyCache.of(BOOK_LIST, TimeUnit.MINUTES.toMillis(5), TimeUnit.MINUTES.toMillis(30)))
+            .intercept(RetryPolicy.of(3).hedge());
+    private static final ProxyEndpoint<Book> DETAIL = ProxyEndpoint.of("detail", XURL,
+                    ResponseDecoder.data(BOOK))
+            .batch()
+            .intercept(SingleFlight.of(BOOK))
+            .intercept(ProxyCache.of(BOOK, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7)))
+            .intercept(RetryPolicy.of(3).hedge());
+    private static final ProxyEndpoint<String> LOGIN = ProxyEndpoint.of("login", XURL,
+            BookNetHelper::decodeLogin);
+    private static final ProxyEndpoint<Profile> PROFILE = ProxyEndpoint.of("profile", XURL,
+                    BookNetHelper::decodeProfile)
+            .batch()
+            .intercept(SingleFlight.of(USER_PROFILE))
+            .intercept(RetryPolicy.of(3).hedge());
+    private static final ProxyEndpoint<JsonNode> SEND_CODE = ProxyEndpoint.of("send-code", XURL,
+            ResponseDecoder.dataText());
+    private static final ProxyEndpoint<String> REGISTRATION = ProxyEndpoint.of("registration", XURL,
+            BookNetHelper::decodeRegistration);
+    private static final ProxyEndpoint<JsonNode> CLOUD = ProxyEndpoint.of("cloud", XBURL,
+                    ResponseDecoder.json())
+            .sync();
+    private static final ProxyEndpoint<JsonNode> CLOUD_META = ProxyEndpoint.of("cloud meta", XBURL,
+                    ResponseDecoder.json())
+            .sync()
+            .batch();
+    // a write, never batched so it cannot be sent twice
+    private static final ProxyEndpoint<JsonNode> CLOUD_SYNC_META = ProxyEndpoint.of("cloud sync meta", XBURL,
+                    ResponseDecoder.json())
+            .sync();
+    private static final ProxyEndpoint<JsonNode> CLOUD_VERSIONS = ProxyEndpoint.of("cloud versions", XBURL,
+                    ResponseDecoder.json())
+            .sync()
+            .batch()
+            .intercept(SingleFlight.of(JSON))
+            .intercept(ProxyCache.of(JSON, TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(1)));
+    private static final ProxyEndpoint<byte[]> CLOUD_DOWNLOAD = ProxyEndpoint.of("cloud download", XBURL,
+                    ResponseDecoder.bytes())
+            .sync()
+            .fallback(() -> new byte[0]);
+    private static final ProxyEndpoint<JsonNode> RESETPWD = ProxyEndpoint.of("resetpwd", XBURL,
+            ResponseDecoder.data());
+    private static final ProxyEndpoint<List<Book>> DETAIL_SUGGEST = ProxyEndpoint.of("detail suggest", XBURL,
+                    ResponseDecoder.dataList(BOOK_LIST))
+            .batch()
+            .intercept(SingleFlight.of(BOOK_LIST))
+            .intercept(ProxyCache.of(BOOK_LIST, TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(7)))
+            .intercept(RetryPolicy.of(3).hedge());
+
+    private static final long PART_RECORD = 256 * 1024;
+
     private String userAgent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/122.0.0.0 Safari/537.36";
     private String content_type_key = "content-type";
     private String cookie_key = "cookie";
 
     private String TAG = getClass().getSimpleName();
 
-    public void search(String keyword, int page, List<String> languages, List<String> extensions, DataCallback<List<Book>> dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-
-        String reqUrl = zurl + "/s/" + Common.urlEncode(keyword);
-        object.put("method", "GET");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
+    private ProxyEnvelope withSession(ProxyEnvelope envelope) {
+        return envelope.header("User-Agent", userAgent)
+                .header(cookie_key, SessionManager.getSession());
+    }
 
-        List<Object> params = new ArrayList<>();
-        List<String> p0 = new ArrayList<>();
-        p0.add("page");
-        p0.add(page + "");
-        params.add(p0);
-        if (languages != null && !languages.isEmpty()) {
+    public void search(String keyword, int page, List<String> languages, List<String> extensions, DataCallback<List<Book>> dataCallback) {
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.get(zurl + "/s/" + Common.urlEncode(keyword)))
+                .param("page", page + "");
+        if (languages != null) {
             for (String name : languages) {
-                List<String> lang = new ArrayList<>();
-                lang.add("languages[]");
-                lang.add(name);
-                params.add(lang);
+                envelope.param("languages[]", name);
             }
         }
-        if (extensions != null && !extensions.isEmpty()) {
+        if (extensions != null) {
             for (String name : extensions) {
-                List<String> ext = new ArrayList<>();
-                ext.add("extensions[]");
-                ext.add(name);
-                params.add(ext);
+                envelope.param("extensions[]", name);
             }
         }
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "search request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(new ArrayList<>(), e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "search response: %s", string);
-                try {
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    JsonNode data = jsonObject.get("data");
-                    LogUtil.d(TAG, "total: %s", data.get("total").asText());
-                    List<Book> list = JsonUtil.convertValue(data.get("list"), new TypeReference<List<Book>>() {
-                    });
-                    dataCallback.call(list, null);
-                } catch (Exception e) {
-                    dataCallback.call(new ArrayList<>(), e);
-                }
-            }
-        });
+        ProxyClient.enqueue(SEARCH, envelope, dataCallback);
     }
 
     public void detail(String detailUrl, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = detailUrl;
-        object.put("method", "GET");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "detail request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "detail response: %s", string);
-                try {
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    JsonNode data = jsonObject.get("data");
-                    Book book = JsonUtil.convertValue(data, new TypeReference<Book>() {
-                    });
-                    dataCallback.call(book, null);
-                } catch (Exception e) {
-                    dataCallback.call(null, e);
-                }
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.get(detailUrl))
+                .emptyParams();
+        ProxyClient.enqueue(DETAIL, envelope, dataCallback);
     }
 
     public void login(String email, String password, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = zurl + "/rpc.php";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(content_type_key, "application/x-www-form-urlencoded; charset=UTF-8");
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
         StringBuilder data = new StringBuilder();
         data.append("isModal=true").append("&");
         data.append("email=").append(Common.urlEncode(email)).append("&");
@@ -207,51 +160,28 @@ public class BookNetHelper {
         data.append("action=login").append("&");
         data.append("redirectUrl=").append(Common.urlEncode(zurl)).append("&");
         data.append("gg_json_mode=1");
-        object.put("data", data.toString());
 
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "login request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: ", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
+        ProxyEnvelope envelope = ProxyEnvelope.post(zurl + "/rpc.php")
+                .header("User-Agent", userAgent)
+                .header(content_type_key, "application/x-www-form-urlencoded; charset=UTF-8")
+                .emptyParams()
+                .form(data.toString());
+        ProxyClient.enqueue(LOGIN, envelope, dataCallback);
+    }
 
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "login response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                JsonNode respData = JsonUtil.readTree(jsonObject.get("data").asText());
-                JsonNode respResponse = respData.get("response");
-                if (!respResponse.has("forceRedirection")) {
-                    dataCallback.call(null, new HttpStatusException(respResponse.get("message").asText(), status, reqUrl));
-                    return;
-                }
-                JsonNode respHeaders = jsonObject.get("headers");
-                String forceRedirection = respResponse.get("forceRedirection").asText();
-                String session = forceRedirection.substring(2).replace("&", ";") + ";";
-                session += respHeaders.get("set-cookie") != null ? respHeaders.get("set-cookie").asText() : "";
-                dataCallback.call(session, null);
-            }
-        });
+    private static String decodeLogin(ProxyResponse response) throws IOException {
+        JsonNode jsonObject = response.checkedJson();
+        int status = jsonObject.get("status").asInt();
+        JsonNode respData = JsonUtil.readTree(jsonObject.get("data").asText());
+        JsonNode respResponse = respData.get("response");
+        if (!respResponse.has("forceRedirection")) {
+            throw new HttpStatusException(respResponse.get("message").asText(), status, response.getUrl());
+        }
+        JsonNode respHeaders = jsonObject.get("headers");
+        String forceRedirection = respResponse.get("forceRedirection").asText();
+        String session = forceRedirection.substring(2).replace("&", ";") + ";";
+        session += respHeaders.get("set-cookie") != null ? respHeaders.get("set-cookie").asText() : "";
+        return session;
     }
 
     public void download(String downloadUrl, String destDir, String uid,
@@ -266,362 +196,285 @@ public class BookNetHelper {
 
     public void downloadWithCookie(String downloadUrl, String destDir, String uid, String cookie,
                                    DataCallback dataCallback, ProgressListener listener, long magic) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = downloadUrl;
-        object.put("method", "GET");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, cookie);
-        headers.put("b", "1");
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "download request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                File dir = new File(destDir);
-                if (!dir.exists()) {
-                    boolean mkdirs = dir.mkdirs();
-                    LogUtil.d(TAG, "mkdirs: %s", mkdirs);
-                }
-                String contentDisposition = response.headers().get("Content-Disposition");
-                LogUtil.d(TAG, "contentDisposition: %s", contentDisposition);
+        PartFile part = openPart(downloadUrl, destDir, uid, magic);
+        enqueueDownload("download", part, bookEnvelopes(downloadUrl, cookie), destDir, uid, magic, false, listener,
+                resume(part, dataCallback,
+                        () -> downloadWithCookie(downloadUrl, destDir, uid, cookie, dataCallback, listener, magic)));
+    }
 
-                String filename = "";
-                if (Common.isBlank(contentDisposition)) {
-                    int idx = reqUrl.lastIndexOf("/");
-                    if (idx > -1) {
-                        filename = reqUrl.substring(idx + 1);
+    /**
+     * One attempt at a book download, resuming from what earlier ones left. Unlike
+     * {@link #downloadWithMagic} it does not try again by itself; cancelling the returned call stops
+     * it and keeps the part file for the next attempt. The file is named by its digest, see
+     * {@link BlobStore}.
+     */
+    public ProxyCall<File> downloadTask(String downloadUrl, String destDir, String uid, long magic,
+                                        ProgressListener listener, DataCallback<File> dataCallback) {
+        PartFile part = openPart(downloadUrl, destDir, uid, magic);
+        long before = part.getDone();
+        return enqueueDownload("download", part, bookEnvelopes(downloadUrl, SessionManager.getSession()),
+                destDir, uid, magic, true, listener, (file, err) -> {
+                    if (refused(err, before)) {
+                        part.discard();
                     }
-                } else {
-                    filename = ContentDispositionParser.parse(contentDisposition);
-                }
-                filename = Common.isBlank(filename) ? "tmp-" + UUID.randomUUID().toString() : filename;
+                    dataCallback.call(file, err);
+                });
+    }
 
-                File f = new File(destDir, Common.isEmpty(uid) ? filename : uid + "-" + filename);
-                long total = response.body().contentLength();
-                try (InputStream input = response.body().byteStream();
-                     FileOutputStream output = new FileOutputStream(f)) {
-                    if (magic > 0) {
-                        long m = magic ^ Common.MG_XOR;
-                        ByteBuffer buf = ByteBuffer.allocate(8);
-                        buf.putLong(m);
-                        buf.flip();
-                        byte[] bytes = buf.array();
-                        output.write(bytes);
-                    }
-                    byte[] buffer = new byte[1024 * 8];
-                    long count = 0;
-                    int n;
-                    while (-1 != (n = input.read(buffer))) {
-                        if (magic > 0) {
-                            output.write(Common.xor(buffer, n, Common.MG_XOR), 0, n);
-                        } else {
-                            output.write(buffer, 0, n);
-                        }
-                        count += n;
-                        output.flush();
-                        if (listener != null) {
-                            listener.onProgress(count, total);
-                        }
-                    }
-                    output.flush();
-                    if (listener != null) {
-                        listener.onProgress(count, total);
-                    }
-                }
-                dataCallback.call(f, null);
-            }
-        });
+    /**
+     * Throws away what attempts at a book download left behind.
+     */
+    public static void discard(String downloadUrl, String destDir, String uid, long magic) {
+        openPart(downloadUrl, destDir, uid, magic).discard();
     }
 
     public void downloadApk(String downloadUrl, DataCallback dataCallback, ProgressListener listener) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = downloadUrl;
-        object.put("method", "GET");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        headers.put("b", "1");
-        object.put("headers", headers);
+        PartFile part = PartFile.open(Common.sdcard, downloadUrl, "apk", 0);
+        Supplier<ProxyEnvelope> envelopes = () -> withSession(ProxyEnvelope.get(downloadUrl))
+                .header("b", "1")
+                .emptyParams();
+        enqueueDownload("download apk", part, envelopes, Common.sdcard, null, 0, false, listener,
+                resume(part, dataCallback, () -> downloadApk(downloadUrl, dataCallback, listener)));
+    }
 
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
+    private static PartFile openPart(String downloadUrl, String destDir, String uid, long magic) {
+        return PartFile.open(destDir, downloadUrl, uid + "\n" + magic, magic > 0 ? 8 : 0);
+    }
 
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "download request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
+    private Supplier<ProxyEnvelope> bookEnvelopes(String downloadUrl, String cookie) {
+        return () -> ProxyEnvelope.get(downloadUrl)
+                .header("User-Agent", userAgent)
+                .header(cookie_key, cookie)
+                .header("b", "1")
+                .emptyParams();
+    }
 
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                File dir = new File(Common.sdcard);
-                if (!dir.exists()) {
-                    boolean mkdirs = dir.mkdirs();
-                    LogUtil.d(TAG, "mkdirs: %s", mkdirs);
-                }
-                String contentDisposition = response.headers().get("Content-Disposition");
-                LogUtil.d(TAG, "contentDisposition: %s", contentDisposition);
+    private ProxyCall<File> enqueueDownload(String name, PartFile part, Supplier<ProxyEnvelope> envelopes,
+                                            String destDir, String uid, long magic, boolean addressed,
+                                            ProgressListener listener, DataCallback<File> dataCallback) {
+        ProxyEnvelope envelope = envelopes.get();
+        part.applyTo(envelope);
+        ProgressDispatcher progress = listener == null ? null : new ProgressDispatcher(listener);
+        ProxyEndpoint<File> endpoint = ProxyEndpoint.<File>of(name, XURL,
+                        response -> save(response, destDir, uid, magic, part, segmented(envelopes), progress,
+                                addressed ? BlobStore.newDigest() : null))
+                .sync();
+        return ProxyClient.enqueue(endpoint, envelope, dataCallback);
+    }
 
-                String filename = "";
-                if (Common.isBlank(contentDisposition)) {
-                    int idx = reqUrl.lastIndexOf("/");
-                    if (idx > -1) {
-                        filename = reqUrl.substring(idx + 1);
-                    }
-                } else {
-                    filename = ContentDispositionParser.parse(contentDisposition);
-                }
-                filename = Common.isBlank(filename) ? "tmp-" + UUID.randomUUID().toString() : filename;
+    /**
+     * {@code envelopes} when multi-connection downloads are turned on in the settings, else null.
+     */
+    private static Supplier<ProxyEnvelope> segmented(Supplier<ProxyEnvelope> envelopes) {
+        String data = SPUtils.getData(UiUtils.getContext(), Common.segmented_download_key, Common.unchecked);
+        return Common.checked.equals(data) ? envelopes : null;
+    }
 
-                File f = new File(Common.sdcard, filename);
-                long total = response.body().contentLength();
-                try (InputStream input = response.body().byteStream();
-                     FileOutputStream output = new FileOutputStream(f)) {
-                    byte[] buffer = new byte[1024 * 8];
-                    long count = 0;
-                    int n;
-                    while (-1 != (n = input.read(buffer))) {
-                        output.write(buffer, 0, n);
-                        count += n;
-                        output.flush();
-                        if (listener != null) {
-                            listener.onProgress(count, total);
-                        }
-                    }
-                    output.flush();
-                    if (listener != null) {
-                        listener.onProgress(count, total);
-                    }
-                }
-                dataCallback.call(f, null);
-            }
-        });
+    /**
+     * Runs {@code again} when a download failed on the network after getting further than before,
+     * it then resumes where this attempt stopped. A refused range starts over.
+     */
+    private DataCallback<File> resume(PartFile part, DataCallback dataCallback, Runnable again) {
+        long before = part.getDone();
+        return (file, err) -> {
+            if (refused(err, before)) {
+                LogUtil.d(TAG, "range refused, start over: %s", part.getFile());
+                part.discard();
+                again.run();
+                return;
+            }
+            if (err instanceof IOException && part.getDone() > before) {
+                LogUtil.d(TAG, "resume %s: %s", part.getFile(), err.getMessage());
+                again.run();
+                return;
+            }
+            dataCallback.call(file, err);
+        };
     }
 
-    public void profile(DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = zurl + "/profileEdit";
-        object.put("method", "GET");
-        object.put("url", reqUrl);
+    private static boolean refused(Throwable err, long before) {
+        return err instanceof HttpStatusException && ((HttpStatusException) err).getStatusCode() == 416 && before > 0;
+    }
 
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
+    /**
+     * Reads until {@code buffer} is full or the stream ends, the body arrives in much smaller pieces.
+     *
+     * @return bytes read, -1 at the end of the stream
+     */
+    static int fill(InputStream input, byte[] buffer) throws IOException {
+        int n = 0;
+        while (n < buffer.length) {
+            int r = input.read(buffer, n, buffer.length - n);
+            if (r == -1) {
+                return n == 0 ? -1 : n;
+            }
+            n += r;
+        }
+        return n;
+    }
 
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
+    /**
+     * @param digest when not null the file is hashed on the way in and stored under its digest,
+     *               see {@link BlobStore}
+     */
+    File save(ProxyResponse proxyResponse, String destDir, String uid, long magic, PartFile part,
+              Supplier<ProxyEnvelope> segments, ProgressDispatcher listener,
+              MessageDigest digest) throws IOException {
+        Response response = proxyResponse.raw();
+        String reqUrl = proxyResponse.getUrl();
+        File dir = new File(destDir);
+        if (!dir.exists()) {
+            boolean mkdirs = dir.mkdirs();
+            LogUtil.d(TAG, "mkdirs: %s", mkdirs);
+        }
+        String contentDisposition = response.headers().get("Content-Disposition");
+        LogUtil.d(TAG, "contentDisposition: %s", contentDisposition);
 
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "profile request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
+        String filename = "";
+        if (Common.isBlank(contentDisposition)) {
+            int idx = reqUrl.lastIndexOf("/");
+            if (idx > -1) {
+                filename = reqUrl.substring(idx + 1);
             }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "profile response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                JsonNode data = jsonObject.get("data");
-                Profile profile = JsonUtil.convertValue(data, new TypeReference<Profile>() {
-                });
-                if (Common.isEmpty(profile.getEmail())) {
-                    dataCallback.call(null, new HttpStatusException("未登录", 401, reqUrl));
-                    return;
+        } else {
+            filename = ContentDispositionParser.parse(contentDisposition);
+        }
+        filename = Common.isBlank(filename) ? "tmp-" + UUID.randomUUID().toString() : filename;
+
+        File f = new File(destDir, Common.isEmpty(uid) ? filename : uid + "-" + filename);
+        long offset = part.begin(response);
+        if (offset == 0 && segments != null && SegmentedDownload.eligible(response)) {
+            new SegmentedDownload(part, segments, magic, listener).run(proxyResponse);
+            if (digest != null) {
+                BlobStore.update(digest, part.getFile(), part.getFile().length());
+                return store(part, destDir, filename, digest);
+            }
+            part.complete(f);
+            return f;
+        }
+        if (digest != null && offset > 0) {
+            BlobStore.update(digest, part.getFile(), (magic > 0 ? 8 : 0) + offset);
+        }
+        long length = response.body().contentLength();
+        long total = length < 0 ? -1 : offset + length;
+        long count = offset;
+        byte[] buffer = BufferPool.acquire();
+        try (InputStream input = response.body().byteStream();
+             FileOutputStream output = new FileOutputStream(part.getFile(), true)) {
+            if (magic > 0 && offset == 0) {
+                long m = magic ^ Common.MG_XOR;
+                ByteBuffer buf = ByteBuffer.allocate(8);
+                buf.putLong(m);
+                buf.flip();
+                byte[] bytes = buf.array();
+                output.write(bytes);
+                if (digest != null) {
+                    digest.update(bytes);
+                }
+            }
+            long recorded = count;
+            long speedTime = System.currentTimeMillis();
+            long speedCount = count;
+            int n;
+            while (-1 != (n = fill(input, buffer))) {
+                if (magic > 0) {
+                    XorCodec.xor(buffer, 0, n, Common.MG_XOR);
+                }
+                output.write(buffer, 0, n);
+                if (digest != null) {
+                    digest.update(buffer, 0, n);
+                }
+                count += n;
+                if (count - recorded >= PART_RECORD) {
+                    part.progress(count);
+                    recorded = count;
+                }
+                if (listener != null) {
+                    listener.onProgress(count, total);
+                    long now = System.currentTimeMillis();
+                    if (now - speedTime >= 1000) {
+                        listener.onSpeed((count - speedCount) * 1000 / (now - speedTime));
+                        speedTime = now;
+                        speedCount = count;
+                    }
                 }
-                dataCallback.call(profile, null);
             }
-        });
+            if (listener != null) {
+                listener.onProgress(count, total);
+                listener.flush();
+            }
+        } finally {
+            BufferPool.release(buffer);
+            part.progress(count);
+        }
+        if (total >= 0 && count != total) {
+            throw new IOException("incomplete download: " + count + "/" + total);
+        }
+        if (digest != null) {
+            return store(part, destDir, filename, digest);
+        }
+        part.complete(f);
+        return f;
     }
 
-    public void sendCode(String email, String password, String nickname, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = zurl + "/papi/user/verification/send-code";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(content_type_key, "multipart/form-data");
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("email", email);
-        data.put("password", password);
-        data.put("name", Common.isBlank(nickname) ? Common.urlEncode(email.split("\\@")[0]) : Common.urlEncode(nickname));
-        data.put("rx", "215");
-        data.put("action", "registration");
-        data.put("redirectUrl", "");
-        object.put("data", data);
+    /**
+     * Names the completed part file by its digest, keeping the extension of {@code filename}. When
+     * the store has that content already the part file is dropped.
+     */
+    private File store(PartFile part, String destDir, String filename, MessageDigest digest) throws IOException {
+        String extension = MediaTypeFactory.getFilenameExtension(filename);
+        String name = BlobStore.hex(digest.digest()) + (Common.isEmpty(extension) ? "" : "." + extension);
+        File f = new File(destDir, name);
+        if (f.exists() && f.length() == part.getFile().length()) {
+            LogUtil.d(TAG, "already stored: %s", f);
+            part.discard();
+            return f;
+        }
+        part.complete(f);
+        return f;
+    }
 
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
+    public void profile(DataCallback dataCallback) {
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.get(zurl + "/profileEdit"))
+                .emptyParams();
+        ProxyClient.enqueue(PROFILE, envelope, dataCallback);
+    }
 
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "send-code request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
+    private static Profile decodeProfile(ProxyResponse response) throws IOException {
+        JsonNode data = response.checkedJson().get("data");
+        Profile profile = JsonUtil.convertValue(data, USER_PROFILE);
+        if (Common.isEmpty(profile.getEmail())) {
+            throw new HttpStatusException("未登录", 401, response.getUrl());
+        }
+        return profile;
+    }
 
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "send-code response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                String data = jsonObject.get("data").asText();
-                JsonNode dataObject = JsonUtil.readTree(data);
-                // "data": "{\"success\":1}}" 1success 0error
-                int success = dataObject.get("success").asInt();
-                dataCallback.call(dataObject, null);
-            }
-        });
+    public void sendCode(String email, String password, String nickname, DataCallback dataCallback) {
+        // "data": "{\"success\":1}}" 1success 0error
+        ProxyEnvelope envelope = ProxyEnvelope.post(zurl + "/papi/user/verification/send-code")
+                .header("User-Agent", userAgent)
+                .header(content_type_key, "multipart/form-data")
+                .data("email", email)
+                .data("password", password)
+                .data("name", Common.isBlank(nickname) ? Common.urlEncode(email.split("\\@")[0]) : Common.urlEncode(nickname))
+                .data("rx", "215")
+                .data("action", "registration")
+                .data("redirectUrl", "")
+                .emptyParams();
+        ProxyClient.enqueue(SEND_CODE, envelope, dataCallback);
     }
 
     public void sendCodePasswordRecovery(String email, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = zurl + "/papi/user/verification/send-code";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(content_type_key, "multipart/form-data");
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("email", email);
-        data.put("action", "passwordrecovery");
-        object.put("data", data);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "send-code password recovery request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "send-code password recovery response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                String data = jsonObject.get("data").asText();
-                JsonNode dataObject = JsonUtil.readTree(data);
-                // "data": "{\"success\":1}}" 1success 0error
-                int success = dataObject.get("success").asInt();
-                dataCallback.call(dataObject, null);
-            }
-        });
+        ProxyEnvelope envelope = ProxyEnvelope.post(zurl + "/papi/user/verification/send-code")
+                .header("User-Agent", userAgent)
+                .header(content_type_key, "multipart/form-data")
+                .data("email", email)
+                .data("action", "passwordrecovery")
+                .emptyParams();
+        ProxyClient.enqueue(SEND_CODE, envelope, dataCallback);
     }
 
     public void registration(String email, String password, String verifyCode, String nickname, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = zurl + "/rpc.php";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(content_type_key, "application/x-www-form-urlencoded; charset=UTF-8");
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
         StringBuilder data = new StringBuilder();
         data.append("isModal=true").append("&");
         data.append("email=").append(Common.urlEncode(email)).append("&");
@@ -632,50 +485,23 @@ public class BookNetHelper {
         data.append("redirectUrl=").append("&");
         data.append("verifyCode=").append(verifyCode).append("&");
         data.append("gg_json_mode=1");
-        object.put("data", data.toString());
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "registration request: %s : %s", reqUrl, s);
 
-        Request.Builder builder = new Request.Builder()
-                .url(getXurl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
+        ProxyEnvelope envelope = ProxyEnvelope.post(zurl + "/rpc.php")
+                .header("User-Agent", userAgent)
+                .header(content_type_key, "application/x-www-form-urlencoded; charset=UTF-8")
+                .emptyParams()
+                .form(data.toString());
+        ProxyClient.enqueue(REGISTRATION, envelope, dataCallback);
+    }
 
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "registration response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                String data = jsonObject.get("data").asText();
-                JsonNode dataObject = JsonUtil.readTree(data);
-                JsonNode responseObject = dataObject.get("response");
-                if (responseObject.get("forceRedirection") != null) {
-                    String forceRedirection = responseObject.get("forceRedirection").asText();
-                    String session = forceRedirection.substring(2).replace("&", ";") + ";";
-                    dataCallback.call(session, null);
-                } else {
-                    dataCallback.call(null, new IllegalArgumentException(responseObject.get("message").asText()));
-                }
-            }
-        });
+    private static String decodeRegistration(ProxyResponse response) throws IOException {
+        JsonNode dataObject = JsonUtil.readTree(response.checkedJson().get("data").asText());
+        JsonNode responseObject = dataObject.get("response");
+        if (responseObject.get("forceRedirection") == null) {
+            throw new IllegalArgumentException(responseObject.get("message").asText());
+        }
+        String forceRedirection = responseObject.get("forceRedirection").asText();
+        return forceRedirection.substring(2).replace("&", ";") + ";";
     }
 
     public void cloudSync(Book book, DataCallback dataCallback) {
@@ -693,531 +519,85 @@ public class BookNetHelper {
                     book.putRemarkProperty("sha", sha);
                 }
 
-                Map<String, Object> object = new HashMap<>();
-                String reqUrl = "/sync";
-                object.put("method", "POST");
-                object.put("url", reqUrl);
-
-                Map<String, Object> headers = new HashMap<>();
-                headers.put("User-Agent", userAgent);
-                headers.put(cookie_key, SessionManager.getSession());
-                object.put("headers", headers);
-
-                Map<String, Object> data = new HashMap<>();
-                data.put("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + Common.book_metadata_suffix));
-                data.put("raw", Base64.getEncoder().encodeToString(JsonUtil.toJson(book).getBytes(StandardCharsets.UTF_8)));
-                data.put("sha", book.getRemarkProperty("sha"));
-                object.put("data", data);
-
-                String s = JsonUtil.toJson(object);
-                LogUtil.d(TAG, "cloud sync meta request: %s : %s", reqUrl, s);
-
-                Request.Builder builder = new Request.Builder()
-                        .url(getXburl())
-                        .post(RequestBody.create(s, MediaType.parse("application/json")));
-                setCommonHeader(builder);
-                HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-                    @Override
-                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                        LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                        dataCallback.call(null, e);
-                    }
-
-                    @Override
-                    public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                        if (!response.isSuccessful()) {
-                            LogUtil.d(TAG, "onResponse: %s", response.code());
-                            dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                            return;
-                        }
-                        String string = response.body().string();
-                        LogUtil.d(TAG, "cloud sync meta response: %s", string);
-                        JsonNode jsonObject = JsonUtil.readTree(string);
-                        int status = jsonObject.get("status").asInt();
-                        if (!Common.statusSuccessful(status)) {
-                            LogUtil.d(TAG, "onResponse: %s", status);
-                            dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                            return;
-                        }
-                        dataCallback.call(jsonObject, null);
-                    }
-                });
+                ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/sync"))
+                        .data("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + Common.book_metadata_suffix))
+                        .data("raw", JsonUtil.toJson(book).getBytes(StandardCharsets.UTF_8))
+                        .data("sha", book.getRemarkProperty("sha"));
+                ProxyClient.enqueue(CLOUD_SYNC_META, envelope, dataCallback);
             }
         });
     }
 
     public void cloudSyncRaw(Book book, DataCallback dataCallback) {
         try {
-            Map<String, Object> object = new HashMap<>();
-            String reqUrl = "/sync";
-            object.put("method", "POST");
-            object.put("url", reqUrl);
-
-            Map<String, Object> headers = new HashMap<>();
-            headers.put("User-Agent", userAgent);
-            headers.put(cookie_key, SessionManager.getSession());
-            object.put("headers", headers);
-
             String file_path = book.getRemarkProperty("file_path");
-            byte[] bytes = Files.readAllBytes(new File(file_path).toPath());
-
-            Map<String, Object> data = new HashMap<>();
-            data.put("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + "." + MediaTypeFactory.getFilenameExtension(file_path)));
-            data.put("raw", Base64.getEncoder().encodeToString(bytes));
-            object.put("data", data);
-
-            String s = JsonUtil.toJson(object);
-            LogUtil.d(TAG, "cloud sync data request: %s : %s", reqUrl, s);
-            Request.Builder builder = new Request.Builder()
-                    .url(getXburl())
-                    .post(RequestBody.create(s, MediaType.parse("application/json")));
-            setCommonHeader(builder);
-            HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                    dataCallback.call(null, e);
-                }
-
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    if (!response.isSuccessful()) {
-                        LogUtil.d(TAG, "onResponse: %s", response.code());
-                        dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                        return;
-                    }
-                    String string = response.body().string();
-                    LogUtil.d(TAG, "cloud sync data response: %s", string);
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        LogUtil.d(TAG, "onResponse: %s", status);
-                        dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    dataCallback.call(jsonObject, null);
-                }
-            });
+            // base64 encoded from disk while the request is written
+            ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/sync"))
+                    .data("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + "." + MediaTypeFactory.getFilenameExtension(file_path)))
+                    .data("raw", new File(file_path));
+            ProxyClient.enqueue(CLOUD, envelope, dataCallback);
         } catch (Throwable e) {
             dataCallback.call(null, e);
         }
     }
 
     public void cloudList(DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/list";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("title", "");
-        data.put("raw", "");
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "cloud list request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "cloud list response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                dataCallback.call(jsonObject, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/list"))
+                .data("title", "")
+                .data("raw", "");
+        ProxyClient.enqueue(CLOUD_META, envelope, dataCallback);
     }
 
     public void cloudDownload(String title, String token, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/download";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("title", Common.urlEncode(title));
-        data.put("token", token);
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "cloud download request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(new byte[0], e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(new byte[0], new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                byte[] bytes = response.body().bytes();
-                LogUtil.d(TAG, "cloud download response: %s", bytes.length);
-                dataCallback.call(bytes, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/download"))
+                .data("title", Common.urlEncode(title))
+                .data("token", token);
+        ProxyClient.enqueue(CLOUD_DOWNLOAD, envelope, dataCallback);
     }
 
     public void cloudLog(MLog mLog, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/log";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("title", Common.urlEncode(mLog.getTitle()));
-        data.put("raw", Base64.getEncoder().encodeToString(mLog.getRaw().getBytes(StandardCharsets.UTF_8)));
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "log request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "log response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                dataCallback.call(jsonObject, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/log"))
+                .data("title", Common.urlEncode(mLog.getTitle()))
+                .data("raw", mLog.getRaw().getBytes(StandardCharsets.UTF_8));
+        ProxyClient.enqueue(CLOUD, envelope, dataCallback);
     }
 
     public void cloudGetMeta(Book book, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/get";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + Common.book_metadata_suffix));
-        data.put("raw", "");
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "cloud get meta request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", e);
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "cloud get meta response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                dataCallback.call(jsonObject, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/get"))
+                .data("title", Common.urlEncode(book.getId() + "-" + book.getTitle() + Common.book_metadata_suffix))
+                .data("raw", "");
+        ProxyClient.enqueue(CLOUD_META, envelope, dataCallback);
     }
 
     public void cloudVersions(DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/versions";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "cloud versions request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", e);
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "cloud versions response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                dataCallback.call(jsonObject, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/versions"))
+                .emptyData();
+        ProxyClient.enqueue(CLOUD_VERSIONS, envelope, dataCallback);
     }
 
     public void cloudIssues(String title, String body, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/issues";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("title", title);
-        data.put("body", body);
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "cloud issues request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getSyncClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", e);
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "cloud issues response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                dataCallback.call(jsonObject, null);
-            }
-        });
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/issues"))
+                .data("title", title)
+                .data("body", body);
+        ProxyClient.enqueue(CLOUD, envelope, dataCallback);
     }
 
     public void resetpwd(String email, String password, String code, DataCallback<JsonNode> dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/zlib_resetpwd";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(content_type_key, "application/json");
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("email", email);
-        data.put("password", password);
-        data.put("code", code);
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "resetpwd request: %s : %s", reqUrl, s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "resetpwd response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                JsonNode data = jsonObject.get("data");
-                dataCallback.call(data, null);
-            }
-        });
+        ProxyEnvelope envelope = ProxyEnvelope.post("/zlib_resetpwd")
+                .header("User-Agent", userAgent)
+                .header(content_type_key, "application/json")
+                .emptyParams()
+                .data("email", email)
+                .data("password", password)
+                .data("code", code);
+        ProxyClient.enqueue(RESETPWD, envelope, dataCallback);
     }
 
     public void detailSuggest(String detailUrl, DataCallback<List<Book>> dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-        String reqUrl = "/zlib_detail_suggest";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        headers.put(cookie_key, SessionManager.getSession());
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        Map<String, Object> data = new HashMap<>();
-        data.put("detail_url", detailUrl);
-        object.put("data", data);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "detail suggest request: %s", s);
-
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(null, e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    LogUtil.d(TAG, "onResponse: %s", response.code());
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "detail suggest response: %s", string);
-                JsonNode jsonObject = JsonUtil.readTree(string);
-                int status = jsonObject.get("status").asInt();
-                if (!Common.statusSuccessful(status)) {
-                    LogUtil.d(TAG, "onResponse: %s", status);
-                    dataCallback.call(null, new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                    return;
-                }
-                JsonNode list = jsonObject.get("data").get("list");
-                List<Book> books = JsonUtil.convertValue(list, new TypeReference<List<Book>>() {
-                });
-                dataCallback.call(books, null);
-            }
-        });
-    }
-
-    void setCommonHeader(Request.Builder builder) {
-        builder.header(Common.header_vc, UiUtils.getVersionCode() + "")
-                .header(Common.header_vn, UiUtils.getVersionName())
-                .header(Common.header_platform, Common.platform_android)
-                .header(Common.header_sv, android.os.Build.VERSION.RELEASE);
+        ProxyEnvelope envelope = withSession(ProxyEnvelope.post("/zlib_detail_suggest"))
+                .emptyParams()
+                .data("detail_url", detailUrl);
+        ProxyClient.enqueue(DETAIL_SUGGEST, envelope, dataCallback);
     }
 
 }
@@ -0,0 +1,527 @@
+package com.github.jsbxyyx.xbook.data;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.IdUtil;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.ProgressListener;
+import com.github.jsbxyyx.xbook.common.SPUtils;
+import com.github.jsbxyyx.xbook.data.bean.Book;
+import com.github.jsbxyyx.xbook.data.bean.Download;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCall;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Book downloads that outlive the screen that asked for them. Every download is a row of the
+ * download table, so a download queued, paused or cut off by the app being killed is picked up
+ * again on the next start; the part file lets it go on where it stopped.
+ * <p>
+ * At most {@link Common#download_parallel_key} downloads run at once, user-initiated ones before
+ * restores from the cloud, and downloads restricted to unmetered networks wait for one. A failed
+ * attempt is tried again after a growing delay. A url downloaded before is answered from the
+ * {@link BlobStore} without going to the network. Screens follow progress through a {@link Listener}.
+ *
+ * @author jsbxyyx
+ */
+public class DownloadQueue {
+
+    private static final String TAG = "DownloadQueue";
+
+    public static final int PRIORITY_USER = 10;
+    public static final int PRIORITY_RESTORE = 0;
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String PAUSED = "paused";
+    public static final String DONE = "done";
+    public static final String FAILED = "failed";
+    public static final String CANCELED = "canceled";
+
+    private static final int DEFAULT_PARALLEL = 2;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_BASE = 5000;
+    private static final long BACKOFF_MAX = 5 * 60 * 1000;
+    private static final long PROGRESS_TICK = 500;
+
+    private static volatile DownloadQueue instance = null;
+
+    public interface Listener {
+        /**
+         * Called on any thread when a download changed state or made progress.
+         */
+        void onChanged(Download download);
+    }
+
+    private final Context context;
+    private final BookDbHelper bookDbHelper;
+    private final BookNetHelper bookNetHelper;
+    private final BlobStore blobStore;
+    private final Map<Long, Download> tasks = new LinkedHashMap<>();
+    private final Map<Long, ProxyCall<File>> running = new HashMap<>();
+    private final Set<ProxyCall<File>> discards = new HashSet<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "download queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> wakeup;
+    private volatile boolean metered;
+
+    DownloadQueue(Context context, BookDbHelper bookDbHelper, BookNetHelper bookNetHelper, BlobStore blobStore) {
+        this.context = context;
+        this.bookDbHelper = bookDbHelper;
+        this.bookNetHelper = bookNetHelper;
+        this.blobStore = blobStore;
+        for (Download d : bookDbHelper.findAllDownload()) {
+            if (RUNNING.equals(d.getState())) {
+                d.setState(QUEUED);
+                bookDbHelper.updateDownload(d);
+            }
+            tasks.put(d.getId(), d);
+        }
+        LogUtil.d(TAG, "restored %s downloads", tasks.size());
+    }
+
+    private void watchNetwork() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            metered = cm.isActiveNetworkMetered();
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(Network network, NetworkCapabilities caps) {
+                    setMetered(!caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED));
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    setMetered(true);
+                }
+            });
+        }
+    }
+
+    /**
+     * The queue, restoring the downloads of the last run on first use. That reads the database,
+     * keep the first call off the main thread.
+     */
+    public static DownloadQueue get(Context context) {
+        if (instance != null) {
+            return instance;
+        }
+        synchronized (DownloadQueue.class) {
+            if (instance == null) {
+                Context app = context.getApplicationContext();
+                DownloadQueue queue = new DownloadQueue(app, new BookDbHelper(app), new BookNetHelper(), BlobStore.get(app));
+                queue.watchNetwork();
+                queue.schedule();
+                instance = queue;
+            }
+            return instance;
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues {@code book}, or the download already queued for it, which then keeps the higher
+     * priority and starts over if it had failed or was paused.
+     *
+     * @param unmetered wait for an unmetered network
+     */
+    public Download enqueue(Book book, int priority, boolean unmetered) {
+        Download d;
+        synchronized (this) {
+            d = findByBookId(book.getBid());
+            if (d == null) {
+                d = new Download();
+                d.setBookId(book.getBid());
+                d.setTitle(book.getTitle());
+                d.setUrl(book.getDownloadUrl());
+                d.setDestDir(Common.xbook_dir);
+                d.setUid(book.getBid());
+                d.setMagic(Common.MAGIC);
+                d.setPriority(priority);
+                d.setUnmetered(unmetered ? 1 : 0);
+                d.setState(QUEUED);
+                d.setDone(0L);
+                d.setTotal(-1L);
+                d.setAttempts(0);
+                d.setNotBefore(0L);
+                d.setBook(JsonUtil.toJson(book));
+                d.setUser(SPUtils.getData(context, Common.profile_email_key));
+                bookDbHelper.insertDownload(d);
+                tasks.put(d.getId(), d);
+            } else {
+                d.setPriority(Math.max(d.getPriority(), priority));
+                if (!unmetered) {
+                    d.setUnmetered(0);
+                }
+                if (!RUNNING.equals(d.getState())) {
+                    requeue(d);
+                }
+                bookDbHelper.updateDownload(d);
+            }
+        }
+        LogUtil.d(TAG, "enqueue: %s", d);
+        changed(d);
+        schedule();
+        return d;
+    }
+
+    public void pause(long id) {
+        Download d;
+        ProxyCall<File> call;
+        synchronized (this) {
+            d = tasks.get(id);
+            if (d == null || !(QUEUED.equals(d.getState()) || RUNNING.equals(d.getState()))) {
+                return;
+            }
+            call = stop(d);
+            d.setState(PAUSED);
+            bookDbHelper.updateDownload(d);
+        }
+        if (call != null) {
+            call.cancel();
+        }
+        changed(d);
+        schedule();
+    }
+
+    public void resume(long id) {
+        Download d;
+        synchronized (this) {
+            d = tasks.get(id);
+            if (d == null || !(PAUSED.equals(d.getState()) || FAILED.equals(d.getState()))) {
+                return;
+            }
+            requeue(d);
+            bookDbHelper.updateDownload(d);
+        }
+        changed(d);
+        schedule();
+    }
+
+    /**
+     * Stops the download and throws away what it fetched so far.
+     */
+    public void cancel(long id) {
+        Download d;
+        ProxyCall<File> call;
+        synchronized (this) {
+            d = tasks.remove(id);
+            if (d == null) {
+                return;
+            }
+            call = stop(d);
+            d.setState(CANCELED);
+            bookDbHelper.deleteDownload(id);
+            if (call != null) {
+                // the attempt still writes, throw its part file away once it stopped
+                discards.add(call);
+            } else {
+                BookNetHelper.discard(d.getUrl(), d.getDestDir(), d.getUid(), d.getMagic());
+            }
+        }
+        if (call != null) {
+            call.cancel();
+        }
+        changed(d);
+        schedule();
+    }
+
+    public void setParallelism(int parallel) {
+        SPUtils.putData(context, Common.download_parallel_key, String.valueOf(Math.max(1, parallel)));
+        schedule();
+    }
+
+    public int getParallelism() {
+        try {
+            return Math.max(1, Integer.parseInt(SPUtils.getData(context, Common.download_parallel_key,
+                    String.valueOf(DEFAULT_PARALLEL))));
+        } catch (NumberFormatException e) {
+            return DEFAULT_PARALLEL;
+        }
+    }
+
+    public synchronized List<Download> getDownloads() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    public synchronized Download findByBookId(String bookId) {
+        for (Download d : tasks.values()) {
+            if (d.getBookId() != null && d.getBookId().equals(bookId)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a download is running or waiting to.
+     */
+    public synchronized boolean isActive() {
+        for (Download d : tasks.values()) {
+            if (QUEUED.equals(d.getState()) || RUNNING.equals(d.getState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts queued downloads while there is room, best first.
+     */
+    void schedule() {
+        List<Download> started = new ArrayList<>();
+        Map<Download, File> stored = new LinkedHashMap<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long next = Long.MAX_VALUE;
+            while (running.size() < getParallelism()) {
+                Download best = null;
+                for (Download d : tasks.values()) {
+                    if (!QUEUED.equals(d.getState()) || (metered && d.getUnmetered() == 1)) {
+                        continue;
+                    }
+                    if (d.getNotBefore() > now) {
+                        next = Math.min(next, d.getNotBefore());
+                        continue;
+                    }
+                    if (best == null || d.getPriority() > best.getPriority()) {
+                        best = d;
+                    }
+                }
+                if (best == null) {
+                    break;
+                }
+                File file = blobStore.find(best.getUrl());
+                if (file != null) {
+                    LogUtil.d(TAG, "stored already: %s %s", best.getBookId(), file);
+                    completed(best, file);
+                    stored.put(best, file);
+                    continue;
+                }
+                start(best);
+                started.add(best);
+            }
+            if (wakeup != null) {
+                wakeup.cancel(false);
+                wakeup = null;
+            }
+            if (next != Long.MAX_VALUE) {
+                wakeup = timer.schedule(this::schedule, next - now, TimeUnit.MILLISECONDS);
+            }
+        }
+        for (Download d : started) {
+            changed(d);
+        }
+        for (Map.Entry<Download, File> entry : stored.entrySet()) {
+            saveBook(entry.getKey(), entry.getValue());
+            changed(entry.getKey());
+        }
+    }
+
+    private void start(Download d) {
+        d.setState(RUNNING);
+        d.setAttempts(d.getAttempts() + 1);
+        d.setError(null);
+        bookDbHelper.updateDownload(d);
+        LogUtil.d(TAG, "start: %s attempt %s", d.getBookId(), d.getAttempts());
+        AtomicReference<ProxyCall<File>> holder = new AtomicReference<>();
+        ProxyCall<File> call = bookNetHelper.downloadTask(d.getUrl(), d.getDestDir(), d.getUid(), d.getMagic(),
+                new ProgressListener() {
+                    private long progressTime;
+
+                    @Override
+                    public void onProgress(long bytesRead, long total) {
+                        d.setDone(bytesRead);
+                        d.setTotal(total);
+                        long now = System.currentTimeMillis();
+                        if (now - progressTime >= PROGRESS_TICK) {
+                            progressTime = now;
+                            changed(d);
+                        }
+                    }
+                }, (file, err) -> finished(d, holder, file, err));
+        holder.set(call);
+        running.put(d.getId(), call);
+    }
+
+    private void finished(Download d, AtomicReference<ProxyCall<File>> holder, File file, Throwable err) {
+        boolean discard;
+        synchronized (this) {
+            ProxyCall<File> call = holder.get();
+            discard = discards.remove(call);
+            if (running.get(d.getId()) != call) {
+                // paused, cancelled or requeued meanwhile
+                if (discard) {
+                    BookNetHelper.discard(d.getUrl(), d.getDestDir(), d.getUid(), d.getMagic());
+                }
+                return;
+            }
+            running.remove(d.getId());
+            if (err == null) {
+                completed(d, file);
+            } else if (d.getAttempts() >= MAX_ATTEMPTS) {
+                d.setState(FAILED);
+                d.setError(err.getMessage());
+                bookDbHelper.updateDownload(d);
+            } else {
+                long cap = Math.min(BACKOFF_MAX, BACKOFF_BASE << (d.getAttempts() - 1));
+                d.setState(QUEUED);
+                d.setError(err.getMessage());
+                d.setNotBefore(System.currentTimeMillis() + cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1));
+                bookDbHelper.updateDownload(d);
+            }
+        }
+        LogUtil.d(TAG, "%s %s: %s", d.getState(), d.getBookId(), err == null ? file : err.getMessage());
+        if (err == null) {
+            saveBook(d, file);
+        }
+        changed(d);
+        schedule();
+    }
+
+    private void completed(Download d, File file) {
+        d.setState(DONE);
+        d.setFile(file.getAbsolutePath());
+        d.setDone(file.length());
+        tasks.remove(d.getId());
+        bookDbHelper.deleteDownload(d.getId());
+    }
+
+    /**
+     * Records the downloaded file with its book and syncs a new book to the cloud. The book holds
+     * a reference to the stored file, and lets go of the file it had before. The reference is
+     * counted before the book row is written, a crash in between keeps the file rather than losing it.
+     */
+    private void saveBook(Download d, File file) {
+        Book book = JsonUtil.fromJson(d.getBook(), Book.class);
+        Book by = bookDbHelper.findBookByBid(book.getBid());
+        if (by != null) {
+            String old = Common.isEmpty(by.getRemark()) ? null : by.getRemarkProperty("file_path");
+            if (file.getAbsolutePath().equals(old)) {
+                blobStore.remember(file, d.getUrl());
+                return;
+            }
+            blobStore.acquire(file, d.getUrl());
+            by.putRemarkProperty("file_path", file.getAbsolutePath());
+            bookDbHelper.updateBook(by);
+            if (!Common.isEmpty(old)) {
+                blobStore.release(new File(old));
+            }
+            return;
+        }
+        book.putRemarkProperty("file_path", file.getAbsolutePath());
+        book.setUser(d.getUser());
+        book.setId(IdUtil.nextId());
+        blobStore.acquire(file, d.getUrl());
+        bookDbHelper.insertBook(book);
+        String sync_data = SPUtils.getData(context, Common.sync_key);
+        if (!Common.checked.equals(sync_data)) {
+            return;
+        }
+        bookNetHelper.cloudSync(bookDbHelper.findBookByBid(book.getBid()), new DataCallback<JsonNode>() {
+            @Override
+            public void call(JsonNode o, Throwable err) {
+                if (err != null) {
+                    LogUtil.d(TAG, "sync failed: %s", err.getMessage());
+                    return;
+                }
+                String sha = o.get("data").get("sha").asText();
+                Book book_db = bookDbHelper.findBookById(book.getId() + "");
+                if (book_db != null) {
+                    book_db.putRemarkProperty("sha", sha);
+                    bookDbHelper.updateBook(book_db);
+                }
+            }
+        });
+    }
+
+    private void requeue(Download d) {
+        d.setState(QUEUED);
+        d.setAttempts(0);
+        d.setNotBefore(0L);
+        d.setError(null);
+    }
+
+    /**
+     * Takes the download off the running ones. The caller cancels the call returned once it has
+     * left the monitor, cancelling reaches into the download and from there the listeners.
+     */
+    private ProxyCall<File> stop(Download d) {
+        return running.remove(d.getId());
+    }
+
+    /**
+     * Sends unmetered-only downloads back to the queue when the network becomes metered.
+     */
+    void setMetered(boolean metered) {
+        if (this.metered == metered) {
+            return;
+        }
+        this.metered = metered;
+        LogUtil.d(TAG, "metered: %s", metered);
+        List<Download> held = new ArrayList<>();
+        List<ProxyCall<File>> calls = new ArrayList<>();
+        synchronized (this) {
+            if (metered) {
+                for (Download d : tasks.values()) {
+                    if (RUNNING.equals(d.getState()) && d.getUnmetered() == 1) {
+                        ProxyCall<File> call = stop(d);
+                        if (call != null) {
+                            calls.add(call);
+                        }
+                        d.setState(QUEUED);
+                        d.setAttempts(d.getAttempts() - 1);
+                        bookDbHelper.updateDownload(d);
+                        held.add(d);
+                    }
+                }
+            }
+        }
+        for (ProxyCall<File> call : calls) {
+            call.cancel();
+        }
+        for (Download d : held) {
+            changed(d);
+        }
+        schedule();
+    }
+
+    private void changed(Download d) {
+        for (Listener listener : listeners) {
+            listener.onChanged(d);
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+package com.github.jsbxyyx.xbook.data;
+
+import androidx.annotation.NonNull;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.bean.Ip;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Ranks the edge ips of {@link com.github.jsbxyyx.xbook.common.Common#host} by measured connect
+ * latency and error rate. All edges are probed at once and the ranking is republished as each
+ * probe lands, so the fastest edge leads as soon as it answers; probes repeat in the background.
+ * Failed connects of real requests count as errors too.
+ * <p>
+ * The ranking is an immutable list swapped in whole, {@link HttpHelper.CustomDns} hands it to
+ * OkHttp, which moves on to the next edge when a connect fails.
+ *
+ * @author jsbxyyx
+ */
+public class EdgeSelector {
+
+    private static final String TAG = "EdgeSelector";
+
+    private static final int PORT = 443;
+    private static final int PROBE_TIMEOUT = 3000;
+    private static final long PROBE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    private static final double ALPHA = 0.3;
+    private static final double UNKNOWN_LATENCY = 1000;
+    private static final double ERROR_PENALTY = 10000;
+
+    private static volatile List<Edge> edges = Collections.emptyList();
+    private static volatile List<InetAddress> ranked = Collections.emptyList();
+
+    private static final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "edge probe #" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static ScheduledFuture<?> probes;
+
+    /**
+     * Counts failed connects of real requests against their edge.
+     */
+    public static final EventListener LISTENER = new EventListener() {
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                                  @NonNull Proxy proxy, Protocol protocol, @NonNull IOException ioe) {
+            for (Edge edge : edges) {
+                if (edge.address.equals(inetSocketAddress.getAddress())) {
+                    edge.failed();
+                    rank();
+                    return;
+                }
+            }
+        }
+    };
+
+    private static class Edge {
+        final Ip ip;
+        final InetAddress address;
+        private double latency;
+        private double errors;
+
+        Edge(Ip ip, InetAddress address) {
+            this.ip = ip;
+            this.address = address;
+            this.latency = reported(ip.getLatency());
+        }
+
+        synchronized void succeeded(double millis) {
+            latency += ALPHA * (millis - latency);
+            errors -= ALPHA * errors;
+        }
+
+        synchronized void failed() {
+            errors += ALPHA * (1 - errors);
+        }
+
+        synchronized double score() {
+            return latency + errors * ERROR_PENALTY;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return ip.getIp() + "(" + ip.getColo() + ") " + Math.round(latency) + "ms " + Math.round(errors * 100) + "%";
+        }
+    }
+
+    /**
+     * Replaces the candidates, ranked by their reported latency until probed.
+     */
+    public static synchronized void update(List<Ip> ips) {
+        candidates(ips);
+        if (probes != null) {
+            probes.cancel(false);
+        }
+        probes = executor.scheduleWithFixedDelay(EdgeSelector::probe, 0, PROBE_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@link #update} without the probes.
+     */
+    static synchronized void candidates(List<Ip> ips) {
+        List<Edge> list = new ArrayList<>(ips.size());
+        for (Ip ip : ips) {
+            try {
+                list.add(new Edge(ip, InetAddress.getByName(ip.getIp())));
+            } catch (UnknownHostException e) {
+                LogUtil.d(TAG, "skip %s: %s", ip.getIp(), e.getMessage());
+            }
+        }
+        edges = Collections.unmodifiableList(list);
+        rank();
+    }
+
+    /**
+     * Edge addresses, best first, empty when there are none.
+     */
+    public static List<InetAddress> addresses() {
+        return ranked;
+    }
+
+    private static void probe() {
+        for (Edge edge : edges) {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(edge.address, PORT), PROBE_TIMEOUT);
+                    edge.succeeded((System.nanoTime() - start) / 1e6);
+                } catch (IOException e) {
+                    edge.failed();
+                }
+                rank();
+            });
+        }
+    }
+
+    private static synchronized void rank() {
+        List<Edge> list = edges;
+        // scores move while probes land, sort a copy of them
+        double[] scores = new double[list.size()];
+        Integer[] order = new Integer[list.size()];
+        for (int i = 0; i < order.length; i++) {
+            scores[i] = list.get(i).score();
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> scores[i]));
+        List<InetAddress> addresses = new ArrayList<>(order.length);
+        List<Edge> sorted = new ArrayList<>(order.length);
+        for (int i : order) {
+            addresses.add(list.get(i).address);
+            sorted.add(list.get(i));
+        }
+        ranked = Collections.unmodifiableList(addresses);
+        LogUtil.d(TAG, "ranked: %s", sorted);
+    }
+
+    private static double reported(String latency) {
+        if (latency == null) {
+            return UNKNOWN_LATENCY;
+        }
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < latency.length(); i++) {
+            char c = latency.charAt(i);
+            if (Character.isDigit(c) || c == '.') {
+                digits.append(c);
+            } else if (digits.length() > 0) {
+                break;
+            }
+        }
+        try {
+            return Double.parseDouble(digits.toString());
+        } catch (NumberFormatException e) {
+            return UNKNOWN_LATENCY;
+        }
+    }
+
+}
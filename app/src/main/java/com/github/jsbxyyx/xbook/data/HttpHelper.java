@@ -1,39 +1,89 @@
 package com.github.jsbxyyx.xbook.data;
 
+import androidx.annotation.NonNull;
+
 import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.LogUtil;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Dns;
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
 
 /**
+ * All clients derive from one base client and share its connection pool, so a connection warmed by
+ * one, see {@link #prewarm()}, serves the others. Interactive and bulk calls get separate
+ * dispatchers, a few long uploads cannot hold up a search.
+ *
  * @author jsbxyyx
  */
 public class HttpHelper {
 
-    private static OkHttpClient dnsClient = null;
-    private static OkHttpClient client = null;
+    private static final String TAG = "HttpHelper";
+
+    private static volatile OkHttpClient baseClient = null;
+    private static volatile OkHttpClient dnsClient = null;
+    private static volatile OkHttpClient client = null;
+
+    private static volatile OkHttpClient alternateClient = null;
 
-    private static OkHttpClient syncClient = null;
+    private static volatile OkHttpClient syncClient = null;
+    private static volatile OkHttpClient alternateSyncClient = null;
 
     private static CustomDns customDns = new CustomDns();
 
+    private static OkHttpClient getBaseClient() {
+        if (baseClient != null) {
+            return baseClient;
+        }
+        synchronized (HttpHelper.class) {
+            if (baseClient == null) {
+                baseClient = new OkHttpClient.Builder()
+                        .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+                        .connectTimeout(45000, TimeUnit.MILLISECONDS)
+                        .readTimeout(120000, TimeUnit.MILLISECONDS)
+                        .writeTimeout(120000, TimeUnit.MILLISECONDS)
+                        .build();
+            }
+            return baseClient;
+        }
+    }
+
+    /**
+     * Replaces the base client, {@code null} for the default. The others are derived from it again
+     * on next use. Lets tests point every call at a stand-in proxy.
+     */
+    public static void setBaseClient(OkHttpClient base) {
+        synchronized (HttpHelper.class) {
+            baseClient = base;
+            dnsClient = null;
+            client = null;
+            alternateClient = null;
+            syncClient = null;
+            alternateSyncClient = null;
+        }
+    }
+
     public static final OkHttpClient getDnsClient() {
         if (dnsClient != null) {
             return dnsClient;
         }
         synchronized (HttpHelper.class) {
             if (dnsClient == null) {
-                dnsClient = new OkHttpClient.Builder()
-                        .connectTimeout(45000, TimeUnit.MILLISECONDS)
-                        .readTimeout(120000, TimeUnit.MILLISECONDS)
-                        .writeTimeout(120000, TimeUnit.MILLISECONDS)
+                dnsClient = getBaseClient().newBuilder()
+                        .eventListenerFactory(NetMetrics.FACTORY)
                         .build();
             }
             return dnsClient;
@@ -46,44 +96,129 @@ public class HttpHelper {
         }
         synchronized (HttpHelper.class) {
             if (client == null) {
-                client = new OkHttpClient.Builder()
-                        .connectTimeout(45000, TimeUnit.MILLISECONDS)
-                        .readTimeout(120000, TimeUnit.MILLISECONDS)
-                        .writeTimeout(120000, TimeUnit.MILLISECONDS)
+                OkHttpClient base = getBaseClient();
+                Dispatcher dispatcher = new Dispatcher(base.dispatcher().executorService());
+                dispatcher.setMaxRequests(64);
+                dispatcher.setMaxRequestsPerHost(8);
+                client = base.newBuilder()
+                        .dispatcher(dispatcher)
                         .dns(customDns)
+                        .eventListenerFactory(NetMetrics.FACTORY)
                         .build();
             }
             return client;
         }
     }
 
+    /**
+     * Like {@link #getClient()}, but starts at the second best edge. Its connections are pooled apart
+     * from those of {@link #getClient()}, so a hedged call really goes elsewhere.
+     */
+    public static final OkHttpClient getAlternateClient() {
+        if (alternateClient != null) {
+            return alternateClient;
+        }
+        synchronized (HttpHelper.class) {
+            if (alternateClient == null) {
+                alternateClient = getClient().newBuilder()
+                        .dns(new CustomDns(1))
+                        .build();
+            }
+            return alternateClient;
+        }
+    }
+
     public static final OkHttpClient getSyncClient() {
         if (syncClient != null) {
             return syncClient;
         }
         synchronized (HttpHelper.class) {
             if (syncClient == null) {
-                syncClient = new OkHttpClient.Builder()
+                OkHttpClient base = getBaseClient();
+                Dispatcher dispatcher = new Dispatcher(base.dispatcher().executorService());
+                dispatcher.setMaxRequests(16);
+                dispatcher.setMaxRequestsPerHost(4);
+                syncClient = base.newBuilder()
+                        .dispatcher(dispatcher)
                         .connectTimeout(60000, TimeUnit.MILLISECONDS)
                         .readTimeout(3600000, TimeUnit.MILLISECONDS)
                         .writeTimeout(3600000, TimeUnit.MILLISECONDS)
                         .dns(customDns)
+                        .eventListenerFactory(NetMetrics.FACTORY)
                         .build();
             }
             return syncClient;
         }
     }
 
+    /**
+     * {@link #getSyncClient()} starting at the second best edge, see {@link #getAlternateClient()}.
+     */
+    public static final OkHttpClient getAlternateSyncClient() {
+        if (alternateSyncClient != null) {
+            return alternateSyncClient;
+        }
+        synchronized (HttpHelper.class) {
+            if (alternateSyncClient == null) {
+                alternateSyncClient = getSyncClient().newBuilder()
+                        .dns(new CustomDns(1))
+                        .build();
+            }
+            return alternateSyncClient;
+        }
+    }
+
+    /**
+     * Opens a connection (DNS, TCP and TLS) to the proxy host ahead of the first real call and
+     * leaves it in the shared pool.
+     */
+    public static void prewarm() {
+        Request request = new Request.Builder()
+                .url("https://" + Common.host + "/")
+                .head()
+                .build();
+        getClient().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                LogUtil.d(TAG, "prewarm failed: %s", e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+                LogUtil.d(TAG, "prewarm: %s", response.protocol());
+            }
+        });
+    }
+
     public static class CustomDns implements Dns {
 
+        private final int skip;
+
+        public CustomDns() {
+            this(0);
+        }
+
+        /**
+         * Moves the {@code skip} best edges to the end of the list.
+         */
+        public CustomDns(int skip) {
+            this.skip = skip;
+        }
+
         @Override
         public List<InetAddress> lookup(String s) throws UnknownHostException {
-            if (!Common.isEmpty(Common.getIPS()) && Common.host.equals(s)) {
-                List<InetAddress> addresses = new ArrayList<>();
-                String ip = Common.getIp();
-                LogUtil.d("dns-lookup", "%s", ip);
-                addresses.add(InetAddress.getByName(ip));
-                return addresses;
+            if (Common.host.equals(s)) {
+                List<InetAddress> addresses = EdgeSelector.addresses();
+                if (!addresses.isEmpty()) {
+                    if (skip > 0 && addresses.size() > 1) {
+                        List<InetAddress> rotated = new ArrayList<>(addresses);
+                        Collections.rotate(rotated, -Math.min(skip, addresses.size() - 1));
+                        addresses = rotated;
+                    }
+                    LogUtil.d("dns-lookup", "%s", addresses.get(0));
+                    return addresses;
+                }
             }
             return SYSTEM.lookup(s);
         }
@@ -1,5 +1,7 @@
 package com.github.jsbxyyx.xbook.data;
 
+import android.content.Context;
+
 import androidx.annotation.NonNull;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -8,6 +10,7 @@ import com.github.jsbxyyx.xbook.common.DataCallback;
 import com.github.jsbxyyx.xbook.common.HttpStatusException;
 import com.github.jsbxyyx.xbook.common.JsonUtil;
 import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.SPUtils;
 import com.github.jsbxyyx.xbook.data.bean.Ip;
 
 import java.io.IOException;
@@ -23,6 +26,48 @@ public class IpNetHelper {
 
     private static final String TAG = "IpNetHelper";
 
+    /**
+     * The last fetched list, kept as tab separated lines so startup reads it without Jackson.
+     */
+    public static List<Ip> load(Context context) {
+        List<Ip> ips = new ArrayList<>();
+        String data = SPUtils.getData(context, Common.ips_key);
+        if (Common.isEmpty(data)) {
+            return ips;
+        }
+        for (String line : data.split("\n")) {
+            String[] f = line.split("\t", -1);
+            if (f.length == 6) {
+                Ip ip = new Ip();
+                ip.setName(f[0]);
+                ip.setIp(f[1]);
+                ip.setColo(f[2]);
+                ip.setLatency(f[3]);
+                ip.setSpeed(f[4]);
+                ip.setUptime(f[5]);
+                ips.add(ip);
+            }
+        }
+        return ips;
+    }
+
+    public static void save(Context context, List<Ip> ips) {
+        StringBuilder data = new StringBuilder();
+        for (Ip ip : ips) {
+            data.append(field(ip.getName())).append('\t')
+                    .append(field(ip.getIp())).append('\t')
+                    .append(field(ip.getColo())).append('\t')
+                    .append(field(ip.getLatency())).append('\t')
+                    .append(field(ip.getSpeed())).append('\t')
+                    .append(field(ip.getUptime())).append('\n');
+        }
+        SPUtils.putData(context, Common.ips_key, data.toString());
+    }
+
+    private static String field(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+    }
+
     public void fetchIP(DataCallback<List<Ip>> dataCallback) {
         final String reqUrl = "/ip";
         Request.Builder builder = new Request.Builder()
@@ -0,0 +1,338 @@
+package com.github.jsbxyyx.xbook.data;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+
+/**
+ * Where the time of each HTTP call goes: dns, connect, tls, time to first byte, body and total,
+ * per endpoint and per edge ip, with counters for calls, errors, bytes, retries and hedges.
+ * <p>
+ * Timings go into fixed size log-linear histograms, 8 buckets per power of two of microseconds,
+ * so recording is a few atomic increments and memory does not grow with traffic. Calls are named
+ * by {@link #tag}, untagged ones by their host.
+ *
+ * @author jsbxyyx
+ */
+public class NetMetrics {
+
+    private static final String[] PHASES = {"dns", "connect", "tls", "ttfb", "body", "total"};
+    private static final int DNS = 0;
+    private static final int CONNECT = 1;
+    private static final int TLS = 2;
+    private static final int TTFB = 3;
+    private static final int BODY = 4;
+    private static final int TOTAL = 5;
+
+    private static final Map<String, Stats> endpoints = new ConcurrentHashMap<>();
+    private static final Map<String, Stats> edges = new ConcurrentHashMap<>();
+
+    /**
+     * Install with {@code eventListenerFactory}, it also passes events on to
+     * {@link EdgeSelector#LISTENER}.
+     */
+    public static final EventListener.Factory FACTORY = CallTimer::new;
+
+    private static class Tag {
+        final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+    }
+
+    public static Request.Builder tag(Request.Builder builder, String name) {
+        return builder.tag(Tag.class, new Tag(name));
+    }
+
+    public static void retried(String name) {
+        stats(endpoints, name).retries.incrementAndGet();
+    }
+
+    public static void hedged(String name) {
+        stats(endpoints, name).hedges.incrementAndGet();
+    }
+
+    /**
+     * All figures so far, by endpoint and by edge, times in milliseconds.
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> map = new TreeMap<>();
+        map.put("endpoints", export(endpoints));
+        map.put("edges", export(edges));
+        return map;
+    }
+
+    private static Map<String, Object> export(Map<String, Stats> group) {
+        Map<String, Object> map = new TreeMap<>();
+        for (Map.Entry<String, Stats> entry : group.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().export());
+        }
+        return map;
+    }
+
+    private static Stats stats(Map<String, Stats> group, String key) {
+        Stats stats = group.get(key);
+        if (stats == null) {
+            stats = group.computeIfAbsent(key, k -> new Stats());
+        }
+        return stats;
+    }
+
+    static class Histogram {
+        private static final int LINEAR = 16;
+        private static final int SUB_BITS = 3;
+        private static final int BUCKETS = 256;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            if (micros < 0) {
+                return;
+            }
+            counts.incrementAndGet(index(micros));
+            count.incrementAndGet();
+            long m;
+            while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+                // retry
+            }
+        }
+
+        static int index(long v) {
+            if (v < LINEAR) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+            return Math.min(BUCKETS - 1, LINEAR + ((exp - 4) << SUB_BITS) + sub);
+        }
+
+        /**
+         * Largest value that falls into bucket {@code i}.
+         */
+        static long upper(int i) {
+            if (i < LINEAR) {
+                return i;
+            }
+            int exp = ((i - LINEAR) >> SUB_BITS) + 4;
+            long sub = (i - LINEAR) & ((1 << SUB_BITS) - 1);
+            return ((1L << exp) | (sub << (exp - SUB_BITS))) + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        long percentile(double p) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(upper(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        Map<String, Object> export() {
+            Map<String, Object> map = new TreeMap<>();
+            map.put("count", count.get());
+            map.put("p50", percentile(0.5) / 1000.0);
+            map.put("p90", percentile(0.9) / 1000.0);
+            map.put("p99", percentile(0.99) / 1000.0);
+            map.put("max", max.get() / 1000.0);
+            return map;
+        }
+    }
+
+    private static class Stats {
+        final Histogram[] phases = new Histogram[PHASES.length];
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong hedges = new AtomicLong();
+
+        Stats() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Histogram();
+            }
+        }
+
+        Map<String, Object> export() {
+            Map<String, Object> map = new TreeMap<>();
+            map.put("calls", calls.get());
+            map.put("errors", errors.get());
+            map.put("bytes_sent", sent.get());
+            map.put("bytes_received", received.get());
+            map.put("retries", retries.get());
+            map.put("hedges", hedges.get());
+            for (int i = 0; i < phases.length; i++) {
+                if (phases[i].count.get() > 0) {
+                    map.put(PHASES[i], phases[i].export());
+                }
+            }
+            return map;
+        }
+    }
+
+    private static class CallTimer extends EventListener {
+        private final String name;
+        private final long[] starts = new long[PHASES.length];
+        private final long[] micros = new long[PHASES.length];
+        private final boolean[] seen = new boolean[PHASES.length];
+        private String edge;
+        private long sent;
+        private long received;
+
+        CallTimer(Call call) {
+            Tag tag = call.request().tag(Tag.class);
+            this.name = tag != null ? tag.name : call.request().url().host();
+        }
+
+        private void start(int phase) {
+            starts[phase] = System.nanoTime();
+        }
+
+        private void end(int phase) {
+            if (starts[phase] != 0) {
+                micros[phase] += (System.nanoTime() - starts[phase]) / 1000;
+                starts[phase] = 0;
+                seen[phase] = true;
+            }
+        }
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            start(TOTAL);
+        }
+
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            start(DNS);
+        }
+
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> inetAddressList) {
+            end(DNS);
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+            start(CONNECT);
+        }
+
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            start(TLS);
+        }
+
+        @Override
+        public void secureConnectEnd(@NonNull Call call, Handshake handshake) {
+            end(TLS);
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                               @NonNull Proxy proxy, Protocol protocol) {
+            end(CONNECT);
+        }
+
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                                  @NonNull Proxy proxy, Protocol protocol, @NonNull IOException ioe) {
+            end(CONNECT);
+            stats(edges, inetSocketAddress.getAddress().getHostAddress()).errors.incrementAndGet();
+            EdgeSelector.LISTENER.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+        }
+
+        @Override
+        public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+            edge = connection.route().socketAddress().getAddress().getHostAddress();
+        }
+
+        @Override
+        public void requestHeadersStart(@NonNull Call call) {
+            start(TTFB);
+        }
+
+        @Override
+        public void requestBodyEnd(@NonNull Call call, long byteCount) {
+            sent += byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(@NonNull Call call) {
+            end(TTFB);
+        }
+
+        @Override
+        public void responseBodyStart(@NonNull Call call) {
+            start(BODY);
+        }
+
+        @Override
+        public void responseBodyEnd(@NonNull Call call, long byteCount) {
+            end(BODY);
+            received += byteCount;
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            finish(false);
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            finish(true);
+        }
+
+        @Override
+        public void responseFailed(@NonNull Call call, @NonNull IOException ioe) {
+            end(BODY);
+        }
+
+        private void finish(boolean failed) {
+            end(TOTAL);
+            record(stats(endpoints, name), failed);
+            if (edge != null) {
+                record(stats(edges, edge), failed);
+            }
+        }
+
+        private void record(Stats stats, boolean failed) {
+            stats.calls.incrementAndGet();
+            if (failed) {
+                stats.errors.incrementAndGet();
+            }
+            stats.sent.addAndGet(sent);
+            stats.received.addAndGet(received);
+            for (int i = 0; i < PHASES.length; i++) {
+                if (seen[i]) {
+                    stats.phases[i].record(micros[i]);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import okhttp3.Response;
+
+/**
+ * A download in progress: a hidden {@code .part} file next to the target and a sidecar recording
+ * the url, the validator of the answer (strong ETag or Last-Modified) and the bytes completed.
+ * A later attempt asks for the rest with {@code Range} and {@code If-Range}; the part file is
+ * renamed to the target once complete.
+ * <p>
+ * The part file holds exactly what the target will, {@code header} leading bytes included, so
+ * an encoded download resumes byte for byte.
+ *
+ * @author jsbxyyx
+ */
+public class PartFile {
+
+    private static final String TAG = "PartFile";
+
+    private final File file;
+    private final File meta;
+    private final String url;
+    private final int header;
+    private String validator;
+    private long done;
+
+    private PartFile(File dir, String name, String url, int header) {
+        this.file = new File(dir, "." + name + ".part");
+        this.meta = new File(dir, "." + name + ".part.meta");
+        this.url = url;
+        this.header = header;
+    }
+
+    /**
+     * The part file for {@code url} under {@code dir}, picking up what an earlier attempt left.
+     *
+     * @param key    tells apart downloads of the same url, e.g. for another user or encoding
+     * @param header leading bytes the caller writes itself before the body
+     */
+    public static PartFile open(String dir, String url, String key, int header) {
+        PartFile part = new PartFile(new File(dir), hash(url + "\n" + key), url, header);
+        part.load();
+        return part;
+    }
+
+    private void load() {
+        if (!meta.exists() || !file.exists()) {
+            return;
+        }
+        Properties props = new Properties();
+        try (FileInputStream in = new FileInputStream(meta)) {
+            props.load(in);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "load %s: %s", meta, e.getMessage());
+            return;
+        }
+        if (!url.equals(props.getProperty("url")) || props.getProperty("validator") == null) {
+            return;
+        }
+        try {
+            long recorded = Long.parseLong(props.getProperty("done", "0"));
+            done = Math.max(0, Math.min(recorded, file.length() - header));
+            validator = props.getProperty("validator");
+        } catch (NumberFormatException e) {
+            done = 0;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getValidator() {
+        return validator;
+    }
+
+    /**
+     * Bytes of the body already on disk that an attempt may skip.
+     */
+    public long getDone() {
+        return validator == null ? 0 : done;
+    }
+
+    /**
+     * Range headers for the next attempt, none when it has to start over.
+     */
+    public void applyTo(ProxyEnvelope envelope) {
+        if (getDone() > 0) {
+            envelope.header("Range", "bytes=" + done + "-")
+                    .header("If-Range", validator);
+        }
+    }
+
+    /**
+     * Where {@code response} starts within the body, 0 unless it is the partial answer asked for by
+     * {@link #applyTo}. Everything past that offset is dropped from the part file, which is then
+     * recorded for {@code response}'s validator.
+     */
+    public long begin(Response response) throws IOException {
+        long offset = 0;
+        if (response.code() == 206 && getDone() > 0 && start(response.header("Content-Range")) == done) {
+            offset = done;
+        }
+        validator = validator(response);
+        done = offset;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(offset == 0 ? 0 : header + offset);
+        }
+        save();
+        LogUtil.d(TAG, "%s from %s", file.getName(), offset);
+        return offset;
+    }
+
+    /**
+     * Records that the body is on disk up to {@code done}, after the bytes were written.
+     */
+    public void progress(long done) {
+        this.done = done;
+        save();
+    }
+
+    /**
+     * Moves the part file over {@code target} and forgets the download.
+     */
+    public void complete(File target) throws IOException {
+        if (target.exists() && !target.delete()) {
+            throw new IOException("cannot replace " + target);
+        }
+        if (!file.renameTo(target)) {
+            throw new IOException("cannot rename " + file + " to " + target);
+        }
+        meta.delete();
+    }
+
+    /**
+     * Throws away what was downloaded so far.
+     */
+    public void discard() {
+        validator = null;
+        done = 0;
+        file.delete();
+        meta.delete();
+    }
+
+    private void save() {
+        if (validator == null) {
+            meta.delete();
+            return;
+        }
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("validator", validator);
+        props.setProperty("done", Long.toString(done));
+        File tmp = new File(meta.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            props.store(out, null);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "save %s: %s", meta, e.getMessage());
+            return;
+        }
+        if (!tmp.renameTo(meta)) {
+            tmp.delete();
+        }
+    }
+
+    private static String validator(Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.header("Last-Modified");
+    }
+
+    private static long start(String contentRange) {
+        // bytes 100-199/200
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,417 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.BufferPool;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.ProgressListener;
+import com.github.jsbxyyx.xbook.common.XorCodec;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCall;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyClient;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import okhttp3.Response;
+
+import static com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint.Target.XURL;
+
+/**
+ * Fetches one download over several connections at once. The answer that started the download
+ * keeps streaming from the front while ranged requests fetch the rest, every other one over
+ * {@link HttpHelper#getAlternateSyncClient()}, so on another edge. All write at their own offsets
+ * into the preallocated part file.
+ * <p>
+ * A second connection is opened after the first second, and another each time the last one raised
+ * the throughput noticeably. A connection that finishes its range takes over half of the largest
+ * range left, so slow ones are relieved rather than waited for.
+ * <p>
+ * The monitor only guards the segment bookkeeping. The listener, the part file checkpoints and
+ * new connections are handled after it is released, so a listener may cancel the download.
+ *
+ * @author jsbxyyx
+ */
+public class SegmentedDownload {
+
+    private static final String TAG = "SegmentedDownload";
+
+    private static final long MIN_LENGTH = 4 * 1024 * 1024;
+    private static final long MIN_SPLIT = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 4;
+    private static final int MAX_FAILURES = 3;
+    private static final long TICK = 1000;
+    private static final double GAIN = 1.15;
+
+    private final PartFile part;
+    private final Supplier<ProxyEnvelope> envelopes;
+    private final long magic;
+    private final int header;
+    private final ProgressListener listener;
+
+    /**
+     * Keeps progress and checkpoints in order across connections, taken before the monitor.
+     */
+    private final Object report = new Object();
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<ProxyCall<Void>> calls = new ArrayList<>();
+    private FileChannel channel;
+    private long length;
+    private int failures;
+    private IOException error;
+
+    private long received;
+    private long tickTime;
+    private long tickReceived;
+    private double lastRate;
+    private boolean growing = true;
+
+    private class Segment {
+        final long start;
+        long pos;
+        long end;
+        boolean alternate;
+
+        Segment(long start, long end, boolean alternate) {
+            this.start = start;
+            this.pos = start;
+            this.end = end;
+            this.alternate = alternate;
+        }
+    }
+
+    /**
+     * What one chunk has to report once the monitor is released.
+     */
+    private static class Tick {
+        long received;
+        long prefix = -1;
+        long rate = -1;
+        Segment split;
+    }
+
+    /**
+     * @param envelopes a new envelope for the download each call, the range headers are added to it
+     * @param listener  told of every chunk, see {@link com.github.jsbxyyx.xbook.common.ProgressDispatcher}
+     */
+    public SegmentedDownload(PartFile part, Supplier<ProxyEnvelope> envelopes, long magic, ProgressListener listener) {
+        this.part = part;
+        this.envelopes = envelopes;
+        this.magic = magic;
+        this.header = magic > 0 ? 8 : 0;
+        this.listener = listener;
+    }
+
+    /**
+     * Whether a fresh answer is worth splitting: large, of known length, ranges accepted and a
+     * validator to keep the ranges consistent.
+     */
+    public static boolean eligible(Response response) {
+        return response.code() == 200
+                && response.body().contentLength() >= MIN_LENGTH
+                && "bytes".equalsIgnoreCase(response.header("Accept-Ranges"))
+                && hasValidator(response);
+    }
+
+    private static boolean hasValidator(Response response) {
+        String etag = response.header("ETag");
+        return (etag != null && !etag.startsWith("W/")) || response.header("Last-Modified") != null;
+    }
+
+    /**
+     * Reads {@code proxyResponse}, a full answer that passed {@link #eligible}, and fetches the rest
+     * alongside. Returns once the part file is complete; cancelling the call answered stops all
+     * connections and keeps what is on disk.
+     */
+    public void run(ProxyResponse proxyResponse) throws IOException {
+        Response response = proxyResponse.raw();
+        length = response.body().contentLength();
+        proxyResponse.getCall().onCancel(() -> {
+            fail(new IOException("Canceled"));
+            cancelAll();
+        });
+        try (RandomAccessFile raf = new RandomAccessFile(part.getFile(), "rw")) {
+            raf.setLength(header + length);
+            channel = raf.getChannel();
+            if (magic > 0) {
+                ByteBuffer buf = ByteBuffer.allocate(8);
+                buf.putLong(magic ^ Common.MG_XOR);
+                buf.flip();
+                write(buf, 0);
+            }
+            Segment first = new Segment(0, length, false);
+            synchronized (this) {
+                segments.add(first);
+                tickTime = System.currentTimeMillis();
+            }
+            try (InputStream input = response.body().byteStream()) {
+                read(first, input);
+            } catch (IOException e) {
+                failed(first, e);
+            }
+            await();
+        } finally {
+            synchronized (report) {
+                long prefix;
+                synchronized (this) {
+                    prefix = prefix();
+                }
+                part.progress(prefix);
+            }
+            cancelAll();
+        }
+        if (listener != null) {
+            listener.onProgress(length, length);
+        }
+    }
+
+    private void launch(Segment segment) {
+        long from;
+        long to;
+        synchronized (this) {
+            if (error != null) {
+                return;
+            }
+            from = segment.pos;
+            to = segment.end;
+        }
+        ProxyEnvelope envelope = envelopes.get()
+                .header("Range", "bytes=" + from + "-" + (to - 1))
+                .header("If-Range", part.getValidator());
+        ProxyEndpoint<Void> endpoint = ProxyEndpoint.<Void>of("download segment", XURL,
+                        proxyResponse -> fetch(segment, from, proxyResponse.raw()))
+                .sync();
+        ProxyCall<Void> call = new ProxyCall<>(endpoint, envelope, segment.alternate);
+        synchronized (this) {
+            calls.add(call);
+        }
+        LogUtil.d(TAG, "segment %s-%s alternate=%s", from, to, segment.alternate);
+        ProxyClient.enqueue(call, (v, err) -> {
+            synchronized (this) {
+                calls.remove(call);
+            }
+            if (err != null) {
+                failed(segment, err instanceof IOException ? (IOException) err : new IOException(err));
+            }
+        });
+    }
+
+    private Void fetch(Segment segment, long from, Response response) throws IOException {
+        String contentRange = response.header("Content-Range");
+        if (response.code() != 206 || contentRange == null || !contentRange.startsWith("bytes " + from + "-")) {
+            fail(new IOException("range not honoured: " + response.code() + " " + contentRange));
+            return null;
+        }
+        try (InputStream input = response.body().byteStream()) {
+            read(segment, input);
+        }
+        return null;
+    }
+
+    private void read(Segment segment, InputStream input) throws IOException {
+        byte[] buffer = BufferPool.acquire();
+        try {
+            readInto(segment, input, buffer);
+        } finally {
+            BufferPool.release(buffer);
+        }
+    }
+
+    private void readInto(Segment segment, InputStream input, byte[] buffer) throws IOException {
+        while (true) {
+            long pos;
+            long left;
+            synchronized (this) {
+                if (error != null) {
+                    return;
+                }
+                pos = segment.pos;
+                left = segment.end - segment.pos;
+            }
+            if (left <= 0) {
+                break;
+            }
+            int n = left < buffer.length
+                    ? input.read(buffer, 0, (int) left)
+                    : BookNetHelper.fill(input, buffer);
+            if (n == -1) {
+                throw new IOException("segment ended at " + pos);
+            }
+            if (magic > 0) {
+                XorCodec.xor(buffer, 0, n, Common.MG_XOR);
+            }
+            write(ByteBuffer.wrap(buffer, 0, n), header + pos);
+            Tick tick;
+            synchronized (report) {
+                synchronized (this) {
+                    segment.pos += n;
+                    received += n;
+                    tick = tick();
+                }
+                report(tick);
+            }
+            if (tick.split != null) {
+                launch(tick.split);
+            }
+        }
+        Segment taken;
+        synchronized (this) {
+            taken = split(segment);
+            notifyAll();
+        }
+        if (taken != null) {
+            launch(taken);
+        }
+    }
+
+    private void write(ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Measures the throughput once a {@link #TICK} and splits off another connection while that
+     * keeps paying off. Called with the monitor held, the result is reported by {@link #report}.
+     */
+    private Tick tick() {
+        Tick tick = new Tick();
+        tick.received = received;
+        long now = System.currentTimeMillis();
+        if (now - tickTime < TICK) {
+            return tick;
+        }
+        double rate = (received - tickReceived) * 1000.0 / (now - tickTime);
+        tickTime = now;
+        tickReceived = received;
+        tick.prefix = prefix();
+        tick.rate = (long) rate;
+        if (growing && lastRate > 0 && rate < lastRate * GAIN) {
+            growing = false;
+            LogUtil.d(TAG, "%s segments, %s B/s", running(), (long) rate);
+        }
+        lastRate = rate;
+        if (growing && running() < MAX_SEGMENTS) {
+            tick.split = split(null);
+        }
+        return tick;
+    }
+
+    private void report(Tick tick) {
+        if (listener != null) {
+            listener.onProgress(tick.received, length);
+        }
+        if (tick.prefix >= 0) {
+            part.progress(tick.prefix);
+        }
+        if (listener != null && tick.rate >= 0) {
+            listener.onSpeed(tick.rate);
+        }
+    }
+
+    private int running() {
+        int n = 0;
+        for (Segment s : segments) {
+            if (s.pos < s.end) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Takes half of the largest range left for a new connection, {@code idle} is the one that just
+     * finished its own range, if any. Called with the monitor held, the caller launches the result.
+     *
+     * @return the new segment, {@code null} when no range is worth splitting.
+     */
+    private Segment split(Segment idle) {
+        Segment largest = null;
+        for (Segment s : segments) {
+            if (largest == null || s.end - s.pos > largest.end - largest.pos) {
+                largest = s;
+            }
+        }
+        if (largest == null || largest.end - largest.pos < 2 * MIN_SPLIT) {
+            return null;
+        }
+        long mid = largest.pos + (largest.end - largest.pos) / 2;
+        boolean alternate = idle != null ? idle.alternate : segments.size() % 2 == 1;
+        Segment taken = new Segment(mid, largest.end, alternate);
+        largest.end = mid;
+        segments.add(taken);
+        return taken;
+    }
+
+    private void failed(Segment segment, IOException e) {
+        boolean retry;
+        synchronized (this) {
+            if (error != null) {
+                return;
+            }
+            retry = ++failures <= MAX_FAILURES && !"Canceled".equals(e.getMessage());
+            if (retry) {
+                segment.alternate = !segment.alternate;
+            }
+        }
+        LogUtil.d(TAG, "segment %s failed: %s", segment.pos, e.getMessage());
+        if (retry) {
+            launch(segment);
+        } else {
+            fail(e);
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (error == null) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    private synchronized void await() throws IOException {
+        while (error == null && running() > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Bytes complete from the start on, what a single stream can resume from.
+     */
+    private long prefix() {
+        long prefix = length;
+        for (Segment s : segments) {
+            if (s.pos < s.end) {
+                prefix = Math.min(prefix, s.pos);
+            }
+        }
+        return prefix;
+    }
+
+    private void cancelAll() {
+        List<ProxyCall<Void>> live;
+        synchronized (this) {
+            live = new ArrayList<>(calls);
+        }
+        for (ProxyCall<Void> call : live) {
+            call.cancel();
+        }
+    }
+
+}
@@ -1,211 +1,76 @@
 package com.github.jsbxyyx.xbook.data;
 
-import static com.github.jsbxyyx.xbook.common.Common.getXburl;
-
-import androidx.annotation.NonNull;
+import static com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint.Target.XBURL;
 
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.github.jsbxyyx.xbook.common.Common;
 import com.github.jsbxyyx.xbook.common.DataCallback;
-import com.github.jsbxyyx.xbook.common.HttpStatusException;
-import com.github.jsbxyyx.xbook.common.JsonUtil;
-import com.github.jsbxyyx.xbook.common.LogUtil;
-import com.github.jsbxyyx.xbook.common.UiUtils;
 import com.github.jsbxyyx.xbook.data.bean.QqVideo;
 import com.github.jsbxyyx.xbook.data.bean.QqVideoHotRank;
 import com.github.jsbxyyx.xbook.data.bean.QqVideoHotWord;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCache;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyClient;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+import com.github.jsbxyyx.xbook.data.proxy.ResponseDecoder;
+import com.github.jsbxyyx.xbook.data.proxy.SingleFlight;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author jsbxyyx
  */
 public class VideoNetHelper {
 
+    private static final TypeReference<List<QqVideo>> VIDEO_LIST = new TypeReference<List<QqVideo>>() {
+    };
+    private static final TypeReference<List<QqVideoHotRank>> HOT_RANK_LIST = new TypeReference<List<QqVideoHotRank>>() {
+    };
+    private static final TypeReference<List<QqVideoHotWord>> HOT_WORD_LIST = new TypeReference<List<QqVideoHotWord>>() {
+    };
+
+    private static final ProxyEndpoint<List<QqVideo>> SEARCH = ProxyEndpoint.of("search", XBURL,
+                    ResponseDecoder.dataList(VIDEO_LIST))
+            .fallback(ArrayList::new)
+            .batch()
+            .intercept(SingleFlight.of(VIDEO_LIST));
+    private static final ProxyEndpoint<List<QqVideoHotRank>> HOT_RANK = ProxyEndpoint.of("hotrank", XBURL,
+                    ResponseDecoder.dataList(HOT_RANK_LIST))
+            .fallback(ArrayList::new)
+            .batch()
+            .intercept(SingleFlight.of(HOT_RANK_LIST))
+            .intercept(ProxyCache.of(HOT_RANK_LIST, TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(1)));
+    private static final ProxyEndpoint<List<QqVideoHotWord>> HOT_WORD = ProxyEndpoint.of("hotword", XBURL,
+                    ResponseDecoder.dataList(HOT_WORD_LIST))
+            .fallback(ArrayList::new)
+            .batch()
+            .intercept(SingleFlight.of(HOT_WORD_LIST))
+            .intercept(ProxyCache.of(HOT_WORD_LIST, TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(1)));
+
     private String userAgent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/122.0.0.0 Safari/537.36";
 
     private String TAG = getClass().getSimpleName();
 
     public void search(String q, DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-
-        String reqUrl = "/vqq";
-        object.put("method", "GET");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        object.put("headers", headers);
-
-        List<Object> params = new ArrayList<>();
-        List<String> p0 = new ArrayList<>();
-        p0.add("q");
-        p0.add(q);
-        params.add(p0);
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "search request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(new ArrayList<>(), e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "search response: %s", string);
-                try {
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    JsonNode data = jsonObject.get("data");
-                    List<QqVideo> list = JsonUtil.convertValue(data.get("list"), new TypeReference<List<QqVideo>>() {
-                    });
-                    dataCallback.call(list, null);
-                } catch (Exception e) {
-                    dataCallback.call(new ArrayList<>(), e);
-                }
-            }
-        });
+        ProxyEnvelope envelope = ProxyEnvelope.get("/vqq")
+                .header("User-Agent", userAgent)
+                .param("q", q);
+        ProxyClient.enqueue(SEARCH, envelope, dataCallback);
     }
 
     public void hotRank(DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-
-        String reqUrl = "/hotrank_vqq";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "hotrank request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(new ArrayList<>(), e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "hotrank response: %s", string);
-                try {
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    JsonNode data = jsonObject.get("data");
-                    List<QqVideoHotRank> list = JsonUtil.convertValue(data.get("list"), new TypeReference<List<QqVideoHotRank>>() {
-                    });
-                    dataCallback.call(list, null);
-                } catch (Exception e) {
-                    dataCallback.call(new ArrayList<>(), e);
-                }
-            }
-        });
+        ProxyEnvelope envelope = ProxyEnvelope.post("/hotrank_vqq")
+                .header("User-Agent", userAgent)
+                .emptyParams();
+        ProxyClient.enqueue(HOT_RANK, envelope, dataCallback);
     }
 
     public void hotWord(DataCallback dataCallback) {
-        Map<String, Object> object = new HashMap<>();
-
-        String reqUrl = "/hotwordlist_vqq";
-        object.put("method", "POST");
-        object.put("url", reqUrl);
-
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("User-Agent", userAgent);
-        object.put("headers", headers);
-
-        Map<String, Object> params = new HashMap<>();
-        object.put("params", params);
-
-        String s = JsonUtil.toJson(object);
-        LogUtil.d(TAG, "hotrank request: %s : %s", reqUrl, s);
-        Request.Builder builder = new Request.Builder()
-                .url(getXburl())
-                .post(RequestBody.create(s, MediaType.parse("application/json")));
-        setCommonHeader(builder);
-        HttpHelper.getClient().newCall(builder.build()).enqueue(new Callback() {
-            @Override
-            public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                LogUtil.d(TAG, "onFailure: %s", LogUtil.getStackTraceString(e));
-                dataCallback.call(new ArrayList<>(), e);
-            }
-
-            @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful()) {
-                    dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", response.code(), reqUrl));
-                    return;
-                }
-                String string = response.body().string();
-                LogUtil.d(TAG, "hotrank response: %s", string);
-                try {
-                    JsonNode jsonObject = JsonUtil.readTree(string);
-                    int status = jsonObject.get("status").asInt();
-                    if (!Common.statusSuccessful(status)) {
-                        dataCallback.call(new ArrayList<>(), new HttpStatusException(response.header(Common.x_message) + "", status, reqUrl));
-                        return;
-                    }
-                    JsonNode data = jsonObject.get("data");
-                    List<QqVideoHotWord> list = JsonUtil.convertValue(data.get("list"), new TypeReference<List<QqVideoHotWord>>() {
-                    });
-                    dataCallback.call(list, null);
-                } catch (Exception e) {
-                    dataCallback.call(new ArrayList<>(), e);
-                }
-            }
-        });
-    }
-
-    void setCommonHeader(Request.Builder builder) {
-        builder.header(Common.header_vc, UiUtils.getVersionCode() + "")
-                .header(Common.header_vn, UiUtils.getVersionName())
-                .header(Common.header_platform, Common.platform_android)
-                .header(Common.header_sv, android.os.Build.VERSION.RELEASE);
+        ProxyEnvelope envelope = ProxyEnvelope.post("/hotwordlist_vqq")
+                .header("User-Agent", userAgent)
+                .emptyParams();
+        ProxyClient.enqueue(HOT_WORD, envelope, dataCallback);
     }
 
 }
@@ -0,0 +1,65 @@
+package com.github.jsbxyyx.xbook.data.bean;
+
+/**
+ * @author jsbxyyx
+ */
+public class Blob {
+
+    private String digest;
+    private String path;
+    private Long size;
+    private Integer refs;
+    private String created;
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Integer getRefs() {
+        return refs;
+    }
+
+    public void setRefs(Integer refs) {
+        this.refs = refs;
+    }
+
+    public String getCreated() {
+        return created;
+    }
+
+    public void setCreated(String created) {
+        this.created = created;
+    }
+
+    @Override
+    public String toString() {
+        return "Blob{" +
+                "digest='" + digest + '\'' +
+                ", path='" + path + '\'' +
+                ", size=" + size +
+                ", refs=" + refs +
+                ", created='" + created + '\'' +
+                '}';
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.github.jsbxyyx.xbook.data.bean;
+
+/**
+ * A row of the download queue, see {@link com.github.jsbxyyx.xbook.data.DownloadQueue}.
+ *
+ * @author jsbxyyx
+ */
+public class Download {
+
+    private Long id;
+    private String bookId;
+    private String title;
+    private String url;
+    private String destDir;
+    private String uid;
+    private Long magic;
+    private Integer priority;
+    private Integer unmetered;
+    private String state;
+    private Long done;
+    private Long total;
+    private Integer attempts;
+    private Long notBefore;
+    private String file;
+    private String error;
+    private String book;
+    private String created;
+    private String user;
+    private String remark;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getDestDir() {
+        return destDir;
+    }
+
+    public void setDestDir(String destDir) {
+        this.destDir = destDir;
+    }
+
+    public String getUid() {
+        return uid;
+    }
+
+    public void setUid(String uid) {
+        this.uid = uid;
+    }
+
+    public Long getMagic() {
+        return magic;
+    }
+
+    public void setMagic(Long magic) {
+        this.magic = magic;
+    }
+
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
+
+    public Integer getUnmetered() {
+        return unmetered;
+    }
+
+    public void setUnmetered(Integer unmetered) {
+        this.unmetered = unmetered;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public Long getDone() {
+        return done;
+    }
+
+    public void setDone(Long done) {
+        this.done = done;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public void setTotal(Long total) {
+        this.total = total;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Long getNotBefore() {
+        return notBefore;
+    }
+
+    public void setNotBefore(Long notBefore) {
+        this.notBefore = notBefore;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public String getBook() {
+        return book;
+    }
+
+    public void setBook(String book) {
+        this.book = book;
+    }
+
+    public String getCreated() {
+        return created;
+    }
+
+    public void setCreated(String created) {
+        this.created = created;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public String getRemark() {
+        return remark;
+    }
+
+    public void setRemark(String remark) {
+        this.remark = remark;
+    }
+
+    @Override
+    public String toString() {
+        return "Download{" +
+                "id=" + id +
+                ", bookId='" + bookId + '\'' +
+                ", title='" + title + '\'' +
+                ", priority=" + priority +
+                ", state='" + state + '\'' +
+                ", done=" + done +
+                ", total=" + total +
+                ", attempts=" + attempts +
+                '}';
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import androidx.annotation.NonNull;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.NetMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+/**
+ * Collects calls of {@link ProxyEndpoint#batch()} endpoints for a short window and sends those
+ * going to the same proxy as one request, {@code {"batch":[envelope, ...]}}. The proxy answers
+ * {@code {"batch":[answer, ...]}} in the same order, each answer shaped like a single one, with an
+ * optional {@code message} standing in for the X-message header.
+ * <p>
+ * A proxy says it understands batches with an {@code X-batch} header on any answer, its value being
+ * the largest batch it takes. Until then, or when a batch comes back without it, calls go one by one.
+ * The batch request is cancelled once all calls in it are.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyBatcher {
+
+    private static final String TAG = "ProxyBatcher";
+
+    public static final String X_BATCH = "X-batch";
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final long WINDOW = 15;
+    private static final int MAX_SIZE = 32;
+
+    /**
+     * Largest batch per proxy, 0 for a proxy without batch support.
+     */
+    private static final Map<String, Integer> limits = new ConcurrentHashMap<>();
+    private static final Map<String, List<Pending<?>>> pending = new HashMap<>();
+    /**
+     * The flush of each pending list, cancelled when the list fills up first.
+     */
+    private static final Map<String, ScheduledFuture<?>> flushes = new HashMap<>();
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "proxy batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Pending<T> {
+        final ProxyCall<T> call;
+        final DataCallback<T> callback;
+
+        Pending(ProxyCall<T> call, DataCallback<T> callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+
+        void single() {
+            ProxyClient.execute(call, callback);
+        }
+
+        void fail(Throwable err) {
+            callback.call(call.getEndpoint().fallback(), err);
+        }
+
+        void deliver(JsonNode answer, Response batch) throws IOException {
+            Response.Builder builder = batch.newBuilder()
+                    .removeHeader("Content-Length")
+                    .removeHeader(Common.x_message)
+                    .body(ResponseBody.create(JsonUtil.getMapper().writeValueAsBytes(answer), JSON));
+            if (answer.hasNonNull("message")) {
+                builder.header(Common.x_message, answer.get("message").asText());
+            }
+            ProxyClient.deliver(call, builder.build(), callback);
+        }
+    }
+
+    static void advertise(String baseUrl, String header) {
+        int limit = 0;
+        if (header != null) {
+            try {
+                limit = Math.min(Integer.parseInt(header.trim()), MAX_SIZE);
+            } catch (NumberFormatException e) {
+                limit = MAX_SIZE;
+            }
+        }
+        Integer previous = limits.put(baseUrl, limit);
+        if (previous == null || previous != limit) {
+            LogUtil.d(TAG, "%s batch: %s", baseUrl, limit);
+        }
+    }
+
+    static boolean supported(String baseUrl) {
+        Integer limit = limits.get(baseUrl);
+        return limit != null && limit > 1;
+    }
+
+    static <T> void add(ProxyCall<T> call, DataCallback<T> callback) {
+        ProxyEndpoint<T> endpoint = call.getEndpoint();
+        String baseUrl = endpoint.baseUrl();
+        String key = baseUrl + (endpoint.isSync() ? " sync" : "");
+        List<Pending<?>> full = null;
+        synchronized (pending) {
+            List<Pending<?>> calls = pending.get(key);
+            if (calls == null) {
+                List<Pending<?>> window = new ArrayList<>();
+                pending.put(key, window);
+                flushes.put(key, timer.schedule(() -> flush(key, window), WINDOW, TimeUnit.MILLISECONDS));
+                calls = window;
+            }
+            calls.add(new Pending<>(call, callback));
+            if (calls.size() >= limits.getOrDefault(baseUrl, 0)) {
+                full = pending.remove(key);
+                flushes.remove(key).cancel(false);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    private static void flush(String key, List<Pending<?>> window) {
+        synchronized (pending) {
+            // sent early, a newer window may have taken the key
+            if (pending.get(key) != window) {
+                return;
+            }
+            pending.remove(key);
+            flushes.remove(key);
+        }
+        send(window);
+    }
+
+    private static void send(List<Pending<?>> calls) {
+        List<Pending<?>> live = new ArrayList<>(calls.size());
+        for (Pending<?> p : calls) {
+            if (p.call.isCanceled()) {
+                p.fail(new IOException("Canceled"));
+            } else {
+                live.add(p);
+            }
+        }
+        if (live.size() <= 1) {
+            for (Pending<?> p : live) {
+                p.single();
+            }
+            return;
+        }
+        ProxyEndpoint<?> endpoint = live.get(0).call.getEndpoint();
+        String baseUrl = endpoint.baseUrl();
+        Buffer body = new Buffer();
+        try (JsonGenerator gen = JsonUtil.getMapper().getFactory().createGenerator(body.outputStream(), JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("batch");
+            for (Pending<?> p : live) {
+                p.call.getEnvelope().writeTo(gen);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        } catch (IOException e) {
+            for (Pending<?> p : live) {
+                p.fail(e);
+            }
+            return;
+        }
+        LogUtil.d(TAG, "%s batch request: %s", baseUrl, live.size());
+        Request.Builder builder = new Request.Builder()
+                .url(baseUrl)
+                .post(RequestBody.create(body.readByteString(), JSON));
+        ProxyClient.setCommonHeader(builder);
+        NetMetrics.tag(builder, endpoint.getName() + " batch");
+        Call batchCall = endpoint.client().newCall(builder.build());
+        // the request goes on for the others, until the last one still waiting is cancelled too
+        AtomicInteger waiting = new AtomicInteger(live.size());
+        for (Pending<?> p : live) {
+            p.call.onCancel(() -> {
+                if (waiting.decrementAndGet() == 0) {
+                    batchCall.cancel();
+                }
+            });
+        }
+        batchCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call c, @NonNull IOException e) {
+                LogUtil.d(TAG, "batch onFailure: %s", LogUtil.getStackTraceString(e));
+                for (Pending<?> p : live) {
+                    p.fail(e);
+                }
+            }
+
+            @Override
+            public void onResponse(@NonNull Call c, @NonNull Response response) {
+                try (Response r = response) {
+                    String header = r.header(X_BATCH);
+                    advertise(baseUrl, header);
+                    if (header == null) {
+                        for (Pending<?> p : live) {
+                            p.single();
+                        }
+                        return;
+                    }
+                    if (!r.isSuccessful()) {
+                        HttpStatusException err = new HttpStatusException(r.header(Common.x_message) + "", r.code(), baseUrl);
+                        for (Pending<?> p : live) {
+                            p.fail(err);
+                        }
+                        return;
+                    }
+                    read(r, live);
+                }
+            }
+        });
+    }
+
+    private static void read(Response batch, List<Pending<?>> calls) {
+        int i = 0;
+        try (JsonParser parser = JsonUtil.getMapper().createParser(batch.body().byteStream())) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if (!"batch".equals(field) || parser.currentToken() != JsonToken.START_ARRAY) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    while (parser.nextToken() != JsonToken.END_ARRAY && i < calls.size()) {
+                        JsonNode answer = JsonUtil.getMapper().readTree(parser);
+                        calls.get(i).deliver(answer, batch);
+                        i++;
+                    }
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.d(TAG, "batch read failed: %s", e.getMessage());
+        }
+        for (; i < calls.size(); i++) {
+            calls.get(i).fail(new IOException("no answer in batch"));
+        }
+    }
+
+}
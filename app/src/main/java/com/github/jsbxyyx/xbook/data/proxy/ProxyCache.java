@@ -0,0 +1,265 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.ThreadUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for idempotent proxy calls, which OkHttp cannot cache since every call is a POST to the
+ * same url. Answers are kept as JSON in a memory LRU and in files under the cache directory, both
+ * bounded in bytes, keyed by endpoint and {@link ProxyEnvelope#cacheKey()}.
+ * <p>
+ * An answer younger than {@code ttl} is served as is, up to {@code ttl + stale} it is served and
+ * refreshed in the background. Older answers and misses go to the network, failures are not cached.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyCache {
+
+    private static final String TAG = "ProxyCache";
+
+    private static final long MEMORY_BYTES = 2 * 1024 * 1024;
+    private static final long DISK_BYTES = 16 * 1024 * 1024;
+
+    private static final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private static long memoryBytes;
+    private static final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    private static final Object diskLock = new Object();
+    private static File dir;
+    private static long diskBytes;
+
+    /**
+     * Enables the disk tier, without it only the memory tier is used.
+     */
+    public static void init(File cacheDir) {
+        if (!cacheDir.exists()) {
+            boolean mkdirs = cacheDir.mkdirs();
+            LogUtil.d(TAG, "mkdirs: %s", mkdirs);
+        }
+        synchronized (diskLock) {
+            dir = cacheDir;
+        }
+        ThreadUtils.submit(ProxyCache::trim);
+    }
+
+    public static ProxyInterceptor of(TypeReference<?> type, long ttl, long stale) {
+        return new CacheInterceptor(type, ttl, stale);
+    }
+
+    private static class Entry {
+        final long time;
+        final byte[] json;
+
+        Entry(long time, byte[] json) {
+            this.time = time;
+            this.json = json;
+        }
+    }
+
+    private static class CacheInterceptor implements ProxyInterceptor {
+        private final TypeReference<?> type;
+        private final long ttl;
+        private final long stale;
+
+        CacheInterceptor(TypeReference<?> type, long ttl, long stale) {
+            this.type = type;
+            this.ttl = ttl;
+            this.stale = stale;
+        }
+
+        @Override
+        public <T> void intercept(ProxyCall<T> call, DataCallback<T> callback, Chain chain) {
+            String key = call.getEndpoint().getName() + "\n" + call.getEnvelope().cacheKey();
+            ThreadUtils.submit(() -> {
+                Entry entry = lookup(key);
+                long age = entry == null ? -1 : System.currentTimeMillis() - entry.time;
+                T value = age >= 0 && age <= ttl + stale ? decode(key, entry) : null;
+                if (value == null) {
+                    chain.proceed(call, store(key, callback));
+                    return;
+                }
+                LogUtil.d(TAG, "hit: %s age: %sms", call, age);
+                callback.call(value, null);
+                if (age > ttl && revalidating.add(key)) {
+                    // a call of its own, the caller may cancel its call now that it was answered
+                    ProxyCall<T> refresh = new ProxyCall<>(call.getEndpoint(), call.getEnvelope());
+                    chain.proceed(refresh, store(key, (v, err) -> revalidating.remove(key)));
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> T decode(String key, Entry entry) {
+            try {
+                return (T) JsonUtil.getMapper().readValue(entry.json, type);
+            } catch (IOException e) {
+                LogUtil.d(TAG, "decode failed: %s", e.getMessage());
+                remove(key);
+                return null;
+            }
+        }
+    }
+
+    private static <T> DataCallback<T> store(String key, DataCallback<T> callback) {
+        return (value, err) -> {
+            if (err == null && value != null) {
+                try {
+                    put(key, JsonUtil.getMapper().writeValueAsBytes(value));
+                } catch (IOException e) {
+                    LogUtil.d(TAG, "store failed: %s", e.getMessage());
+                }
+            }
+            callback.call(value, err);
+        };
+    }
+
+    private static Entry lookup(String key) {
+        synchronized (memory) {
+            Entry entry = memory.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Entry entry;
+        synchronized (diskLock) {
+            if (dir == null) {
+                return null;
+            }
+            File file = new File(dir, fileName(key));
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                entry = new Entry(file.lastModified(), Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                LogUtil.d(TAG, "read failed: %s", e.getMessage());
+                return null;
+            }
+        }
+        putMemory(key, entry);
+        return entry;
+    }
+
+    private static void put(String key, byte[] json) {
+        putMemory(key, new Entry(System.currentTimeMillis(), json));
+        boolean trim;
+        synchronized (diskLock) {
+            if (dir == null) {
+                return;
+            }
+            File file = new File(dir, fileName(key));
+            File tmp = new File(dir, file.getName() + ".tmp");
+            long previous = file.length();
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(json);
+            } catch (IOException e) {
+                LogUtil.d(TAG, "write failed: %s", e.getMessage());
+                tmp.delete();
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            diskBytes += json.length - previous;
+            trim = diskBytes > DISK_BYTES;
+        }
+        if (trim) {
+            trim();
+        }
+    }
+
+    private static void putMemory(String key, Entry entry) {
+        synchronized (memory) {
+            Entry previous = memory.put(key, entry);
+            memoryBytes += entry.json.length - (previous == null ? 0 : previous.json.length);
+            Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+            while (memoryBytes > MEMORY_BYTES && it.hasNext()) {
+                memoryBytes -= it.next().getValue().json.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Empties the memory tier, so tests can read answers back from disk.
+     */
+    static void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+            memoryBytes = 0;
+        }
+    }
+
+    private static void remove(String key) {
+        synchronized (memory) {
+            Entry entry = memory.remove(key);
+            if (entry != null) {
+                memoryBytes -= entry.json.length;
+            }
+        }
+        synchronized (diskLock) {
+            if (dir != null) {
+                File file = new File(dir, fileName(key));
+                diskBytes -= file.length();
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Recounts the disk tier and drops the oldest answers until it fits.
+     */
+    private static void trim() {
+        synchronized (diskLock) {
+            File[] files = dir == null ? null : dir.listFiles();
+            if (files == null) {
+                return;
+            }
+            long total = 0;
+            for (File file : files) {
+                total += file.length();
+            }
+            if (total > DISK_BYTES) {
+                Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+                for (int i = 0; i < files.length && total > DISK_BYTES; i++) {
+                    total -= files[i].length();
+                    files[i].delete();
+                }
+            }
+            diskBytes = total;
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One request: an endpoint and the envelope to send to it. Cancelling it cancels the HTTP call
+ * behind it, whose callback then gets an {@link java.io.IOException}.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyCall<T> {
+
+    private final ProxyEndpoint<T> endpoint;
+    private final ProxyEnvelope envelope;
+    private final List<Runnable> cancelHooks = new ArrayList<>();
+    private final boolean alternate;
+    private boolean canceled;
+
+    public ProxyCall(ProxyEndpoint<T> endpoint, ProxyEnvelope envelope) {
+        this(endpoint, envelope, false);
+    }
+
+    /**
+     * @param alternate send it over {@link ProxyEndpoint#alternateClient()}, on its own
+     */
+    public ProxyCall(ProxyEndpoint<T> endpoint, ProxyEnvelope envelope, boolean alternate) {
+        this.endpoint = endpoint;
+        this.envelope = envelope;
+        this.alternate = alternate;
+    }
+
+    public ProxyEndpoint<T> getEndpoint() {
+        return endpoint;
+    }
+
+    public ProxyEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    public boolean isAlternate() {
+        return alternate;
+    }
+
+    public void cancel() {
+        List<Runnable> hooks;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            hooks = new ArrayList<>(cancelHooks);
+            cancelHooks.clear();
+        }
+        for (Runnable hook : hooks) {
+            hook.run();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Runs {@code hook} on {@link #cancel()}, right away when already cancelled.
+     */
+    public void onCancel(Runnable hook) {
+        synchronized (this) {
+            if (!canceled) {
+                cancelHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + " " + envelope;
+    }
+
+}
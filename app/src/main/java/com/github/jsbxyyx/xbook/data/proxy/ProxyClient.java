@@ -0,0 +1,130 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import androidx.annotation.NonNull;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.UiUtils;
+import com.github.jsbxyyx.xbook.data.NetMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The one way requests reach the proxies: the interceptors registered here, then the
+ * endpoint's own, then the HTTP call and the endpoint's decoder.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyClient {
+
+    private static final String TAG = "ProxyClient";
+
+    private static final List<ProxyInterceptor> interceptors = new CopyOnWriteArrayList<>();
+
+    public static void addInterceptor(ProxyInterceptor interceptor) {
+        interceptors.add(interceptor);
+    }
+
+    public static <T> ProxyCall<T> enqueue(ProxyEndpoint<T> endpoint, ProxyEnvelope envelope, DataCallback<T> dataCallback) {
+        return enqueue(new ProxyCall<>(endpoint, envelope), dataCallback);
+    }
+
+    public static <T> ProxyCall<T> enqueue(ProxyCall<T> call, DataCallback<T> dataCallback) {
+        List<ProxyInterceptor> chain = new ArrayList<>(interceptors);
+        chain.addAll(call.getEndpoint().getInterceptors());
+        new RealChain(chain, 0).proceed(call, dataCallback);
+        return call;
+    }
+
+    private static class RealChain implements ProxyInterceptor.Chain {
+        private final List<ProxyInterceptor> chain;
+        private final int index;
+
+        RealChain(List<ProxyInterceptor> chain, int index) {
+            this.chain = chain;
+            this.index = index;
+        }
+
+        @Override
+        public <T> void proceed(ProxyCall<T> call, DataCallback<T> dataCallback) {
+            if (index < chain.size()) {
+                chain.get(index).intercept(call, dataCallback, new RealChain(chain, index + 1));
+            } else if (call.getEndpoint().isBatch() && !call.isAlternate()
+                    && ProxyBatcher.supported(call.getEndpoint().baseUrl())) {
+                ProxyBatcher.add(call, dataCallback);
+            } else {
+                execute(call, dataCallback);
+            }
+        }
+    }
+
+    static <T> void execute(ProxyCall<T> call, DataCallback<T> dataCallback) {
+        ProxyEndpoint<T> endpoint = call.getEndpoint();
+        ProxyEnvelope envelope = call.getEnvelope();
+        String name = endpoint.getName();
+        LogUtil.d(TAG, "%s request: %s", name, envelope);
+        Request.Builder builder = new Request.Builder()
+                .url(endpoint.baseUrl())
+                .post(envelope.toRequestBody());
+        setCommonHeader(builder);
+        NetMetrics.tag(builder, name);
+        OkHttpClient client = call.isAlternate() ? endpoint.alternateClient() : endpoint.client();
+        Call httpCall = client.newCall(builder.build());
+        call.onCancel(httpCall::cancel);
+        httpCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call c, @NonNull IOException e) {
+                LogUtil.d(TAG, "%s onFailure: %s", name, LogUtil.getStackTraceString(e));
+                dataCallback.call(endpoint.fallback(), e);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call c, @NonNull Response response) {
+                ProxyBatcher.advertise(endpoint.baseUrl(), response.header(ProxyBatcher.X_BATCH));
+                deliver(call, response, dataCallback);
+            }
+        });
+    }
+
+    /**
+     * Decodes an answer, on its own or taken out of a batch, and hands it to the callback.
+     */
+    static <T> void deliver(ProxyCall<T> call, Response response, DataCallback<T> dataCallback) {
+        ProxyEndpoint<T> endpoint = call.getEndpoint();
+        String name = endpoint.getName();
+        String url = call.getEnvelope().getUrl();
+        T value;
+        Throwable err = null;
+        try (Response r = response) {
+            if (!r.isSuccessful()) {
+                LogUtil.d(TAG, "%s onResponse: %s", name, r.code());
+                throw new HttpStatusException(r.header(Common.x_message) + "", r.code(), url);
+            }
+            value = endpoint.getDecoder().decode(new ProxyResponse(call, r));
+        } catch (Exception e) {
+            LogUtil.d(TAG, "%s failed: %s", name, e.getMessage());
+            value = endpoint.fallback();
+            err = e;
+        }
+        dataCallback.call(value, err);
+    }
+
+    public static void setCommonHeader(Request.Builder builder) {
+        builder.header(Common.header_vc, UiUtils.getVersionCode() + "")
+                .header(Common.header_vn, UiUtils.getVersionName())
+                .header(Common.header_platform, Common.platform_android)
+                .header(Common.header_sv, android.os.Build.VERSION.RELEASE + "");
+    }
+
+}
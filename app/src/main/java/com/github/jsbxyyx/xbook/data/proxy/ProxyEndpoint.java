@@ -0,0 +1,118 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.data.HttpHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Describes one kind of proxy call: which proxy it goes to, over which client, how the answer
+ * is decoded and what the callback receives instead when it fails.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyEndpoint<T> {
+
+    public enum Target {
+        XURL,
+        XBURL
+    }
+
+    private final String name;
+    private final Target target;
+    private final ResponseDecoder<T> decoder;
+    private boolean sync;
+    private boolean batch;
+    private Supplier<T> fallback = () -> null;
+    private final List<ProxyInterceptor> interceptors = new ArrayList<>();
+
+    private ProxyEndpoint(String name, Target target, ResponseDecoder<T> decoder) {
+        this.name = name;
+        this.target = target;
+        this.decoder = decoder;
+    }
+
+    public static <T> ProxyEndpoint<T> of(String name, Target target, ResponseDecoder<T> decoder) {
+        return new ProxyEndpoint<>(name, target, decoder);
+    }
+
+    /**
+     * Use the long timeout client, for uploads and downloads.
+     */
+    public ProxyEndpoint<T> sync() {
+        this.sync = true;
+        return this;
+    }
+
+    /**
+     * Let {@link ProxyBatcher} send these calls together with others to the same proxy. Only for
+     * idempotent calls, a batch the proxy answers without {@code X-batch} is sent again one by one.
+     */
+    public ProxyEndpoint<T> batch() {
+        this.batch = true;
+        return this;
+    }
+
+    public ProxyEndpoint<T> fallback(Supplier<T> fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    /**
+     * Runs after the interceptors registered on {@link ProxyClient}.
+     */
+    public ProxyEndpoint<T> intercept(ProxyInterceptor interceptor) {
+        interceptors.add(interceptor);
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public ResponseDecoder<T> getDecoder() {
+        return decoder;
+    }
+
+    public T fallback() {
+        return fallback.get();
+    }
+
+    public List<ProxyInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(interceptors);
+    }
+
+    public String baseUrl() {
+        return target == Target.XURL ? Common.getXurl() : Common.getXburl();
+    }
+
+    public OkHttpClient client() {
+        return sync ? HttpHelper.getSyncClient() : HttpHelper.getClient();
+    }
+
+    /**
+     * The client for a second try that should reach another edge than the first.
+     */
+    public OkHttpClient alternateClient() {
+        return sync ? HttpHelper.getAlternateSyncClient() : HttpHelper.getAlternateClient();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+/**
+ * The JSON the proxy expects: {@code method}, {@code url}, {@code headers}, and optionally
+ * {@code params} (name/value pairs) and {@code data} (a form string or an object).
+ * <p>
+ * Data values may be {@code byte[]} or {@link File}, both are written base64 encoded, a file
+ * straight from disk.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyEnvelope {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final String method;
+    private final String url;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private List<String[]> params;
+    private String form;
+    private Map<String, Object> data;
+
+    private ProxyEnvelope(String method, String url) {
+        this.method = method;
+        this.url = url;
+    }
+
+    public static ProxyEnvelope get(String url) {
+        return new ProxyEnvelope("GET", url);
+    }
+
+    public static ProxyEnvelope post(String url) {
+        return new ProxyEnvelope("POST", url);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public ProxyEnvelope header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public ProxyEnvelope param(String name, String value) {
+        emptyParams();
+        params.add(new String[]{name, value});
+        return this;
+    }
+
+    /**
+     * Send {@code params}, as {@code {}} when no pair is added.
+     */
+    public ProxyEnvelope emptyParams() {
+        if (params == null) {
+            params = new ArrayList<>();
+        }
+        return this;
+    }
+
+    public ProxyEnvelope form(String form) {
+        this.form = form;
+        this.data = null;
+        return this;
+    }
+
+    public ProxyEnvelope data(String name, Object value) {
+        emptyData();
+        data.put(name, value);
+        return this;
+    }
+
+    /**
+     * Send {@code data}, as {@code {}} when no value is added.
+     */
+    public ProxyEnvelope emptyData() {
+        if (data == null) {
+            data = new LinkedHashMap<>();
+            form = null;
+        }
+        return this;
+    }
+
+    /**
+     * Identifies what is asked for and for whom: method, url, params, data and the cookie header,
+     * so answers for one session are never served to another. Other headers are left out.
+     */
+    public String cacheKey() {
+        StringBuilder key = new StringBuilder(method).append(' ').append(url);
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if ("cookie".equalsIgnoreCase(entry.getKey())) {
+                key.append("\ncookie:").append(entry.getValue());
+            }
+        }
+        if (params != null) {
+            for (String[] pair : params) {
+                key.append('\n').append(pair[0]).append('=').append(pair[1]);
+            }
+        }
+        if (form != null) {
+            key.append('\n').append(form);
+        } else if (data != null) {
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                Object value = entry.getValue();
+                key.append('\n').append(entry.getKey()).append(':');
+                if (value instanceof byte[]) {
+                    key.append(Arrays.hashCode((byte[]) value));
+                } else {
+                    key.append(value);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        JsonGenerator gen = JsonUtil.getMapper().getFactory().createGenerator(out, JsonEncoding.UTF8);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeTo(gen);
+        gen.close();
+    }
+
+    public void writeTo(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("method", method);
+        gen.writeStringField("url", url);
+        gen.writeObjectFieldStart("headers");
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            gen.writeStringField(entry.getKey(), entry.getValue());
+        }
+        gen.writeEndObject();
+        if (params != null) {
+            gen.writeFieldName("params");
+            if (params.isEmpty()) {
+                gen.writeStartObject();
+                gen.writeEndObject();
+            } else {
+                gen.writeStartArray();
+                for (String[] pair : params) {
+                    gen.writeStartArray();
+                    gen.writeString(pair[0]);
+                    gen.writeString(pair[1]);
+                    gen.writeEndArray();
+                }
+                gen.writeEndArray();
+            }
+        }
+        if (form != null) {
+            gen.writeStringField("data", form);
+        } else if (data != null) {
+            gen.writeObjectFieldStart("data");
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                gen.writeFieldName(entry.getKey());
+                writeValue(gen, entry.getValue());
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    private static void writeValue(JsonGenerator gen, Object value) throws IOException {
+        if (value instanceof byte[]) {
+            gen.writeBinary((byte[]) value);
+        } else if (value instanceof File) {
+            File file = (File) value;
+            try (InputStream in = new FileInputStream(file)) {
+                gen.writeBinary(in, (int) file.length());
+            }
+        } else {
+            gen.writeObject(value);
+        }
+    }
+
+    /**
+     * The envelope is encoded once into an Okio buffer, so the request keeps its Content-Length
+     * and a retried call re-sends the same segments.
+     */
+    public RequestBody toRequestBody() {
+        return new RequestBody() {
+            private Buffer encoded;
+
+            private Buffer encoded() throws IOException {
+                if (encoded == null) {
+                    Buffer buffer = new Buffer();
+                    ProxyEnvelope.this.writeTo(buffer.outputStream());
+                    encoded = buffer;
+                }
+                return encoded;
+            }
+
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return encoded().size();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                Buffer buffer = encoded();
+                buffer.copyTo(sink.getBuffer(), 0, buffer.size());
+                sink.emitCompleteSegments();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+
+}
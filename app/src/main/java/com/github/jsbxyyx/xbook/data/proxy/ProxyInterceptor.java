@@ -0,0 +1,20 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.github.jsbxyyx.xbook.common.DataCallback;
+
+/**
+ * Asynchronous hook around a proxy call, for caching, retries or metrics. An interceptor either
+ * answers {@code callback} itself or passes the call on with {@link Chain#proceed}, possibly with
+ * a wrapped callback, possibly more than once.
+ *
+ * @author jsbxyyx
+ */
+public interface ProxyInterceptor {
+
+    <T> void intercept(ProxyCall<T> call, DataCallback<T> callback, Chain chain);
+
+    interface Chain {
+        <T> void proceed(ProxyCall<T> call, DataCallback<T> callback);
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+
+/**
+ * A successful proxy answer, handed to a {@link ResponseDecoder}. Most answers are a JSON
+ * object with a {@code status} and {@code data}, {@link #checkedJson()} reads and checks it.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyResponse {
+
+    private static final String TAG = "ProxyResponse";
+
+    private final ProxyCall<?> call;
+    private final String name;
+    private final String url;
+    private final Response response;
+    private JsonNode json;
+
+    ProxyResponse(ProxyCall<?> call, Response response) {
+        this.call = call;
+        this.name = call.getEndpoint().getName();
+        this.url = call.getEnvelope().getUrl();
+        this.response = response;
+    }
+
+    /**
+     * The call answered, a decoder reading a long body watches it for {@link ProxyCall#cancel()}.
+     */
+    public ProxyCall<?> getCall() {
+        return call;
+    }
+
+    /**
+     * The url the proxy fetched, not the proxy's own.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    public Response raw() {
+        return response;
+    }
+
+    public String header(String name) {
+        return response.header(name);
+    }
+
+    public String message() {
+        return response.header(Common.x_message) + "";
+    }
+
+    public JsonNode json() throws IOException {
+        if (json == null) {
+            String string = response.body().string();
+            LogUtil.d(TAG, "%s response: %s", name, string);
+            json = JsonUtil.readTree(string);
+        }
+        return json;
+    }
+
+    /**
+     * @throws HttpStatusException when the proxied request did not succeed.
+     */
+    public JsonNode checkedJson() throws IOException {
+        JsonNode json = json();
+        int status = json.get("status").asInt();
+        if (!Common.statusSuccessful(status)) {
+            LogUtil.d(TAG, "%s status: %s", name, status);
+            throw new HttpStatusException(message(), status, url);
+        }
+        return json;
+    }
+
+    /**
+     * Reads the answer straight from the body, without a String or a tree: checks {@code status}
+     * and binds the value found under {@code data} at {@code path}, skipping everything else.
+     *
+     * @throws HttpStatusException when the proxied request did not succeed.
+     */
+    public <V> V readData(TypeReference<V> type, String... path) throws IOException {
+        int status = 0;
+        V value = null;
+        try (JsonParser parser = JsonUtil.getMapper().createParser(response.body().byteStream())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, name + " response is not an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("status".equals(field)) {
+                    status = parser.getValueAsInt();
+                    if (!Common.statusSuccessful(status)) {
+                        break;
+                    }
+                } else if ("data".equals(field)) {
+                    value = readPath(parser, type, path, 0);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!Common.statusSuccessful(status)) {
+            LogUtil.d(TAG, "%s status: %s", name, status);
+            throw new HttpStatusException(message(), status, url);
+        }
+        return value;
+    }
+
+    private static <V> V readPath(JsonParser parser, TypeReference<V> type, String[] path, int depth) throws IOException {
+        if (depth == path.length) {
+            return parser.currentToken() == JsonToken.VALUE_NULL ? null : JsonUtil.getMapper().readValue(parser, type);
+        }
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        V value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (path[depth].equals(field)) {
+                value = readPath(parser, type, path, depth + 1);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+}
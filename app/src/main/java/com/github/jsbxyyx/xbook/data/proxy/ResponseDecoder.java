@@ -0,0 +1,53 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+
+/**
+ * Turns a successful proxy answer into the value the caller wants. Anything it throws is handed
+ * to the callback together with the endpoint's fallback value.
+ *
+ * @author jsbxyyx
+ */
+public interface ResponseDecoder<T> {
+
+    T decode(ProxyResponse response) throws Exception;
+
+    /**
+     * The whole checked answer.
+     */
+    static ResponseDecoder<JsonNode> json() {
+        return ProxyResponse::checkedJson;
+    }
+
+    static ResponseDecoder<JsonNode> data() {
+        return response -> response.checkedJson().get("data");
+    }
+
+    /**
+     * {@code data} holding a JSON document as a string.
+     */
+    static ResponseDecoder<JsonNode> dataText() {
+        return response -> JsonUtil.readTree(response.checkedJson().get("data").asText());
+    }
+
+    /**
+     * Binds {@code data} while the body is read, see {@link ProxyResponse#readData}.
+     */
+    static <T> ResponseDecoder<T> data(TypeReference<T> type) {
+        return response -> response.readData(type);
+    }
+
+    /**
+     * Binds {@code data.list} while the body is read, see {@link ProxyResponse#readData}.
+     */
+    static <T> ResponseDecoder<T> dataList(TypeReference<T> type) {
+        return response -> response.readData(type, "list");
+    }
+
+    static ResponseDecoder<byte[]> bytes() {
+        return response -> response.raw().body().bytes();
+    }
+
+}
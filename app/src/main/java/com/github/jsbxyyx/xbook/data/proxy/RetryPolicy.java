@@ -0,0 +1,204 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.data.NetMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries and hedges idempotent proxy calls, give each endpoint its own instance.
+ * <p>
+ * A call failing with an {@link IOException}, a 5xx or a 429 is sent again after an exponential
+ * backoff with full jitter. An answer that does not decode is not, it would decode no better the
+ * next time. A hedged call that has not answered within the p95 of recent answers is
+ * sent a second time over {@link ProxyEndpoint#alternateClient()}, to another edge; the first answer
+ * wins and the other attempt is cancelled.
+ * <p>
+ * Retries and hedges are paid from a budget that every call tops up by a tenth of an attempt, so
+ * they add at most a tenth to the load; when an edge is down for everyone they soon stop.
+ *
+ * @author jsbxyyx
+ */
+public class RetryPolicy implements ProxyInterceptor {
+
+    private static final String TAG = "RetryPolicy";
+
+    private static final long BACKOFF_BASE = 200;
+    private static final long BACKOFF_MAX = 3000;
+    private static final double BUDGET_RATIO = 0.1;
+    private static final double BUDGET_MAX = 10;
+    private static final int SAMPLES = 64;
+    private static final int MIN_SAMPLES = 16;
+    private static final long HEDGE_DEFAULT = 1500;
+    private static final long HEDGE_MIN = 100;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "proxy retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int attempts;
+    private boolean hedge;
+
+    private double budget = BUDGET_MAX;
+    private final long[] latencies = new long[SAMPLES];
+    private int latencyCount;
+
+    private RetryPolicy(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @param attempts how many times a call may be sent in all, hedges included
+     */
+    public static RetryPolicy of(int attempts) {
+        return new RetryPolicy(attempts);
+    }
+
+    public RetryPolicy hedge() {
+        this.hedge = true;
+        return this;
+    }
+
+    @Override
+    public <T> void intercept(ProxyCall<T> call, DataCallback<T> callback, Chain chain) {
+        synchronized (this) {
+            budget = Math.min(BUDGET_MAX, budget + BUDGET_RATIO);
+        }
+        new Attempts<>(call, callback, chain).send(false);
+    }
+
+    private synchronized boolean spend() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    synchronized void record(long millis) {
+        latencies[latencyCount % SAMPLES] = millis;
+        latencyCount++;
+    }
+
+    synchronized long hedgeDelay() {
+        if (latencyCount < MIN_SAMPLES) {
+            return HEDGE_DEFAULT;
+        }
+        long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, SAMPLES));
+        Arrays.sort(sorted);
+        return Math.max(HEDGE_MIN, sorted[(int) (sorted.length * 0.95)]);
+    }
+
+    /**
+     * A random delay of up to the cap for the attempt after {@code tries}, the cap doubling each try.
+     */
+    static long backoff(int tries) {
+        long cap = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(tries - 1, 16));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    static boolean retryable(Throwable err) {
+        if (err instanceof JsonProcessingException) {
+            return false;
+        }
+        if (err instanceof HttpStatusException) {
+            int code = ((HttpStatusException) err).getStatusCode();
+            return code >= 500 || code == 429;
+        }
+        return err instanceof IOException;
+    }
+
+    private class Attempts<T> {
+        final ProxyCall<T> call;
+        final DataCallback<T> callback;
+        final Chain chain;
+        final List<ProxyCall<T>> live = new ArrayList<>();
+        int sent;
+        int inFlight;
+        boolean done;
+
+        Attempts(ProxyCall<T> call, DataCallback<T> callback, Chain chain) {
+            this.call = call;
+            this.callback = callback;
+            this.chain = chain;
+        }
+
+        void send(boolean alternate) {
+            ProxyCall<T> attempt = new ProxyCall<>(call.getEndpoint(), call.getEnvelope(), alternate);
+            boolean more;
+            synchronized (this) {
+                if (done || call.isCanceled()) {
+                    return;
+                }
+                sent++;
+                inFlight++;
+                live.add(attempt);
+                more = sent < attempts;
+            }
+            call.onCancel(attempt::cancel);
+            long start = System.nanoTime();
+            if (hedge && more) {
+                timer.schedule(this::hedge, hedgeDelay(), TimeUnit.MILLISECONDS);
+            }
+            chain.proceed(attempt, (value, err) -> land(attempt, start, value, err));
+        }
+
+        void hedge() {
+            synchronized (this) {
+                if (done || inFlight != 1 || sent >= attempts) {
+                    return;
+                }
+            }
+            if (spend()) {
+                LogUtil.d(TAG, "hedge: %s", call);
+                NetMetrics.hedged(call.getEndpoint().getName());
+                send(true);
+            }
+        }
+
+        void land(ProxyCall<T> attempt, long start, T value, Throwable err) {
+            int tries;
+            List<ProxyCall<T>> losers;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                inFlight--;
+                live.remove(attempt);
+                losers = new ArrayList<>(live);
+                if (err != null && inFlight > 0) {
+                    return;
+                }
+                tries = sent;
+                done = err == null || call.isCanceled() || tries >= attempts || !retryable(err) || !spend();
+            }
+            if (err == null) {
+                record((System.nanoTime() - start) / 1000000);
+                for (ProxyCall<T> loser : losers) {
+                    loser.cancel();
+                }
+            }
+            if (done) {
+                callback.call(value, err);
+                return;
+            }
+            long delay = backoff(tries);
+            LogUtil.d(TAG, "retry %s in %sms: %s", call, delay, err.getMessage());
+            NetMetrics.retried(call.getEndpoint().getName());
+            timer.schedule(() -> send(false), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+}
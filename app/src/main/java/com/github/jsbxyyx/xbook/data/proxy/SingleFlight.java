@@ -0,0 +1,121 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets concurrent calls asking for the same thing, by endpoint and
+ * {@link ProxyEnvelope#cacheKey()}, share one request. The first caller gets the decoded value,
+ * every other one a copy of it decoded again as {@code type}, so callers may change what they get.
+ * A cancelled caller leaves the flight, the request itself is cancelled when the last one leaves.
+ *
+ * @author jsbxyyx
+ */
+public class SingleFlight implements ProxyInterceptor {
+
+    private static final String TAG = "SingleFlight";
+
+    private static final Map<String, Flight<?>> flights = new HashMap<>();
+
+    private final TypeReference<?> type;
+
+    private SingleFlight(TypeReference<?> type) {
+        this.type = type;
+    }
+
+    public static ProxyInterceptor of(TypeReference<?> type) {
+        return new SingleFlight(type);
+    }
+
+    private static class Flight<T> {
+        final ProxyCall<T> call;
+        final List<DataCallback<T>> callbacks = new ArrayList<>();
+
+        Flight(ProxyCall<T> call) {
+            this.call = call;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void intercept(ProxyCall<T> call, DataCallback<T> callback, Chain chain) {
+        String key = call.getEndpoint().getName() + "\n" + call.getEnvelope().cacheKey();
+        Flight<T> flight;
+        boolean leader = false;
+        synchronized (flights) {
+            flight = (Flight<T>) flights.get(key);
+            if (flight == null) {
+                flight = new Flight<>(new ProxyCall<>(call.getEndpoint(), call.getEnvelope()));
+                flights.put(key, flight);
+                leader = true;
+            } else {
+                LogUtil.d(TAG, "join: %s", call);
+            }
+            flight.callbacks.add(callback);
+        }
+        Flight<T> joined = flight;
+        call.onCancel(() -> leave(key, joined, call, callback));
+        if (leader) {
+            chain.proceed(flight.call, (value, err) -> land(key, joined, value, err));
+        }
+    }
+
+    private <T> void land(String key, Flight<T> flight, T value, Throwable err) {
+        List<DataCallback<T>> callbacks;
+        synchronized (flights) {
+            flights.remove(key, flight);
+            callbacks = new ArrayList<>(flight.callbacks);
+            flight.callbacks.clear();
+        }
+        byte[] json = null;
+        if (value != null && callbacks.size() > 1) {
+            try {
+                json = JsonUtil.getMapper().writeValueAsBytes(value);
+            } catch (IOException e) {
+                LogUtil.d(TAG, "encode failed: %s", e.getMessage());
+            }
+        }
+        for (int i = 0; i < callbacks.size(); i++) {
+            callbacks.get(i).call(i == 0 ? value : copy(json, value), err);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T copy(byte[] json, T value) {
+        if (json == null) {
+            return value;
+        }
+        try {
+            return (T) JsonUtil.getMapper().readValue(json, type);
+        } catch (IOException e) {
+            LogUtil.d(TAG, "decode failed: %s", e.getMessage());
+            return value;
+        }
+    }
+
+    private static <T> void leave(String key, Flight<T> flight, ProxyCall<T> call, DataCallback<T> callback) {
+        boolean last;
+        synchronized (flights) {
+            if (!flight.callbacks.remove(callback)) {
+                return;
+            }
+            last = flight.callbacks.isEmpty();
+            if (last) {
+                flights.remove(key, flight);
+            }
+        }
+        if (last) {
+            flight.call.cancel();
+        }
+        callback.call(call.getEndpoint().fallback(), new IOException("Canceled"));
+    }
+
+}
@@ -12,21 +12,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
 
-public class BizHttpServer extends NanoHTTPD {
+import static fi.iki.elonen.NanoHTTPD.MIME_PLAINTEXT;
+import static com.github.jsbxyyx.xbook.httpserver.LocalResponse.newFixedLengthResponse;
 
+public class BizHandler implements HttpHandler {
 
-    private static final String TAG = "BizHttpServer";
+
+    private static final String TAG = "BizHandler";
     private Context mContext;
 
-    public BizHttpServer(int port, Context context) {
-        super(port);
+    public BizHandler(Context context) {
         mContext = context;
     }
 
     @Override
-    public Response serve(IHTTPSession session) {
+    public LocalResponse serve(HttpRequest session) {
         String uri = session.getUri();
         Method method = session.getMethod();
         Map<String, String> header = session.getHeaders();
@@ -38,7 +41,7 @@ public class BizHttpServer extends NanoHTTPD {
         LogUtil.d(TAG, "params=%s", params);
 
         if (method.equals(Method.OPTIONS)) {
-            Response response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "{}");
+            LocalResponse response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "{}");
             HttpServerUtils.cors(session, response);
             return response;
         }
@@ -53,7 +56,7 @@ public class BizHttpServer extends NanoHTTPD {
                 map.put("uid", uid);
                 String json = JsonUtil.toJson(map);
 
-                Response response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, json);
+                LocalResponse response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, json);
                 HttpServerUtils.cors(session, response);
                 return response;
             }
@@ -66,13 +69,13 @@ public class BizHttpServer extends NanoHTTPD {
                 map.put("vn", vn);
                 String json = JsonUtil.toJson(map);
 
-                Response response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, json);
+                LocalResponse response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, json);
                 HttpServerUtils.cors(session, response);
                 return response;
             }
 
         }
-        Response response = newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "{}");
+        LocalResponse response = newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "{}");
         HttpServerUtils.cors(session, response);
         return response;
     }
@@ -0,0 +1,96 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single satisfiable byte range of a representation, inclusive on both ends.
+ *
+ * @author jsbxyyx
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    public String toContentRange(long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     * Parse a {@code Range} header against a representation of {@code total} bytes.
+     *
+     * @return {@code null} when the header is malformed and must be ignored, otherwise the
+     * satisfiable ranges in request order (empty when none of them can be satisfied).
+     */
+    public static List<ByteRange> parse(String header, long total) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : header.substring(BYTES_UNIT.length()).split(",")) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            try {
+                if (first.isEmpty()) {
+                    // suffix range: the last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    if (suffix > 0 && total > 0) {
+                        ranges.add(new ByteRange(Math.max(0, total - suffix), total - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) {
+                        return null;
+                    }
+                    if (start < total) {
+                        ranges.add(new ByteRange(start, Math.min(end, total - 1)));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRange{" +
+                "start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
@@ -0,0 +1,414 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+/**
+ * Paged directory listing, as JSON or HTML, written entry by entry into a chunked response.
+ * <p>
+ * A directory is scanned once into a snapshot (one attribute read per entry) that is reused for
+ * {@link #SNAPSHOT_TTL} ms while the directory's own modification time is unchanged, so paging
+ * and re-sorting a large library does not stat it again.
+ * <p>
+ * Query: {@code format=json|html} (default from Accept), {@code sort=name|size|modified},
+ * {@code order=asc|desc}, {@code offset}, {@code limit}.
+ *
+ * @author jsbxyyx
+ */
+public class DirectoryIndex {
+
+    private static final String TAG = "DirectoryIndex";
+    private static final String MIME_JSON = "application/json";
+    private static final long SNAPSHOT_TTL = 3000L;
+    private static final int MAX_SNAPSHOTS = 8;
+    private static final int DEFAULT_LIMIT = 200;
+    private static final int MAX_LIMIT = 1000;
+    /**
+     * Entries rendered per refill of the response stream.
+     */
+    private static final int BATCH = 32;
+
+    private static final Map<String, Snapshot> SNAPSHOTS = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+    public static LocalResponse list(HttpRequest session, File dir, String uri) throws IOException {
+        Map<String, String> params = session.getParms();
+        String sort = params.get("sort");
+        if (!"size".equals(sort) && !"modified".equals(sort)) {
+            sort = "name";
+        }
+        boolean desc = "desc".equals(params.get("order"));
+        Entry[] entries = snapshot(dir).sorted(sort);
+        int offset = clamp(params.get("offset"), 0, 0, entries.length);
+        int limit = clamp(params.get("limit"), DEFAULT_LIMIT, 1, MAX_LIMIT);
+        Page page = new Page(uri.endsWith("/") ? uri : uri + "/", entries, desc, offset, limit, sort);
+
+        String format = params.get("format");
+        if (format == null) {
+            String accept = session.getHeaders().get("accept");
+            format = accept != null && accept.contains(MIME_JSON) ? "json" : "html";
+        }
+        LogUtil.d(TAG, "list %s %s sort=%s desc=%s offset=%s limit=%s total=%s",
+                dir.getPath(), format, sort, desc, offset, limit, entries.length);
+        String mimeType = "json".equals(format) ? MIME_JSON + "; charset=utf-8" : NanoHTTPD.MIME_HTML + "; charset=utf-8";
+        LocalResponse response;
+        if (session.getMethod() == NanoHTTPD.Method.HEAD) {
+            // NanoHTTPD would write the chunked body anyway, after a Content-Length of -1
+            response = LocalResponse.newFixedLengthResponse(Response.Status.OK, mimeType, "");
+        } else {
+            InputStream data = "json".equals(format) ? new JsonStream(page) : new HtmlStream(page);
+            response = LocalResponse.newChunkedResponse(Response.Status.OK, mimeType, data);
+        }
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
+    }
+
+    private static int clamp(String value, int def, int min, int max) {
+        int n = def;
+        if (!Common.isBlank(value)) {
+            try {
+                n = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                n = def;
+            }
+        }
+        return Math.max(min, Math.min(max, n));
+    }
+
+    static Snapshot snapshot(File dir) throws IOException {
+        String key = dir.getPath();
+        long now = System.currentTimeMillis();
+        long modified = dir.lastModified();
+        synchronized (SNAPSHOTS) {
+            Snapshot snapshot = SNAPSHOTS.get(key);
+            if (snapshot != null && snapshot.modified == modified && now - snapshot.taken < SNAPSHOT_TTL) {
+                return snapshot;
+            }
+        }
+        Snapshot snapshot = new Snapshot(scan(dir.toPath()), modified, now);
+        synchronized (SNAPSHOTS) {
+            SNAPSHOTS.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    private static Entry[] scan(Path dir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.add(new Entry(path.getFileName().toString(), attrs.isDirectory(),
+                            attrs.size(), attrs.lastModifiedTime().toMillis()));
+                } catch (IOException e) {
+                    // deleted while scanning
+                    LogUtil.d(TAG, "attrs %s : %s", path, e.getMessage());
+                }
+            }
+        }
+        return entries.toArray(new Entry[0]);
+    }
+
+    static class Entry {
+        final String name;
+        final boolean directory;
+        final long size;
+        final long modified;
+
+        Entry(String name, boolean directory, long size, long modified) {
+            this.name = name;
+            this.directory = directory;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    static class Snapshot {
+        private static final Comparator<Entry> BY_NAME = (a, b) -> a.name.compareToIgnoreCase(b.name);
+
+        final Entry[] entries;
+        final long modified;
+        final long taken;
+        /**
+         * Ascending orders sorted so far, descending pages read them backwards.
+         */
+        private final Map<String, Entry[]> sorted = new HashMap<>();
+
+        Snapshot(Entry[] entries, long modified, long taken) {
+            this.entries = entries;
+            this.modified = modified;
+            this.taken = taken;
+        }
+
+        synchronized Entry[] sorted(String sort) {
+            Entry[] result = sorted.get(sort);
+            if (result == null) {
+                Comparator<Entry> comparator;
+                if ("size".equals(sort)) {
+                    comparator = Comparator.<Entry>comparingLong(e -> e.size).thenComparing(BY_NAME);
+                } else if ("modified".equals(sort)) {
+                    comparator = Comparator.<Entry>comparingLong(e -> e.modified).thenComparing(BY_NAME);
+                } else {
+                    comparator = BY_NAME;
+                }
+                result = entries.clone();
+                // directories first in every order
+                Arrays.sort(result, Comparator.<Entry, Boolean>comparing(e -> !e.directory).thenComparing(comparator));
+                sorted.put(sort, result);
+            }
+            return result;
+        }
+    }
+
+    private static class Page {
+        final String uri;
+        final Entry[] entries;
+        final boolean desc;
+        final int offset;
+        final int end;
+        final int limit;
+        final String sort;
+        private final int dirs;
+
+        Page(String uri, Entry[] entries, boolean desc, int offset, int limit, String sort) {
+            this.uri = uri;
+            this.entries = entries;
+            this.desc = desc;
+            this.offset = offset;
+            this.limit = limit;
+            this.end = (int) Math.min(entries.length, (long) offset + limit);
+            this.sort = sort;
+            int d = 0;
+            while (d < entries.length && entries[d].directory) {
+                d++;
+            }
+            this.dirs = d;
+        }
+
+        Entry get(int i) {
+            if (!desc) {
+                return entries[i];
+            }
+            // keep directories first when reversing
+            return i < dirs ? entries[dirs - 1 - i] : entries[entries.length - 1 - (i - dirs)];
+        }
+
+        String href(Entry entry) {
+            StringBuilder sb = new StringBuilder();
+            for (String segment : uri.split("/")) {
+                if (!segment.isEmpty()) {
+                    sb.append('/').append(Common.urlEncode(segment));
+                }
+            }
+            sb.append('/').append(Common.urlEncode(entry.name));
+            if (entry.directory) {
+                sb.append('/');
+            }
+            return sb.toString();
+        }
+
+        String pageHref(int offset) {
+            return "?sort=" + sort + "&order=" + (desc ? "desc" : "asc") + "&offset=" + offset + "&limit=" + limit;
+        }
+    }
+
+    /**
+     * Renders a page lazily: every time the reader drains the buffer the next {@link #BATCH}
+     * entries are written into it.
+     */
+    private abstract static class PageStream extends InputStream {
+        final Page page;
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream(8 * 1024);
+        int next;
+        private byte[] buf = new byte[0];
+        private int pos;
+        private boolean done;
+
+        PageStream(Page page) {
+            this.page = page;
+            this.next = page.offset;
+        }
+
+        abstract void begin() throws IOException;
+
+        abstract void entry(Entry entry) throws IOException;
+
+        abstract void end() throws IOException;
+
+        void flush() throws IOException {
+        }
+
+        private boolean refill() throws IOException {
+            while (pos == buf.length) {
+                if (done) {
+                    return false;
+                }
+                sink.reset();
+                if (next == page.offset) {
+                    begin();
+                }
+                for (int n = 0; n < BATCH && next < page.end; n++) {
+                    entry(page.get(next++));
+                }
+                if (next >= page.end) {
+                    end();
+                    done = true;
+                }
+                flush();
+                buf = sink.toByteArray();
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return refill() ? buf[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!refill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    private static class JsonStream extends PageStream {
+        private final JsonGenerator gen;
+
+        JsonStream(Page page) throws IOException {
+            super(page);
+            gen = JsonUtil.getMapper().getFactory().createGenerator(sink);
+        }
+
+        @Override
+        void begin() throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("path", page.uri);
+            gen.writeNumberField("total", page.entries.length);
+            gen.writeNumberField("offset", page.offset);
+            gen.writeNumberField("limit", page.limit);
+            gen.writeArrayFieldStart("entries");
+        }
+
+        @Override
+        void entry(Entry entry) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("name", entry.name);
+            gen.writeStringField("href", page.href(entry));
+            gen.writeBooleanField("directory", entry.directory);
+            gen.writeNumberField("size", entry.size);
+            gen.writeNumberField("modified", entry.modified);
+            gen.writeEndObject();
+        }
+
+        @Override
+        void end() throws IOException {
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+
+        @Override
+        void flush() throws IOException {
+            gen.flush();
+        }
+    }
+
+    private static class HtmlStream extends PageStream {
+
+        HtmlStream(Page page) {
+            super(page);
+        }
+
+        private void write(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            sink.write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        void begin() {
+            write("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">"
+                    + "<title>HTTP File Browser</title></head><body>");
+        }
+
+        @Override
+        void entry(Entry entry) {
+            String name = escape(entry.name) + (entry.directory ? "/" : "");
+            write("<a href=\"" + escape(page.href(entry)) + "\">" + name + "</a><br>");
+        }
+
+        @Override
+        void end() {
+            StringBuilder sb = new StringBuilder("<p>");
+            if (page.offset > 0) {
+                sb.append("<a href=\"").append(escape(page.pageHref(Math.max(0, page.offset - page.limit))))
+                        .append("\">prev</a> ");
+            }
+            sb.append(page.offset).append('-').append(page.end).append(" / ").append(page.entries.length);
+            if (page.end < page.entries.length) {
+                sb.append(" <a href=\"").append(escape(page.pageHref(page.end))).append("\">next</a>");
+            }
+            sb.append("</p></body></html>");
+            write(sb.toString());
+        }
+
+        private static String escape(String s) {
+            StringBuilder sb = new StringBuilder(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '<':
+                        sb.append("&lt;");
+                        break;
+                    case '>':
+                        sb.append("&gt;");
+                        break;
+                    case '&':
+                        sb.append("&amp;");
+                        break;
+                    case '"':
+                        sb.append("&quot;");
+                        break;
+                    default:
+                        sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+import com.github.jsbxyyx.xbook.common.XorCodec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Response whose body is a region of an already opened {@link FileChannel}.
+ * <p>
+ * {@link NioHttpServer} writes it without going through {@link #send}: plain files are pushed
+ * with {@link FileChannel#transferTo} straight into the socket, MAGIC files are read into a
+ * pooled direct buffer and XOR decoded in place.
+ *
+ * @author jsbxyyx
+ */
+public class FileChannelResponse extends LocalResponse {
+
+    private static final String TAG = "FileChannelResponse";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ArrayBlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(4);
+
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+    private final boolean xor;
+    private final byte number;
+
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private boolean keepAlive = true;
+
+    public FileChannelResponse(IStatus status, String mimeType, FileChannel channel,
+                               long position, long length, boolean xor, byte number) {
+        super(status, mimeType, null, length);
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+        this.xor = xor;
+        this.number = number;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        headers.put(name, value);
+    }
+
+    @Override
+    public void setKeepAlive(boolean useKeepAlive) {
+        super.setKeepAlive(useKeepAlive);
+        this.keepAlive = useKeepAlive;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    boolean isXor() {
+        return xor;
+    }
+
+    /**
+     * Status line and headers, including the blank line that ends them.
+     */
+    byte[] head() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("HTTP/1.1 ").append(getStatus().getDescription()).append(" \r\n");
+        if (getMimeType() != null) {
+            sb.append("Content-Type: ").append(getMimeType()).append("\r\n");
+        }
+        if (getHeader("date") == null) {
+            sb.append("Date: ").append(HttpServerUtils.httpDate(System.currentTimeMillis())).append("\r\n");
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        }
+        if (getHeader("connection") == null) {
+            sb.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        }
+        sb.append("Content-Length: ").append(length).append("\r\n\r\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Plain files only: move body bytes from {@code done} on into {@code target}.
+     *
+     * @return bytes moved, 0 when a non-blocking target is full.
+     */
+    long transfer(long done, WritableByteChannel target) throws IOException {
+        return channel.transferTo(position + done, length - done, target);
+    }
+
+    /**
+     * Read the next body chunk from {@code done} on into {@code buf} and decode it, leaving
+     * {@code buf} ready to be written.
+     *
+     * @return bytes read from the file.
+     */
+    int fill(ByteBuffer buf, long done) throws IOException {
+        buf.clear();
+        if (length - done < buf.capacity()) {
+            buf.limit((int) (length - done));
+        }
+        int n = channel.read(buf, position + done);
+        if (n < 0) {
+            throw new EOFException("unexpected end of file at " + (position + done));
+        }
+        buf.flip();
+        if (xor) {
+            XorCodec.xor(buf, number);
+        }
+        return n;
+    }
+
+    @Override
+    protected void send(OutputStream outputStream) {
+        try {
+            outputStream.write(head());
+            if (getRequestMethod() != NanoHTTPD.Method.HEAD) {
+                byte[] bytes = new byte[BUFFER_SIZE];
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                long done = 0;
+                while (done < length) {
+                    int n = fill(buf, done);
+                    outputStream.write(bytes, 0, n);
+                    done += n;
+                }
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            LogUtil.d(TAG, "send: %s", e.getMessage());
+        } finally {
+            closeChannel();
+        }
+    }
+
+    static ByteBuffer acquire() {
+        ByteBuffer buf = BUFFERS.poll();
+        return buf != null ? buf : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    static void release(ByteBuffer buf) {
+        buf.clear();
+        BUFFERS.offer(buf);
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeChannel();
+    }
+
+}
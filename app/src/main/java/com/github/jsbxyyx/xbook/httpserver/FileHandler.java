@@ -0,0 +1,342 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import com.github.jsbxyyx.xbook.BuildConfig;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import static fi.iki.elonen.NanoHTTPD.MIME_HTML;
+import static fi.iki.elonen.NanoHTTPD.MIME_PLAINTEXT;
+import static com.github.jsbxyyx.xbook.httpserver.LocalResponse.newFixedLengthResponse;
+
+/**
+ * Books under {@link Common#xbook_dir} and the reader assets under /www/, both below a base path
+ * the pages are given, see {@link LocalHttpServer#getFileUrl()}.
+ *
+ * @author jsbxyyx
+ */
+public class FileHandler implements HttpHandler {
+    private static final String TAG = "FileHandler";
+    private static final String WWW = "/www/";
+    private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String CACHE_REVALIDATE = "no-cache";
+    private static final String GZIP_SUFFIX = ".gz";
+    private final String base;
+    private AssetManager assetManager;
+    private long assetModified;
+    private String assetEtag;
+
+    /**
+     * @param base path every request has to start with, without the trailing slash
+     */
+    public FileHandler(Context context, String base) {
+        this.base = base;
+        this.assetManager = context.getAssets();
+        // assets only change with the apk, so the install time validates all of them
+        try {
+            assetModified = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            assetModified = 0L;
+        }
+        assetEtag = "\"" + BuildConfig.VERSION_CODE + "-" + Long.toHexString(assetModified) + "\"";
+    }
+
+    @Override
+    public LocalResponse serve(HttpRequest session) {
+        String uri = session.getUri();
+        Method method = session.getMethod();
+        Map<String, String> header = session.getHeaders();
+        Map<String, List<String>> params = session.getParameters();
+        String answer = "Success!";
+        LogUtil.d(TAG, "uri=%s", uri);
+        LogUtil.d(TAG, "method=%s", method);
+        LogUtil.d(TAG, "header=%s", header);
+        LogUtil.d(TAG, "params=%s", params);
+
+        if (method.equals(Method.OPTIONS)) {
+            LocalResponse response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "");
+            HttpServerUtils.cors(session, response);
+            return response;
+        }
+
+        if (!uri.startsWith(base + "/")) {
+            LocalResponse response = newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found");
+            HttpServerUtils.cors(session, response);
+            return response;
+        }
+        uri = uri.substring(base.length());
+
+        if (method.equals(Method.GET) || method.equals(Method.HEAD)) {
+            // reader assets are requested as /www/<versionCode>/..., the version only keys the cache
+            String cacheControl = CACHE_REVALIDATE;
+            String path = stripVersion(uri);
+            if (path != null) {
+                uri = path;
+                cacheControl = CACHE_IMMUTABLE;
+            }
+            if (uri.startsWith(WWW)) {
+                LocalResponse response;
+                try {
+                    response = serveAsset(session, uri.substring(1), cacheControl);
+                } catch (IOException e) {
+                    LogUtil.d(TAG, "asset %s : %s", uri, e.getMessage());
+                    response = newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_HTML, "Not Found");
+                }
+                HttpServerUtils.cors(session, response);
+                return response;
+            }
+            File rootFile = new File(Common.xbook_dir);
+            rootFile = new File(rootFile + uri);
+            if (!inside(new File(Common.xbook_dir), rootFile)) {
+                LocalResponse response = newFixedLengthResponse(Response.Status.FORBIDDEN, MIME_PLAINTEXT, "Forbidden");
+                HttpServerUtils.cors(session, response);
+                return response;
+            }
+            if (!rootFile.exists()) {
+                return newFixedLengthResponse("Error! No such file or directory");
+            }
+            if (rootFile.isDirectory()) {
+                LocalResponse response;
+                try {
+                    response = DirectoryIndex.list(session, rootFile, base + uri);
+                } catch (IOException e) {
+                    LogUtil.e(TAG, "list %s : %s", rootFile.getPath(), e.getMessage());
+                    response = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "SERVER INTERNAL ERROR");
+                }
+                HttpServerUtils.cors(session, response);
+                return response;
+            } else {
+                try {
+                    LocalResponse response = serveFile(session, rootFile, cacheControl);
+                    HttpServerUtils.cors(session, response);
+                    return response;
+                } catch (Exception e) {
+                    LogUtil.e(TAG, "%s", LogUtil.getStackTraceString(e));
+                }
+                LocalResponse response = newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_HTML, "Not Found");
+                HttpServerUtils.cors(session, response);
+                return response;
+            }
+        }
+        LocalResponse response = newFixedLengthResponse(answer);
+        HttpServerUtils.cors(session, response);
+        return response;
+    }
+
+    /**
+     * Whether {@code file} resolves to {@code root} or below it, so .. cannot leave the root.
+     */
+    static boolean inside(File root, File file) {
+        try {
+            String r = root.getCanonicalPath();
+            String f = file.getCanonicalPath();
+            return f.equals(r) || f.startsWith(r + File.separator);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String stripVersion(String uri) {
+        if (!uri.startsWith(WWW)) {
+            return null;
+        }
+        int slash = uri.indexOf('/', WWW.length());
+        if (slash == WWW.length() || slash < 0) {
+            return null;
+        }
+        for (int i = WWW.length(); i < slash; i++) {
+            if (!Character.isDigit(uri.charAt(i))) {
+                return null;
+            }
+        }
+        return WWW + uri.substring(slash + 1);
+    }
+
+    /**
+     * Reader assets straight from the apk. Entries stored uncompressed (the .gz variants) are
+     * sent from their file descriptor region, compressed ones are inflated by AssetManager.
+     * Ranges are not offered for assets.
+     */
+    private LocalResponse serveAsset(HttpRequest session, String path, String cacheControl) throws IOException {
+        Map<String, String> header = session.getHeaders();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        String mimeType = MediaTypeFactory.getMediaTypes(name, "application/octet-stream");
+        AssetFileDescriptor gz = openAssetFd(path + GZIP_SUFFIX);
+        boolean negotiated = gz != null;
+        boolean gzip = negotiated && HttpServerUtils.acceptsGzip(header.get("accept-encoding"));
+        if (negotiated && !gzip) {
+            gz.close();
+        }
+
+        String etag = gzip ? assetEtag.substring(0, assetEtag.length() - 1) + "-gzip\"" : assetEtag;
+        LocalResponse response;
+        if (HttpServerUtils.notModified(header, etag, assetModified)) {
+            if (gzip) {
+                gz.close();
+            }
+            response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, "");
+        } else if (gzip) {
+            response = assetResponse(gz, mimeType);
+            response.addHeader("Content-Encoding", "gzip");
+        } else {
+            AssetFileDescriptor fd = openAssetFd(path);
+            if (fd != null) {
+                response = assetResponse(fd, mimeType);
+            } else {
+                InputStream in = assetManager.open(path);
+                response = newFixedLengthResponse(Response.Status.OK, mimeType, in, in.available());
+            }
+        }
+        response.addHeader("ETag", etag);
+        response.addHeader("Last-Modified", HttpServerUtils.httpDate(assetModified));
+        response.addHeader("Cache-Control", cacheControl);
+        if (negotiated) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+        return response;
+    }
+
+    private AssetFileDescriptor openAssetFd(String path) {
+        try {
+            return assetManager.openFd(path);
+        } catch (FileNotFoundException e) {
+            // missing, or compressed in the apk
+            return null;
+        } catch (IOException e) {
+            LogUtil.d(TAG, "openFd %s : %s", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private LocalResponse assetResponse(AssetFileDescriptor fd, String mimeType) throws IOException {
+        // closing the channel closes the stream, which closes the descriptor
+        FileChannel channel = fd.createInputStream().getChannel();
+        return new FileChannelResponse(Response.Status.OK, mimeType, channel,
+                fd.getStartOffset(), fd.getLength(), false, (byte) 0);
+    }
+
+    private LocalResponse serveFile(HttpRequest session, File file, String cacheControl) throws IOException {
+        Map<String, String> header = session.getHeaders();
+        String etag = HttpServerUtils.etag(file);
+        long modified = file.lastModified();
+        String lastModified = HttpServerUtils.httpDate(modified);
+        LocalResponse response;
+        if (HttpServerUtils.notModified(header, etag, modified)) {
+            LogUtil.d(TAG, "not modified : %s", file.getName());
+            response = newFixedLengthResponse(Response.Status.NOT_MODIFIED, null, "");
+            response.addHeader("ETag", etag);
+            response.addHeader("Last-Modified", lastModified);
+        } else {
+            response = serveSource(session, file, etag, lastModified);
+        }
+        response.addHeader("Cache-Control", cacheControl);
+        return response;
+    }
+
+    private LocalResponse serveSource(HttpRequest session, File file,
+                                 String etag, String lastModified) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath());
+        try {
+            LocalResponse response = serveChannel(session, file.getName(), channel, etag, lastModified);
+            if (!(response instanceof FileChannelResponse)) {
+                channel.close();
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static LocalResponse serveChannel(HttpRequest session, String name, FileChannel channel,
+                                      String etag, String lastModified) throws IOException {
+        long totalBytes = channel.size();
+        long offset = 0L;
+        int xor = -1;
+        if (name.endsWith(".js")
+                || name.endsWith(".css")
+                || name.endsWith(".htm")
+                || name.endsWith(".html") || name.endsWith(".htm")
+                || name.endsWith(".bcmap")) {
+            LogUtil.d(TAG, "ignore : %s", name);
+        } else {
+            ByteBuffer head = ByteBuffer.allocate(8);
+            channel.read(head, 0);
+            head.flip();
+            if (head.remaining() == 8) {
+                long m = head.getLong() ^ Common.MG_XOR;
+                if (m == Common.MAGIC) {
+                    xor = 1;
+                    LogUtil.d(TAG, "mg x");
+                } else if (m == (Common.MAGIC ^ Common.MG_XOR)) {
+                    xor = 0;
+                    LogUtil.d(TAG, "mg nx");
+                }
+            }
+            if (xor != -1) {
+                offset = 8;
+                totalBytes -= 8;
+            } else {
+                LogUtil.d(TAG, "mg n");
+            }
+        }
+        LogUtil.d(TAG, "%s bytes : %s", name, totalBytes);
+
+        String mimeType = MediaTypeFactory.getMediaTypes(name, "application/octet-stream");
+
+        Map<String, String> header = session.getHeaders();
+        ByteRange range = null;
+        if (header.containsKey("range")
+                && HttpServerUtils.ifRangeMatches(header.get("if-range"), etag, lastModified)) {
+            List<ByteRange> ranges = ByteRange.parse(header.get("range"), totalBytes);
+            if (ranges != null && ranges.isEmpty()) {
+                LogUtil.d(TAG, "range not satisfiable : %s", header.get("range"));
+                LocalResponse response = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
+                response.addHeader("Content-Range", "bytes */" + totalBytes);
+                response.addHeader("Accept-Ranges", "bytes");
+                return response;
+            }
+            // several ranges would need multipart/byteranges, which we do not produce, the full body is sent
+            if (ranges != null && ranges.size() == 1) {
+                range = ranges.get(0);
+            }
+        }
+
+        long start = range == null ? 0L : range.getStart();
+        long length = range == null ? totalBytes : range.getLength();
+        FileChannelResponse response = new FileChannelResponse(
+                range == null ? Response.Status.OK : Response.Status.PARTIAL_CONTENT,
+                mimeType,
+                channel,
+                offset + start,
+                length,
+                xor == 1,
+                Common.MG_XOR);
+        if (range != null) {
+            LogUtil.d(TAG, "%s range : %s", name, range);
+            response.addHeader("Content-Range", range.toContentRange(totalBytes));
+        }
+        response.addHeader("Accept-Ranges", "bytes");
+        response.addHeader("ETag", etag);
+        response.addHeader("Last-Modified", lastModified);
+        return response;
+    }
+
+}
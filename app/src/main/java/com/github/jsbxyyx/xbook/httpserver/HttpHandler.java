@@ -0,0 +1,12 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+/**
+ * A group of routes mounted on {@link LocalHttpServer}.
+ *
+ * @author jsbxyyx
+ */
+public interface HttpHandler {
+
+    LocalResponse serve(HttpRequest session);
+
+}
@@ -0,0 +1,37 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * What a {@link HttpHandler} gets to see of a request. Header names are lower case, as with
+ * NanoHTTPD.
+ *
+ * @author jsbxyyx
+ */
+public interface HttpRequest {
+
+    NanoHTTPD.Method getMethod();
+
+    /**
+     * The path, percent decoded, without the query.
+     */
+    String getUri();
+
+    Map<String, String> getHeaders();
+
+    Map<String, List<String>> getParameters();
+
+    /**
+     * The first value of each query parameter.
+     */
+    Map<String, String> getParms();
+
+    InputStream getInputStream();
+
+    String getRemoteIpAddress();
+
+}
@@ -2,19 +2,153 @@ package com.github.jsbxyyx.xbook.httpserver;
 
 import com.github.jsbxyyx.xbook.common.Common;
 
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArraySet;
+
 import fi.iki.elonen.NanoHTTPD;
 
 public class HttpServerUtils {
 
-    public static void cors(NanoHTTPD.IHTTPSession session, NanoHTTPD.Response response) {
+    /**
+     * Pages allowed to read the loopback servers: the online reader, and the pages of the proxy
+     * host shown in GeckoWebViewActivity. The servers' own origins are added as they bind.
+     */
+    private static final Set<String> ORIGINS = new CopyOnWriteArraySet<>(Arrays.asList(
+            "https://xxzkid.github.io",
+            "https://" + Common.host));
+
+    static void allowOrigin(String origin) {
+        ORIGINS.add(origin);
+    }
+
+    public static boolean allowedOrigin(String origin) {
+        return origin != null && ORIGINS.contains(origin);
+    }
+
+    /**
+     * CORS headers for {@code session}. Only an allowed {@code Origin} is answered with
+     * {@code Access-Control-Allow-Origin}, any other page cannot read the response.
+     */
+    public static void cors(HttpRequest session, NanoHTTPD.Response response) {
         String origin = session.getHeaders().get("origin");
-        response.addHeader("Access-Control-Allow-Origin", Common.isBlank(origin) ? "*" : origin);
-        response.addHeader("Access-Control-Allow-Credentials", "true");
+        if (allowedOrigin(origin)) {
+            response.addHeader("Access-Control-Allow-Origin", origin);
+            response.addHeader("Access-Control-Allow-Credentials", "true");
+        }
         response.addHeader("Access-Control-Max-Age", "86400");
-        response.addHeader("Access-Control-Expose-Headers", "tk");
-        response.addHeader("Access-Control-Allow-Headers", "tk, Content-Type, X-Requested-With");
+        response.addHeader("Access-Control-Expose-Headers", "tk, Accept-Ranges, Content-Range, Content-Length, ETag, Last-Modified");
+        response.addHeader("Access-Control-Allow-Headers", "tk, Content-Type, X-Requested-With, Range, If-Range, If-None-Match, If-Modified-Since");
         response.addHeader("Access-Control-Allow-Methods", "HEAD, POST, GET, PUT, DELETE, OPTIONS");
-        response.addHeader("Vary", "Origin, Access-Control-Request-Method, Access-Control-Request-Headers");
+        String vary = response.getHeader("vary");
+        response.addHeader("Vary", (vary == null ? "" : vary + ", ")
+                + "Origin, Access-Control-Request-Method, Access-Control-Request-Headers");
+    }
+
+    /**
+     * Strong validator derived from size and modification time.
+     */
+    public static String etag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    public static String httpDate(long millis) {
+        return httpDateFormat().format(new Date(millis));
+    }
+
+    /**
+     * @return epoch millis, or -1 when the value is missing or unparsable.
+     */
+    public static long parseHttpDate(String value) {
+        if (Common.isBlank(value)) {
+            return -1;
+        }
+        try {
+            return httpDateFormat().parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    private static SimpleDateFormat httpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} value allows gzip, honouring {@code q=0}.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (Common.isBlank(acceptEncoding)) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(name) && !"*".equals(name)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Float.parseFloat(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Conditional GET: {@code If-None-Match} wins over {@code If-Modified-Since} when both
+     * are present. HTTP dates only carry seconds, so the comparison is done in seconds.
+     */
+    public static boolean notModified(Map<String, String> header, String etag, long lastModified) {
+        String ifNoneMatch = header.get("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if ("*".equals(tag) || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        long since = parseHttpDate(header.get("if-modified-since"));
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * A range request is only honoured when its {@code If-Range} validator (if any) still
+     * matches the current representation, otherwise the full body must be sent.
+     */
+    public static boolean ifRangeMatches(String ifRange, String etag, String lastModified) {
+        if (Common.isBlank(ifRange)) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        return ifRange.equals(lastModified);
     }
 
 }
@@ -0,0 +1,145 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import android.content.Context;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The loopback servers of the process, sharing one worker pool and both served by
+ * {@link NioHttpServer}. The biz routes answer on their fixed port. Books, the reader assets and
+ * {@code /metrics} are on an ephemeral port below a random token made per process, so only the
+ * pages handed {@link #getFileUrl()} can reach them.
+ *
+ * @author jsbxyyx
+ */
+public class LocalHttpServer {
+
+    private static final String TAG = "LocalHttpServer";
+    private static final String HOST = "127.0.0.1";
+    /**
+     * Pages opened in GeckoWebViewActivity call the biz routes on this port, so it is tried
+     * first and an ephemeral port is only used when it is taken.
+     */
+    private static final int PREFERRED_PORT = 5201;
+    /**
+     * Handlers and the bodies they write run here, a slow reader holds one until its body is out.
+     */
+    private static final int WORKERS = 8;
+
+    private static volatile LocalHttpServer instance;
+
+    private final String base = "/" + token();
+    private NioHttpServer biz;
+    private NioHttpServer files;
+
+    private LocalHttpServer() {
+    }
+
+    /**
+     * The servers, started on first use. Servers that could not bind are not kept, the next call
+     * tries again.
+     *
+     * @throws IOException when a server could bind neither its preferred nor an ephemeral port
+     */
+    public static LocalHttpServer get(Context context) throws IOException {
+        if (instance == null) {
+            synchronized (LocalHttpServer.class) {
+                if (instance == null) {
+                    LocalHttpServer localHttpServer = new LocalHttpServer();
+                    localHttpServer.start(context.getApplicationContext());
+                    instance = localHttpServer;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static String token() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Every path {@link BizHandler} answers, and nothing else.
+     */
+    static Router bizRouter(BizHandler bizHandler) {
+        return new Router()
+                .mount("/suid", bizHandler)
+                .mount("/versions", bizHandler);
+    }
+
+    /**
+     * The file handler and {@link MetricsHandler} below {@code base}.
+     */
+    static Router fileRouter(String base, HttpHandler fileHandler) {
+        return new Router()
+                .mountExact(base + "/metrics", new MetricsHandler())
+                .mount(base + "/", fileHandler);
+    }
+
+    private void start(Context context) throws IOException {
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS,
+                30000, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "httpd #" + count.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        workers.allowCoreThreadTimeOut(true);
+        try {
+            biz = bind(bizRouter(new BizHandler(context)), workers, PREFERRED_PORT, 0);
+            try {
+                files = bind(fileRouter(base, new FileHandler(context, base)), workers, 0);
+            } catch (IOException e) {
+                biz.stop();
+                throw e;
+            }
+        } catch (IOException e) {
+            workers.shutdown();
+            throw e;
+        }
+        HttpServerUtils.allowOrigin("http://" + HOST + ":" + files.getListeningPort());
+        LogUtil.d(TAG, "biz on %s, files on %s", biz.getListeningPort(), getFileUrl());
+    }
+
+    private static NioHttpServer bind(Router router, ThreadPoolExecutor workers, int... ports) throws IOException {
+        IOException failure = null;
+        for (int port : ports) {
+            NioHttpServer candidate = new NioHttpServer(HOST, port, router, workers);
+            try {
+                candidate.start();
+                return candidate;
+            } catch (IOException e) {
+                LogUtil.e(TAG, "start on %s: %s", port, e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Where books and the reader assets are served, {@code /<path>} is appended to it.
+     */
+    public String getFileUrl() {
+        return "http://" + HOST + ":" + files.getListeningPort() + base;
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A response {@link NioHttpServer} can write. NanoHTTPD keeps the serializer of its responses to
+ * itself, a subclass may call it, so handlers build theirs with the factories here, which mirror
+ * those of NanoHTTPD.
+ *
+ * @author jsbxyyx
+ */
+public class LocalResponse extends NanoHTTPD.Response {
+
+    private static final Pattern CHARSET = Pattern.compile("(;\\s*charset=)([^;\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    protected LocalResponse(IStatus status, String mimeType, InputStream data, long totalBytes) {
+        super(status, mimeType, data, totalBytes);
+    }
+
+    public static LocalResponse newFixedLengthResponse(String msg) {
+        return newFixedLengthResponse(Status.OK, NanoHTTPD.MIME_HTML, msg);
+    }
+
+    /**
+     * {@code txt} in the charset of {@code mimeType}, UTF-8 when that one cannot encode it.
+     */
+    public static LocalResponse newFixedLengthResponse(IStatus status, String mimeType, String txt) {
+        if (txt == null) {
+            return newFixedLengthResponse(status, mimeType, new ByteArrayInputStream(new byte[0]), 0);
+        }
+        Charset charset = StandardCharsets.US_ASCII;
+        Matcher m = CHARSET.matcher(mimeType == null ? "" : mimeType);
+        if (m.find()) {
+            try {
+                charset = Charset.forName(m.group(2));
+            } catch (IllegalArgumentException e) {
+                charset = null;
+            }
+        }
+        if (charset == null || !charset.newEncoder().canEncode(txt)) {
+            charset = StandardCharsets.UTF_8;
+            mimeType = m.find(0) ? m.replaceFirst("$1UTF-8")
+                    : (mimeType == null ? NanoHTTPD.MIME_PLAINTEXT : mimeType) + "; charset=UTF-8";
+        }
+        byte[] bytes = txt.getBytes(charset);
+        return newFixedLengthResponse(status, mimeType, new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    public static LocalResponse newFixedLengthResponse(IStatus status, String mimeType, InputStream data, long totalBytes) {
+        return new LocalResponse(status, mimeType, data, totalBytes);
+    }
+
+    public static LocalResponse newChunkedResponse(IStatus status, String mimeType, InputStream data) {
+        LocalResponse response = new LocalResponse(status, mimeType, data, -1);
+        response.setChunkedTransfer(true);
+        return response;
+    }
+
+    /**
+     * Status line, headers and body, as NanoHTTPD would send them.
+     */
+    void writeTo(OutputStream out) {
+        send(out);
+    }
+
+}
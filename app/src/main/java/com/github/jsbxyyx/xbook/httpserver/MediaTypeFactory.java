@@ -1,62 +1,41 @@
 package com.github.jsbxyyx.xbook.httpserver;
 
-import android.content.Context;
-
-import com.github.jsbxyyx.xbook.R;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
-import java.util.StringTokenizer;
-
 /**
+ * Extension to media type lookup in {@link MimeTable}, the hash table the generateMimeTable task
+ * builds from mime.types. The extension is hashed and compared in place, nothing is allocated.
+ *
  * @author jsbxyyx
  */
 public class MediaTypeFactory {
 
-    private static Map<String, String> fileExtensionToMediaTypes;
-    private Context context;
-
-    public MediaTypeFactory(Context context) {
-        this.context = context;
-        fileExtensionToMediaTypes = parseMimeTypes();
-    }
-
-    private Map<String, String> parseMimeTypes() {
-        InputStream is = context.getResources().openRawResource(R.raw.mime);
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.US_ASCII))) {
-            Map<String, String> result = new LinkedHashMap<>();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty() || line.charAt(0) == '#') {
-                    continue;
-                }
-                String[] tokens = tokenizeToStringArray(line, " \t\n\r\f", true, true);
-                for (int i = 1; i < tokens.length; i++) {
-                    String fileExtension = tokens[i].toLowerCase(Locale.ENGLISH);
-                    result.put(fileExtension, tokens[0]);
-                }
+    public static String getMediaTypes(String filename, String defaultMediaType) {
+        if (filename == null) {
+            return defaultMediaType;
+        }
+        int extIndex = filename.lastIndexOf('.');
+        if (extIndex == -1 || filename.lastIndexOf('/') > extIndex) {
+            return defaultMediaType;
+        }
+        int from = extIndex + 1;
+        int length = filename.length() - from;
+        // String#hashCode of the lower cased extension
+        int h = 0;
+        for (int i = from; i < filename.length(); i++) {
+            char c = filename.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
             }
-            return result;
-        } catch (IOException ex) {
-            throw new IllegalStateException("Could not read mime.types", ex);
+            h = 31 * h + c;
         }
-    }
-
-    public String getMediaTypes(String filename, String defaultMediaType) {
-        String mediaTypes = null;
-        String ext = getFilenameExtension(filename);
-        if (ext != null) {
-            mediaTypes = fileExtensionToMediaTypes.get(ext.toLowerCase(Locale.ENGLISH));
+        String[] extensions = MimeTable.EXTENSIONS;
+        int mask = extensions.length - 1;
+        for (int index = (h ^ (h >>> 16)) & mask; extensions[index] != null; index = (index + 1) & mask) {
+            String ext = extensions[index];
+            if (ext.length() == length && filename.regionMatches(true, from, ext, 0, length)) {
+                return MimeTable.TYPES[index];
+            }
         }
-        return (mediaTypes != null ? mediaTypes : defaultMediaType);
+        return defaultMediaType;
     }
 
     public static String getFilenameExtension(String path) {
@@ -77,22 +56,4 @@ public class MediaTypeFactory {
         return path.substring(extIndex + 1);
     }
 
-    public static String[] tokenizeToStringArray(String str, String delimiters, boolean trimTokens, boolean ignoreEmptyTokens) {
-        if (str == null) {
-            return new String[0];
-        }
-        StringTokenizer st = new StringTokenizer(str, delimiters);
-        List<String> tokens = new ArrayList<>();
-        while (st.hasMoreTokens()) {
-            String token = st.nextToken();
-            if (trimTokens) {
-                token = token.trim();
-            }
-            if (!ignoreEmptyTokens || token.length() > 0) {
-                tokens.add(token);
-            }
-        }
-        return tokens.toArray(new String[0]);
-    }
-
 }
@@ -0,0 +1,31 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.data.NetMetrics;
+
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import static fi.iki.elonen.NanoHTTPD.MIME_PLAINTEXT;
+import static com.github.jsbxyyx.xbook.httpserver.LocalResponse.newFixedLengthResponse;
+
+/**
+ * {@link NetMetrics#snapshot()} as json, mounted behind the file server's token.
+ *
+ * @author jsbxyyx
+ */
+public class MetricsHandler implements HttpHandler {
+
+    @Override
+    public LocalResponse serve(HttpRequest session) {
+        LocalResponse response;
+        if (session.getMethod().equals(Method.GET)) {
+            response = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, JsonUtil.toJson(NetMetrics.snapshot()));
+        } else {
+            response = newFixedLengthResponse(Response.Status.METHOD_NOT_ALLOWED, MIME_PLAINTEXT, "{}");
+        }
+        HttpServerUtils.cors(session, response);
+        return response;
+    }
+
+}
@@ -0,0 +1,596 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.LogUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Selector based HTTP/1.1 engine. One thread accepts, reads and writes all connections, handlers
+ * run on {@code workers}.
+ * <p>
+ * Connections are persistent. Pipelined requests are read ahead into the connection buffer and
+ * answered one at a time, in order. A request head has to fit in {@code IN_BUFFER}, the buffer
+ * grows to take a body of up to {@link NioSession#MAX_BODY} and shrinks back once it is drained.
+ * {@link FileChannelResponse} bodies are written straight from the file channel. Any other
+ * {@link LocalResponse} is serialized by NanoHTTPD on the worker and handed to the selector in
+ * bounded chunks, so streamed bodies never sit in memory whole.
+ *
+ * @author jsbxyyx
+ */
+public class NioHttpServer {
+
+    private static final String TAG = "NioHttpServer";
+    private static final int IN_BUFFER = 16 * 1024;
+    private static final long IDLE_TIMEOUT = 15000L;
+    private static final int CHUNK = 16 * 1024;
+    private static final int CHUNKS_IN_FLIGHT = 2;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final String host;
+    private final int port;
+    private final HttpHandler handler;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private volatile boolean running;
+
+    public NioHttpServer(String host, int port, HttpHandler handler, ExecutorService workers) {
+        this.host = host;
+        this.port = port;
+        this.handler = handler;
+        this.workers = workers;
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.bind(new InetSocketAddress(host, port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        running = true;
+        Thread thread = new Thread(this::loop, "httpd-selector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    public int getListeningPort() {
+        return server == null ? -1 : server.socket().getLocalPort();
+    }
+
+    private void loop() {
+        long lastSweep = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(1000);
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        LogUtil.d(TAG, "connection: %s", e.getMessage());
+                        connection.close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSweep > 1000) {
+                    lastSweep = now;
+                    sweep(now);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "loop: %s", LogUtil.getStackTraceString(e));
+        } finally {
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    private void sweep(long now) {
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                // a handler still running is not idle, a client that stopped reading is
+                boolean handling = connection.busy && connection.output == null;
+                if (!handling && now - connection.lastActive > IDLE_TIMEOUT) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs on a worker. The result is handed back to the selector thread.
+     */
+    private void handle(Connection connection, NioSession session) {
+        LocalResponse response;
+        try {
+            response = handler.serve(session);
+        } catch (Exception e) {
+            LogUtil.e(TAG, "serve %s: %s", session.getUri(), LogUtil.getStackTraceString(e));
+            response = null;
+        }
+        if (response == null) {
+            response = LocalResponse.newFixedLengthResponse(NanoHTTPD.Response.Status.INTERNAL_ERROR,
+                    NanoHTTPD.MIME_PLAINTEXT, "SERVER INTERNAL ERROR");
+        }
+        NanoHTTPD.Method method = session.getMethod();
+        boolean keepAlive = session.isKeepAlive() && !response.isCloseConnection();
+        configure(response, method, keepAlive);
+        if (response instanceof FileChannelResponse) {
+            FileChannelResponse file = (FileChannelResponse) response;
+            ByteBuffer head = ByteBuffer.wrap(file.head());
+            if (method == NanoHTTPD.Method.HEAD || file.getLength() == 0) {
+                safeClose(file);
+                file = null;
+            }
+            Output output = new Output(head, file, null, !keepAlive);
+            post(() -> connection.startWrite(output));
+            return;
+        }
+        StreamBody body = new StreamBody(connection);
+        Output output = new Output(EMPTY, null, body, !keepAlive);
+        post(() -> connection.startWrite(output));
+        try {
+            response.writeTo(body);
+            body.finish();
+        } catch (IOException e) {
+            LogUtil.d(TAG, "send %s: %s", session.getUri(), e.getMessage());
+            body.abort();
+        } finally {
+            safeClose(response);
+        }
+    }
+
+    private void post(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private static void configure(NanoHTTPD.Response response, NanoHTTPD.Method method, boolean keepAlive) {
+        response.setRequestMethod(method);
+        response.setKeepAlive(keepAlive);
+        // nothing to gain from compressing over loopback
+        response.setGzipEncoding(false);
+    }
+
+    /**
+     * Runs on the selector thread, the response is small enough to serialize at once.
+     */
+    private static Output error(NanoHTTPD.ResponseException e) {
+        LocalResponse response = LocalResponse.newFixedLengthResponse(e.getStatus(), NanoHTTPD.MIME_PLAINTEXT, e.getMessage());
+        configure(response, NanoHTTPD.Method.GET, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        response.writeTo(out);
+        return new Output(ByteBuffer.wrap(out.toByteArray()), null, null, true);
+    }
+
+    private static void safeClose(NanoHTTPD.Response response) {
+        try {
+            response.close();
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static class Output {
+        final ByteBuffer head;
+        final FileChannelResponse file;
+        final StreamBody body;
+        final boolean close;
+
+        Output(ByteBuffer head, FileChannelResponse file, StreamBody body, boolean close) {
+            this.head = head;
+            this.file = file;
+            this.body = body;
+            this.close = close;
+        }
+    }
+
+    /**
+     * What a worker's {@code send} writes. Filled chunks queue up for the selector, at most
+     * {@link #CHUNKS_IN_FLIGHT} of them, so a slow client blocks the worker instead of growing
+     * the heap.
+     */
+    private class StreamBody extends OutputStream {
+
+        private final Connection connection;
+        private final ArrayBlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(CHUNKS_IN_FLIGHT);
+        private final ArrayBlockingQueue<byte[]> spare = new ArrayBlockingQueue<>(CHUNKS_IN_FLIGHT + 1);
+        private byte[] buf = new byte[CHUNK];
+        private int count;
+        private volatile boolean failed;
+
+        StreamBody(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buf.length) {
+                push();
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length) {
+                    push();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void finish() throws IOException {
+            if (count > 0) {
+                push();
+            }
+            offer(END);
+        }
+
+        /**
+         * The response is cut short, the connection is closed once the queued chunks are out.
+         */
+        void abort() {
+            failed = true;
+            try {
+                offer(END);
+            } catch (IOException ignore) {
+            }
+        }
+
+        private void push() throws IOException {
+            offer(ByteBuffer.wrap(buf, 0, count));
+            byte[] next = spare.poll();
+            buf = next != null ? next : new byte[CHUNK];
+            count = 0;
+        }
+
+        private void offer(ByteBuffer chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    if (connection.closed) {
+                        throw new IOException("connection closed");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (connection.closed) {
+                throw new IOException("connection closed");
+            }
+            post(connection::resume);
+        }
+    }
+
+    private class Connection {
+
+        private final SocketChannel channel;
+        private final String remoteIp;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(IN_BUFFER);
+        private boolean eof;
+        private volatile boolean closed;
+        /**
+         * A request is being handled or its response written, further requests wait in {@link #in}.
+         */
+        private boolean busy;
+        private long lastActive = System.currentTimeMillis();
+
+        private Output output;
+        private long fileDone;
+        private ByteBuffer fileBuf;
+        private ByteBuffer chunk;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.remoteIp = channel.socket().getInetAddress().getHostAddress();
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(in);
+            if (n < 0) {
+                eof = true;
+                if (!busy) {
+                    close();
+                    return;
+                }
+            }
+            lastActive = System.currentTimeMillis();
+            dispatchNext();
+        }
+
+        private void dispatchNext() {
+            if (closed) {
+                return;
+            }
+            if (!busy) {
+                NioSession session;
+                int length = -1;
+                in.flip();
+                try {
+                    session = NioSession.parse(in, remoteIp);
+                    if (session == null && in.remaining() == in.capacity()) {
+                        length = NioSession.length(in);
+                    }
+                } catch (NanoHTTPD.ResponseException e) {
+                    LogUtil.d(TAG, "bad request: %s", e.getMessage());
+                    busy = true;
+                    startWrite(error(e));
+                    return;
+                } finally {
+                    in.compact();
+                    if (in.position() == 0 && in.capacity() > IN_BUFFER) {
+                        in = ByteBuffer.allocate(IN_BUFFER);
+                    }
+                }
+                if (session != null) {
+                    busy = true;
+                    try {
+                        workers.execute(() -> handle(this, session));
+                    } catch (RejectedExecutionException e) {
+                        startWrite(error(new NanoHTTPD.ResponseException(
+                                NanoHTTPD.Response.Status.SERVICE_UNAVAILABLE, "busy")));
+                        return;
+                    }
+                } else if (!eof && length > in.capacity()) {
+                    // the head is complete and has announced a body that is not
+                    ByteBuffer bigger = ByteBuffer.allocate(length);
+                    in.flip();
+                    bigger.put(in);
+                    in = bigger;
+                } else if (!in.hasRemaining()) {
+                    busy = true;
+                    startWrite(error(new NanoHTTPD.ResponseException(
+                            NanoHTTPD.Response.Status.PAYLOAD_TOO_LARGE, "request too large")));
+                    return;
+                } else if (eof) {
+                    close();
+                    return;
+                }
+            }
+            updateInterest();
+        }
+
+        void startWrite(Output output) {
+            if (closed) {
+                if (output.file != null) {
+                    safeClose(output.file);
+                }
+                return;
+            }
+            this.output = output;
+            this.fileDone = 0;
+            resume();
+        }
+
+        /**
+         * Write what can be written now, also called when a worker queued another chunk.
+         */
+        void resume() {
+            if (closed || output == null) {
+                return;
+            }
+            try {
+                onWritable();
+            } catch (IOException e) {
+                LogUtil.d(TAG, "write: %s", e.getMessage());
+                close();
+            }
+        }
+
+        void onWritable() throws IOException {
+            if (output == null) {
+                updateInterest();
+                return;
+            }
+            if (output.head.hasRemaining()) {
+                channel.write(output.head);
+                if (output.head.hasRemaining()) {
+                    updateInterest();
+                    return;
+                }
+            }
+            FileChannelResponse file = output.file;
+            if (file != null && !writeFile(file)) {
+                updateInterest();
+                return;
+            }
+            if (output.body != null && !writeBody(output.body)) {
+                updateInterest();
+                return;
+            }
+            finish();
+        }
+
+        /**
+         * @return whether the worker has finished and everything it queued is written.
+         */
+        private boolean writeBody(StreamBody body) throws IOException {
+            while (true) {
+                if (chunk == null) {
+                    chunk = body.chunks.poll();
+                    if (chunk == null) {
+                        return false;
+                    }
+                }
+                if (chunk == END) {
+                    chunk = null;
+                    return true;
+                }
+                channel.write(chunk);
+                if (chunk.hasRemaining()) {
+                    return false;
+                }
+                lastActive = System.currentTimeMillis();
+                body.spare.offer(chunk.array());
+                chunk = null;
+            }
+        }
+
+        /**
+         * @return whether the whole body has been written.
+         */
+        private boolean writeFile(FileChannelResponse file) throws IOException {
+            long length = file.getLength();
+            if (!file.isXor()) {
+                while (fileDone < length) {
+                    long n = file.transfer(fileDone, channel);
+                    if (n <= 0) {
+                        return false;
+                    }
+                    fileDone += n;
+                    lastActive = System.currentTimeMillis();
+                }
+                return true;
+            }
+            if (fileBuf == null) {
+                fileBuf = FileChannelResponse.acquire();
+                fileBuf.limit(0);
+            }
+            while (true) {
+                if (!fileBuf.hasRemaining()) {
+                    if (fileDone >= length) {
+                        return true;
+                    }
+                    fileDone += file.fill(fileBuf, fileDone);
+                }
+                if (channel.write(fileBuf) == 0) {
+                    return false;
+                }
+                lastActive = System.currentTimeMillis();
+            }
+        }
+
+        private void finish() {
+            boolean close = output.close || output.body != null && output.body.failed;
+            releaseOutput();
+            busy = false;
+            lastActive = System.currentTimeMillis();
+            if (close || eof && in.position() == 0) {
+                close();
+                return;
+            }
+            dispatchNext();
+        }
+
+        private void releaseOutput() {
+            if (output != null && output.file != null) {
+                safeClose(output.file);
+            }
+            output = null;
+            chunk = null;
+            if (fileBuf != null) {
+                FileChannelResponse.release(fileBuf);
+                fileBuf = null;
+            }
+        }
+
+        private void updateInterest() {
+            if (closed || !key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            // a streamed body with nothing queued waits for its worker, not for the socket
+            if (output != null && (output.body == null || chunk != null)) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!eof && in.hasRemaining()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseOutput();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * One request parsed by {@link NioHttpServer}. Header names are lower case, as with NanoHTTPD.
+ *
+ * @author jsbxyyx
+ */
+class NioSession implements HttpRequest {
+
+    /**
+     * Largest request body accepted, the head comes on top of it.
+     */
+    static final int MAX_BODY = 1024 * 1024;
+
+    private final NanoHTTPD.Method method;
+    private final String uri;
+    private final Map<String, List<String>> parameters;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final boolean keepAlive;
+    private final String remoteIp;
+
+    private NioSession(NanoHTTPD.Method method, String uri, String query,
+                       Map<String, String> headers, byte[] body, boolean keepAlive, String remoteIp) {
+        this.method = method;
+        this.uri = uri;
+        this.parameters = decodeParameters(query);
+        this.headers = headers;
+        this.body = body;
+        this.keepAlive = keepAlive;
+        this.remoteIp = remoteIp;
+    }
+
+    /**
+     * Parse one request from the readable bytes of {@code buf}, a heap buffer.
+     *
+     * @return {@code null} when the request is not complete yet, {@code buf} is then untouched.
+     * Otherwise the position is moved past the request, so pipelined requests stay in the buffer.
+     */
+    static NioSession parse(ByteBuffer buf, String remoteIp) throws NanoHTTPD.ResponseException {
+        byte[] array = buf.array();
+        int start = buf.arrayOffset() + buf.position();
+        int limit = buf.arrayOffset() + buf.limit();
+        int end = headEnd(array, start, limit);
+        if (end < 0) {
+            return null;
+        }
+        String[] lines = new String(array, start, end - start, StandardCharsets.UTF_8).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.BAD_REQUEST, "bad request line");
+        }
+        NanoHTTPD.Method method;
+        try {
+            method = NanoHTTPD.Method.valueOf(requestLine[0]);
+        } catch (IllegalArgumentException e) {
+            throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.NOT_IMPLEMENTED, "unsupported method");
+        }
+
+        Map<String, String> headers = headers(lines);
+        int length = contentLength(headers);
+        int bodyStart = end + 4;
+        if (limit - bodyStart < length) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        System.arraycopy(array, bodyStart, body, 0, length);
+        buf.position(bodyStart + length - buf.arrayOffset());
+
+        String connection = headers.get("connection");
+        boolean keepAlive = "HTTP/1.1".equals(requestLine[2])
+                ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+
+        String target = requestLine[1];
+        int q = target.indexOf('?');
+        String uri = decodePercent(q < 0 ? target : target.substring(0, q));
+        String query = q < 0 ? null : target.substring(q + 1);
+        return new NioSession(method, uri, query, headers, body, keepAlive, remoteIp);
+    }
+
+    /**
+     * Size of the first request in the readable bytes of {@code buf}, head and body.
+     *
+     * @return -1 while its head is not complete.
+     */
+    static int length(ByteBuffer buf) throws NanoHTTPD.ResponseException {
+        byte[] array = buf.array();
+        int start = buf.arrayOffset() + buf.position();
+        int end = headEnd(array, start, buf.arrayOffset() + buf.limit());
+        if (end < 0) {
+            return -1;
+        }
+        String[] lines = new String(array, start, end - start, StandardCharsets.UTF_8).split("\r\n");
+        return end + 4 - start + contentLength(headers(lines));
+    }
+
+    private static int headEnd(byte[] array, int start, int limit) {
+        for (int i = start; i + 3 < limit; i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Map<String, String> headers(String[] lines) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static int contentLength(Map<String, String> headers) throws NanoHTTPD.ResponseException {
+        if (headers.containsKey("transfer-encoding")) {
+            throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.LENGTH_REQUIRED, "chunked body");
+        }
+        if (!headers.containsKey("content-length")) {
+            return 0;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(headers.get("content-length"));
+        } catch (NumberFormatException e) {
+            throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.BAD_REQUEST, "bad content-length");
+        }
+        if (length < 0 || length > MAX_BODY) {
+            throw new NanoHTTPD.ResponseException(NanoHTTPD.Response.Status.PAYLOAD_TOO_LARGE, "body too large");
+        }
+        return length;
+    }
+
+    private static String decodePercent(String str) {
+        try {
+            return URLDecoder.decode(str, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return str;
+        }
+    }
+
+    private static Map<String, List<String>> decodeParameters(String query) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = decodePercent(eq < 0 ? pair : pair.substring(0, eq)).trim();
+            String value = eq < 0 ? null : decodePercent(pair.substring(eq + 1));
+            List<String> values = parameters.get(key);
+            if (values == null) {
+                values = new ArrayList<>();
+                parameters.put(key, values);
+            }
+            values.add(value);
+        }
+        return parameters;
+    }
+
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(body);
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod() {
+        return method;
+    }
+
+    @Override
+    public Map<String, String> getParms() {
+        Map<String, String> parms = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+            parms.put(entry.getKey(), entry.getValue().get(0));
+        }
+        return parms;
+    }
+
+    @Override
+    public Map<String, List<String>> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String getUri() {
+        return uri;
+    }
+
+    @Override
+    public String getRemoteIpAddress() {
+        return remoteIp;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Dispatches to the handler mounted on the first matching path prefix, or exact path, in mount
+ * order.
+ *
+ * @author jsbxyyx
+ */
+public class Router implements HttpHandler {
+
+    private final List<String> prefixes = new ArrayList<>();
+    private final List<Boolean> exact = new ArrayList<>();
+    private final List<HttpHandler> handlers = new ArrayList<>();
+
+    public Router mount(String prefix, HttpHandler handler) {
+        prefixes.add(prefix);
+        exact.add(false);
+        handlers.add(handler);
+        return this;
+    }
+
+    /**
+     * Mounts {@code handler} on {@code path} only, not on the paths below or beside it.
+     */
+    public Router mountExact(String path, HttpHandler handler) {
+        prefixes.add(path);
+        exact.add(true);
+        handlers.add(handler);
+        return this;
+    }
+
+    @Override
+    public LocalResponse serve(HttpRequest session) {
+        String uri = session.getUri();
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (exact.get(i) ? uri.equals(prefixes.get(i)) : uri.startsWith(prefixes.get(i))) {
+                return handlers.get(i).serve(session);
+            }
+        }
+        LocalResponse response = LocalResponse.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Not Found");
+        HttpServerUtils.cors(session, response);
+        return response;
+    }
+
+}
@@ -0,0 +1,20 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Stands in for the framework class in local unit tests, where the stub in android.jar answers
+ * null and {@link com.github.jsbxyyx.xbook.common.Common} could not load. Test classes come
+ * before android.jar on the unit test class path.
+ *
+ * @author jsbxyyx
+ */
+public class Environment {
+
+    public static final String DIRECTORY_DOWNLOADS = "Download";
+
+    public static File getExternalStoragePublicDirectory(String type) {
+        return new File(System.getProperty("java.io.tmpdir"), type);
+    }
+
+}
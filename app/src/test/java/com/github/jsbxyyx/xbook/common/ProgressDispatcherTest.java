@@ -0,0 +1,105 @@
+package com.github.jsbxyyx.xbook.common;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class ProgressDispatcherTest {
+
+    private final List<Long> events = new ArrayList<>();
+    private final List<Long> speeds = new ArrayList<>();
+    private ProgressDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ProgressDispatcher(new ProgressListener() {
+            @Override
+            public void onProgress(long bytesRead, long total) {
+                events.add(bytesRead);
+            }
+
+            @Override
+            public void onSpeed(long bytesPerSecond) {
+                speeds.add(bytesPerSecond);
+            }
+        });
+    }
+
+    @Test
+    public void firstAndFinalEventsPass() {
+        dispatcher.onProgress(10, 1000);
+        dispatcher.onProgress(20, 1000);
+        dispatcher.onProgress(1000, 1000);
+        assertEquals(List.of(10L, 1000L), events);
+    }
+
+    @Test
+    public void repeatedEventIsDropped() {
+        dispatcher.onProgress(10, 1000);
+        dispatcher.onProgress(10, 1000);
+        dispatcher.flush();
+        assertEquals(List.of(10L), events);
+    }
+
+    @Test
+    public void smallOrEarlyStepsAreHeldBack() throws InterruptedException {
+        dispatcher.onProgress(0, 100000);
+        // a large step within the interval
+        dispatcher.onProgress(50000, 100000);
+        assertEquals(List.of(0L), events);
+        Thread.sleep(250);
+        dispatcher.onProgress(50000, 100000);
+        assertEquals(List.of(0L, 50000L), events);
+        Thread.sleep(250);
+        // past the interval, but less than half a percent
+        dispatcher.onProgress(50400, 100000);
+        assertEquals(List.of(0L, 50000L), events);
+        dispatcher.onProgress(50600, 100000);
+        assertEquals(List.of(0L, 50000L, 50600L), events);
+    }
+
+    @Test
+    public void flushHandsOnHeldEvent() {
+        dispatcher.onProgress(1, 1000);
+        dispatcher.onProgress(2, 1000);
+        dispatcher.flush();
+        dispatcher.flush();
+        assertEquals(List.of(1L, 2L), events);
+    }
+
+    @Test
+    public void heartbeatPassesAnyStep() throws InterruptedException {
+        dispatcher.onProgress(0, 1000000);
+        Thread.sleep(1050);
+        dispatcher.onProgress(1, 1000000);
+        assertEquals(List.of(0L, 1L), events);
+    }
+
+    @Test
+    public void unknownTotalPassesOnInterval() throws InterruptedException {
+        dispatcher.onProgress(100, -1);
+        dispatcher.onProgress(200, -1);
+        assertEquals(List.of(100L), events);
+        Thread.sleep(250);
+        dispatcher.onProgress(201, -1);
+        dispatcher.onProgress(300, -1);
+        assertEquals(List.of(100L, 201L), events);
+        dispatcher.flush();
+        assertEquals(List.of(100L, 201L, 300L), events);
+    }
+
+    @Test
+    public void speedPassesThrough() {
+        dispatcher.onSpeed(5);
+        dispatcher.onSpeed(5);
+        assertEquals(List.of(5L, 5L), speeds);
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.github.jsbxyyx.xbook.common;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding throughput of {@link XorCodec} against what it replaced: the per-byte stream the book
+ * server read through and the copying {@code Common.xor} of the download path. Only runs with
+ * {@code -Dxbook.bench=true}; the JIT profile of one case skews the next, so take numbers from one
+ * case per run, e.g. {@code ./gradlew testDebugUnitTest -Dxbook.bench=true --tests '*XorCodecBenchmark.legacyStream'}.
+ *
+ * @author jsbxyyx
+ */
+public class XorCodecBenchmark {
+
+    private static final int TOTAL = 256 * 1024 * 1024;
+    private static final int PASSES = 5;
+    private static final byte KEY = Common.MG_XOR;
+
+    private static byte[] source;
+
+    @BeforeClass
+    public static void setUp() {
+        Assume.assumeTrue("benchmarks are off", Boolean.getBoolean("xbook.bench"));
+        source = new byte[1024 * 1024];
+        new Random(11).nextBytes(source);
+    }
+
+    /**
+     * The book server's stream before XorCodec, XORing in the read loop.
+     */
+    private static class LegacyXorInputStream extends FilterInputStream {
+        LegacyXorInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            for (int i = 0; i < read; i++) {
+                b[off + i] = (byte) (b[off + i] ^ KEY);
+            }
+            return read;
+        }
+    }
+
+    /**
+     * The download path before XorCodec, a new array per chunk.
+     */
+    private static byte[] legacyXor(byte[] rawData, int len) {
+        byte[] encodeData = new byte[len];
+        for (int i = 0; i < len; i++) {
+            encodeData[i] = (byte) (rawData[i] ^ KEY);
+        }
+        return encodeData;
+    }
+
+    private interface Pass {
+        long run() throws IOException;
+    }
+
+    private static void report(String name, Pass pass) throws IOException {
+        long best = Long.MAX_VALUE;
+        long check = 0;
+        for (int i = 0; i < PASSES + 1; i++) {
+            long start = System.nanoTime();
+            check = pass.run();
+            long elapsed = System.nanoTime() - start;
+            if (i > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        System.out.printf(Locale.US, "%-28s %8.0f MB/s  (%d)%n", name, TOTAL / 1e6 / (best / 1e9), check);
+    }
+
+    private static long streamPass(int chunk, boolean legacy) throws IOException {
+        long check = 0;
+        byte[] buf = new byte[chunk];
+        for (int done = 0; done < TOTAL; done += source.length) {
+            InputStream raw = new ByteArrayInputStream(source);
+            InputStream in = legacy ? new LegacyXorInputStream(raw) : new FilterInputStream(raw) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = in.read(b, off, len);
+                    if (read > 0) {
+                        XorCodec.xor(b, off, read, KEY);
+                    }
+                    return read;
+                }
+            };
+            int n;
+            while ((n = in.read(buf, 0, chunk)) != -1) {
+                check += buf[n - 1];
+            }
+        }
+        return check;
+    }
+
+    @Test
+    public void legacyStream() throws IOException {
+        report("legacy stream, 8KB", () -> streamPass(8 * 1024, true));
+    }
+
+    @Test
+    public void codecStream() throws IOException {
+        report("XorCodec stream, 8KB", () -> streamPass(8 * 1024, false));
+    }
+
+    @Test
+    public void legacyCopy() throws IOException {
+        assertArrayEquals(legacyXor(source, 64), copyXor(64));
+        report("Common.xor copy, 8KB", () -> {
+            long check = 0;
+            byte[] chunk = new byte[8 * 1024];
+            for (int done = 0; done < TOTAL; done += chunk.length) {
+                System.arraycopy(source, done % source.length, chunk, 0, chunk.length);
+                check += legacyXor(chunk, chunk.length)[0];
+            }
+            return check;
+        });
+    }
+
+    @Test
+    public void codecArray() throws IOException {
+        report("XorCodec array, 8KB", () -> arrayPass(8 * 1024));
+        report("XorCodec array, 64KB", () -> arrayPass(64 * 1024));
+    }
+
+    /**
+     * Eight bytes per step through a long view of the array, the way the ByteBuffer overload
+     * works, kept to show why the array overload stays a plain loop.
+     */
+    @Test
+    public void longViewArray() throws IOException {
+        byte[] expected = copyXor(1000);
+        byte[] actual = Arrays.copyOf(source, 1000);
+        XorCodec.xor(ByteBuffer.wrap(actual, 0, 1000).slice(), KEY);
+        assertArrayEquals(expected, actual);
+        report("long view array, 8KB", () -> {
+            long check = 0;
+            byte[] chunk = new byte[8 * 1024];
+            for (int done = 0; done < TOTAL; done += chunk.length) {
+                System.arraycopy(source, done % source.length, chunk, 0, chunk.length);
+                XorCodec.xor(ByteBuffer.wrap(chunk), KEY);
+                check += chunk[0];
+            }
+            return check;
+        });
+    }
+
+    @Test
+    public void codecDirect() throws IOException {
+        report("XorCodec direct, 64KB", () -> {
+            long check = 0;
+            ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+            for (int done = 0; done < TOTAL; done += buf.capacity()) {
+                buf.clear();
+                buf.put(source, done % source.length, buf.capacity());
+                buf.flip();
+                XorCodec.xor(buf, KEY);
+                check += buf.get(0);
+            }
+            return check;
+        });
+    }
+
+    private static byte[] copyXor(int len) {
+        byte[] out = new byte[len];
+        System.arraycopy(source, 0, out, 0, len);
+        XorCodec.xor(out, 0, len, KEY);
+        return out;
+    }
+
+    private static long arrayPass(int size) {
+        long check = 0;
+        byte[] chunk = new byte[size];
+        for (int done = 0; done < TOTAL; done += size) {
+            System.arraycopy(source, done % source.length, chunk, 0, size);
+            XorCodec.xor(chunk, 0, size, KEY);
+            check += chunk[0];
+        }
+        return check;
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.github.jsbxyyx.xbook.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class XorCodecTest {
+
+    private static final byte KEY = Common.MG_XOR;
+
+    private static byte[] reference(byte[] data, int off, int len) {
+        byte[] out = data.clone();
+        for (int i = off; i < off + len; i++) {
+            out[i] = (byte) (out[i] ^ KEY);
+        }
+        return out;
+    }
+
+    @Test
+    public void arraySlicesMatchPerByteXor() {
+        Random random = new Random(3);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        for (int i = 0; i < 2000; i++) {
+            int off = random.nextInt(data.length);
+            int len = random.nextInt(data.length - off + 1);
+            byte[] expected = reference(data, off, len);
+            byte[] actual = data.clone();
+            XorCodec.xor(actual, off, len, KEY);
+            assertArrayEquals("off=" + off + " len=" + len, expected, actual);
+        }
+    }
+
+    @Test
+    public void bufferSlicesMatchPerByteXor() {
+        Random random = new Random(5);
+        byte[] data = new byte[4096];
+        random.nextBytes(data);
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer buf = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+            for (int i = 0; i < 1000; i++) {
+                int position = random.nextInt(data.length);
+                int limit = position + random.nextInt(data.length - position + 1);
+                buf.clear();
+                buf.put(data);
+                buf.limit(limit).position(position);
+                XorCodec.xor(buf, KEY);
+                assertEquals(position, buf.position());
+                assertEquals(limit, buf.limit());
+                byte[] actual = new byte[data.length];
+                buf.clear();
+                buf.get(actual);
+                assertArrayEquals("direct=" + direct + " position=" + position + " limit=" + limit,
+                        reference(data, position, limit - position), actual);
+            }
+        }
+    }
+
+    @Test
+    public void decodingIsEncoding() {
+        byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+        byte[] twice = data.clone();
+        XorCodec.xor(twice, 0, twice.length, KEY);
+        XorCodec.xor(twice, 0, twice.length, KEY);
+        assertArrayEquals(data, twice);
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.data.bean.Blob;
+import com.github.jsbxyyx.xbook.data.bean.Book;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyResponses;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class BlobStoreTest {
+
+    private static final String URL = "https://example.org/dl/1/book.epub";
+    private static final String OTHER_URL = "https://example.org/dl/2/book.epub";
+    private static final MediaType EPUB = MediaType.parse("application/epub+zip");
+
+    private final MemoryBookDb db = new MemoryBookDb();
+    private final BookNetHelper helper = new BookNetHelper();
+    private byte[] plain;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        plain = new byte[50 * 1024 + 3];
+        new Random(25).nextBytes(plain);
+        dir = Files.createTempDirectory("blob").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Downloads {@code plain} from {@code url} the way a queued download does, named by its digest.
+     */
+    private File download(String url, String uid) throws IOException {
+        Response response = PartFileTest.response(200, "ETag", "\"v1\"").newBuilder()
+                .body(ResponseBody.create(plain, EPUB))
+                .build();
+        PartFile part = PartFile.open(dir.getPath(), url, uid + "\n" + Common.MAGIC, 8);
+        return helper.save(ProxyResponses.of(url, response), dir.getPath(), uid, Common.MAGIC, part,
+                null, null, BlobStore.newDigest());
+    }
+
+    private File stored(String name) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), plain);
+        return file;
+    }
+
+    private void book(long id, File file) {
+        Book book = new Book();
+        book.setId(id);
+        book.setBid("bid" + id);
+        book.putRemarkProperty("file_path", file.getAbsolutePath());
+        db.insertBook(book);
+    }
+
+    private void blob(File file) {
+        Blob blob = new Blob();
+        blob.setDigest(BlobStore.digestOf(file));
+        blob.setPath(file.getAbsolutePath());
+        blob.setSize(file.length());
+        blob.setRefs(0);
+        db.blobs.put(blob.getDigest(), blob);
+    }
+
+    @Test
+    public void sameContentStoredTwiceIsOneFile() throws IOException {
+        BlobStore store = new BlobStore(db);
+        File first = download(URL, "1");
+        store.acquire(first, URL);
+        File second = download(OTHER_URL, "2");
+        store.acquire(second, OTHER_URL);
+
+        assertEquals(first, second);
+        assertEquals(1, dir.list().length);
+        assertEquals(1, db.blobs.size());
+        assertEquals(2, (int) db.findBlobByDigest(BlobStore.digestOf(first)).getRefs());
+        assertEquals(first, store.find(URL));
+        assertEquals(first, store.find(OTHER_URL));
+    }
+
+    @Test
+    public void fileGoesWithTheLastReference() throws IOException {
+        BlobStore store = new BlobStore(db);
+        File file = stored("0a1b.epub");
+        store.acquire(file, URL);
+        store.acquire(file, OTHER_URL);
+
+        assertFalse(store.release(file));
+        assertTrue(file.exists());
+        assertEquals(1, (int) db.findBlobByDigest("0a1b").getRefs());
+
+        assertTrue(store.release(file));
+        assertFalse(file.exists());
+        assertNull(db.findBlobByDigest("0a1b"));
+        assertNull(store.find(URL));
+    }
+
+    @Test
+    public void fileOutsideTheStoreIsReleasedRightAway() throws IOException {
+        BlobStore store = new BlobStore(db);
+        File file = stored("book.epub");
+        assertTrue(store.release(file));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void sweepRestoresHeldBlobsAndDeletesTheRest() throws IOException {
+        File held = stored("0a1b.epub");
+        File lost = stored("2c3d.epub");
+        blob(held);
+        blob(lost);
+        book(1, held);
+        book(2, held);
+
+        new BlobStore(db);
+        assertEquals(2, (int) db.findBlobByDigest("0a1b").getRefs());
+        assertTrue(held.exists());
+        assertNull(db.findBlobByDigest("2c3d"));
+        assertFalse(lost.exists());
+    }
+
+    @Test
+    public void changedFileIsNotFound() throws IOException {
+        BlobStore store = new BlobStore(db);
+        File file = stored("0a1b.epub");
+        store.acquire(file, URL);
+        assertEquals(file, store.find(URL));
+
+        Files.write(file.toPath(), new byte[1], StandardOpenOption.APPEND);
+        assertNull(store.find(URL));
+        file.delete();
+        assertNull(store.find(URL));
+    }
+
+}
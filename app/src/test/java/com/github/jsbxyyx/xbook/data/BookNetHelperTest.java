@@ -0,0 +1,140 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyResponses;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * An interrupted MAGIC download resumed with a Range request ends up byte for byte what a single
+ * uninterrupted download writes.
+ *
+ * @author jsbxyyx
+ */
+public class BookNetHelperTest {
+
+    private static final String URL = "https://example.org/dl/book.epub";
+    private static final int SIZE = 300 * 1024 + 123;
+    private static final MediaType EPUB = MediaType.parse("application/epub+zip");
+
+    private final BookNetHelper helper = new BookNetHelper();
+    private byte[] plain;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        plain = new byte[SIZE];
+        new Random(21).nextBytes(plain);
+        dir = Files.createTempDirectory("book").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Hands out {@code limit} bytes, then fails like a dropped connection.
+     */
+    private static InputStream cut(byte[] bytes, int limit) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes, 0, limit)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n < 0) {
+                    throw new IOException("connection reset");
+                }
+                return n;
+            }
+        };
+    }
+
+    private static Response answer(int code, InputStream body, long length, String... headers) {
+        return PartFileTest.response(code, headers).newBuilder()
+                .body(ResponseBody.create(Okio.buffer(Okio.source(body)), EPUB, length))
+                .build();
+    }
+
+    private File save(Response response, PartFile part) throws IOException {
+        return helper.save(ProxyResponses.of(URL, response), dir.getPath(), "", Common.MAGIC, part,
+                null, null, null);
+    }
+
+    private PartFile part() {
+        return PartFile.open(dir.getPath(), URL, "magic", 8);
+    }
+
+    private byte[] expected() {
+        byte[] bytes = ByteBuffer.allocate(8 + SIZE).putLong(Common.MAGIC ^ Common.MG_XOR).array();
+        for (int i = 0; i < SIZE; i++) {
+            bytes[8 + i] = (byte) (plain[i] ^ Common.MG_XOR);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void singleDownload() throws IOException {
+        File file = save(answer(200, new ByteArrayInputStream(plain), SIZE, "ETag", "\"v1\""), part());
+        assertEquals("book.epub", file.getName());
+        assertArrayEquals(expected(), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void resumedDownloadIsByteIdentical() throws IOException {
+        PartFile first = part();
+        try {
+            save(answer(200, cut(plain, 200 * 1024 + 7), SIZE, "ETag", "\"v1\""), first);
+            fail("the cut body should fail the download");
+        } catch (IOException expected) {
+        }
+
+        PartFile second = part();
+        long done = second.getDone();
+        assertTrue("nothing to resume", done > 0);
+        assertEquals(8 + done, second.getFile().length());
+
+        byte[] rest = Arrays.copyOfRange(plain, (int) done, SIZE);
+        File file = save(answer(206, new ByteArrayInputStream(rest), rest.length, "ETag", "\"v1\"",
+                "Content-Range", "bytes " + done + "-" + (SIZE - 1) + "/" + SIZE), second);
+        assertArrayEquals(expected(), Files.readAllBytes(file.toPath()));
+        assertEquals(0, part().getDone());
+    }
+
+    @Test
+    public void changedFileRestartsFromTheHeader() throws IOException {
+        try {
+            save(answer(200, cut(plain, 100 * 1024), SIZE, "ETag", "\"v1\""), part());
+            fail();
+        } catch (IOException expected) {
+        }
+        // If-Range did not match, the proxy sends everything again
+        File file = save(answer(200, new ByteArrayInputStream(plain), SIZE, "ETag", "\"v2\""), part());
+        assertArrayEquals(expected(), Files.readAllBytes(file.toPath()));
+    }
+
+}
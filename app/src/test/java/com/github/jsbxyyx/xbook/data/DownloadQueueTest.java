@@ -0,0 +1,247 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.ProgressListener;
+import com.github.jsbxyyx.xbook.data.bean.Download;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyCall;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEndpoint;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class DownloadQueueTest {
+
+    private static final ProxyEndpoint<File> ENDPOINT = ProxyEndpoint.of("queue test",
+            ProxyEndpoint.Target.XURL, response -> null);
+
+    private static class Attempt {
+        final String url;
+        final ProxyCall<File> call;
+        final DataCallback<File> callback;
+
+        Attempt(String url, ProxyCall<File> call, DataCallback<File> callback) {
+            this.url = url;
+            this.call = call;
+            this.callback = callback;
+        }
+
+        void fail() {
+            callback.call(null, new IOException("boom"));
+        }
+    }
+
+    private final MemoryBookDb db = new MemoryBookDb();
+    private final List<Attempt> attempts = new ArrayList<>();
+    private File dir;
+
+    private final BookNetHelper net = new BookNetHelper() {
+        @Override
+        public ProxyCall<File> downloadTask(String downloadUrl, String destDir, String uid, long magic,
+                                            ProgressListener listener, DataCallback<File> dataCallback) {
+            ProxyCall<File> call = new ProxyCall<>(ENDPOINT, ProxyEnvelope.get(downloadUrl));
+            synchronized (attempts) {
+                attempts.add(new Attempt(downloadUrl, call, dataCallback));
+            }
+            return call;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("queue").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * A download left in the table by the last run.
+     */
+    private Download restore(String bookId, int priority, boolean unmetered, int attempts) {
+        Download d = new Download();
+        d.setBookId(bookId);
+        d.setTitle(bookId);
+        d.setUrl("https://example.org/dl/" + bookId);
+        d.setDestDir(dir.getAbsolutePath());
+        d.setUid(bookId);
+        d.setMagic(Common.MAGIC);
+        d.setPriority(priority);
+        d.setUnmetered(unmetered ? 1 : 0);
+        d.setState(DownloadQueue.QUEUED);
+        d.setDone(0L);
+        d.setTotal(-1L);
+        d.setAttempts(attempts);
+        d.setNotBefore(0L);
+        db.insertDownload(d);
+        return d;
+    }
+
+    private DownloadQueue queue(int parallel) {
+        DownloadQueue queue = new DownloadQueue(null, db, net, new BlobStore(db)) {
+            @Override
+            public int getParallelism() {
+                return parallel;
+            }
+        };
+        queue.schedule();
+        return queue;
+    }
+
+    private List<String> urls() {
+        List<String> urls = new ArrayList<>();
+        synchronized (attempts) {
+            for (Attempt attempt : attempts) {
+                urls.add(attempt.url.substring(attempt.url.lastIndexOf('/') + 1));
+            }
+        }
+        return urls;
+    }
+
+    private Attempt last() {
+        synchronized (attempts) {
+            return attempts.get(attempts.size() - 1);
+        }
+    }
+
+    private Download state(DownloadQueue queue, long id) {
+        for (Download d : queue.getDownloads()) {
+            if (d.getId() == id) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void userDownloadsGoBeforeRestores() {
+        restore("a", DownloadQueue.PRIORITY_RESTORE, false, 0);
+        restore("b", DownloadQueue.PRIORITY_USER, false, 0);
+        restore("c", DownloadQueue.PRIORITY_RESTORE, false, 0);
+        queue(1);
+        assertEquals(List.of("b"), urls());
+        last().fail();
+        assertEquals(List.of("b", "a"), urls());
+        last().fail();
+        assertEquals(List.of("b", "a", "c"), urls());
+    }
+
+    @Test
+    public void failedAttemptWaitsLongerEachTime() {
+        Download first = restore("a", DownloadQueue.PRIORITY_USER, false, 0);
+        Download fourth = restore("b", DownloadQueue.PRIORITY_USER, false, 3);
+        DownloadQueue queue = queue(2);
+        assertEquals(2, urls().size());
+
+        long before = System.currentTimeMillis();
+        attempts.get(0).fail();
+        attempts.get(1).fail();
+        long after = System.currentTimeMillis();
+        Download a = state(queue, first.getId());
+        assertEquals(DownloadQueue.QUEUED, a.getState());
+        assertEquals(1, (int) a.getAttempts());
+        assertTrue(a.getNotBefore() >= before + 2500 && a.getNotBefore() <= after + 5000);
+        Download b = state(queue, fourth.getId());
+        assertEquals(4, (int) b.getAttempts());
+        assertTrue(b.getNotBefore() >= before + 20000 && b.getNotBefore() <= after + 40000);
+        // not started again before its time
+        assertEquals(2, urls().size());
+        assertEquals((long) b.getNotBefore(), (long) db.downloads.get(fourth.getId()).getNotBefore());
+    }
+
+    @Test
+    public void lastAttemptFails() {
+        Download d = restore("a", DownloadQueue.PRIORITY_USER, false, 4);
+        DownloadQueue queue = queue(1);
+        last().fail();
+        assertEquals(DownloadQueue.FAILED, state(queue, d.getId()).getState());
+        assertEquals("boom", db.downloads.get(d.getId()).getError());
+        assertFalse(queue.isActive());
+    }
+
+    @Test
+    public void cancelDiscardsThePartFileOnceTheAttemptStopped() throws IOException {
+        Download d = restore("a", DownloadQueue.PRIORITY_USER, false, 0);
+        File part = PartFile.open(dir.getAbsolutePath(), d.getUrl(), d.getUid() + "\n" + d.getMagic(), 8).getFile();
+        Files.write(part.toPath(), new byte[100]);
+        DownloadQueue queue = queue(1);
+        Attempt attempt = last();
+
+        queue.cancel(d.getId());
+        assertTrue(attempt.call.isCanceled());
+        assertNull(state(queue, d.getId()));
+        assertFalse(db.downloads.containsKey(d.getId()));
+        assertTrue("the attempt still writes", part.exists());
+        attempt.fail();
+        assertFalse(part.exists());
+    }
+
+    @Test
+    public void pauseKeepsThePartFile() throws IOException {
+        Download d = restore("a", DownloadQueue.PRIORITY_USER, false, 0);
+        File part = PartFile.open(dir.getAbsolutePath(), d.getUrl(), d.getUid() + "\n" + d.getMagic(), 8).getFile();
+        Files.write(part.toPath(), new byte[100]);
+        DownloadQueue queue = queue(1);
+        Attempt attempt = last();
+
+        queue.pause(d.getId());
+        assertTrue(attempt.call.isCanceled());
+        attempt.fail();
+        assertEquals(DownloadQueue.PAUSED, state(queue, d.getId()).getState());
+        assertTrue(part.exists());
+        assertEquals(1, urls().size());
+
+        queue.resume(d.getId());
+        assertEquals(2, urls().size());
+        assertEquals(DownloadQueue.RUNNING, state(queue, d.getId()).getState());
+    }
+
+    @Test
+    public void meteredNetworkHoldsUnmeteredDownloads() {
+        Download wifi = restore("a", DownloadQueue.PRIORITY_USER, true, 0);
+        restore("b", DownloadQueue.PRIORITY_RESTORE, false, 0);
+        DownloadQueue queue = queue(2);
+        assertEquals(List.of("a", "b"), urls());
+        Attempt attempt = attempts.get(0);
+
+        queue.setMetered(true);
+        assertTrue(attempt.call.isCanceled());
+        assertFalse(attempts.get(1).call.isCanceled());
+        Download held = state(queue, wifi.getId());
+        assertEquals(DownloadQueue.QUEUED, held.getState());
+        assertEquals(0, (int) held.getAttempts());
+        // the cancelled attempt ending is not a failure
+        attempt.fail();
+        assertEquals(DownloadQueue.QUEUED, state(queue, wifi.getId()).getState());
+        assertEquals(0, (int) state(queue, wifi.getId()).getAttempts());
+        // room to run, still held
+        attempts.get(1).fail();
+        assertEquals(List.of("a", "b"), urls());
+
+        queue.setMetered(false);
+        assertEquals(List.of("a", "b", "a"), urls());
+        assertEquals(DownloadQueue.RUNNING, state(queue, wifi.getId()).getState());
+    }
+
+}
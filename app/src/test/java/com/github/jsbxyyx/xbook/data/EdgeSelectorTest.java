@@ -0,0 +1,98 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.data.bean.Ip;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class EdgeSelectorTest {
+
+    private static Ip ip(String address, String latency) {
+        Ip ip = new Ip();
+        ip.setIp(address);
+        ip.setColo("TST");
+        ip.setLatency(latency);
+        return ip;
+    }
+
+    private static List<String> ranked() {
+        return hosts(EdgeSelector.addresses());
+    }
+
+    private static List<String> hosts(List<InetAddress> addresses) {
+        List<String> hosts = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            hosts.add(address.getHostAddress());
+        }
+        return hosts;
+    }
+
+    private static void connectFailed(String address) throws UnknownHostException {
+        EdgeSelector.LISTENER.connectFailed(null, new InetSocketAddress(InetAddress.getByName(address), 443),
+                Proxy.NO_PROXY, null, new IOException("refused"));
+    }
+
+    @After
+    public void tearDown() {
+        EdgeSelector.candidates(Collections.emptyList());
+    }
+
+    @Test
+    public void rankedByReportedLatencyUntilProbed() {
+        EdgeSelector.candidates(List.of(ip("10.0.0.1", "120ms"), ip("10.0.0.2", "35 ms"),
+                ip("10.0.0.3", null), ip("10.0.0.4", "n/a"), ip("10.0.0.5", "999.5")));
+        assertEquals(List.of("10.0.0.2", "10.0.0.1", "10.0.0.5", "10.0.0.3", "10.0.0.4"), ranked());
+    }
+
+    @Test
+    public void failedConnectsPushAnEdgeDown() throws UnknownHostException {
+        EdgeSelector.candidates(List.of(ip("10.0.0.1", "10"), ip("10.0.0.2", "200"), ip("10.0.0.3", "5000")));
+        assertEquals(List.of("10.0.0.1", "10.0.0.2", "10.0.0.3"), ranked());
+        // a failure costs a share of ten seconds
+        connectFailed("10.0.0.1");
+        assertEquals(List.of("10.0.0.2", "10.0.0.1", "10.0.0.3"), ranked());
+        connectFailed("10.0.0.1");
+        assertEquals(List.of("10.0.0.2", "10.0.0.3", "10.0.0.1"), ranked());
+        connectFailed("10.9.9.9");
+        assertEquals(List.of("10.0.0.2", "10.0.0.3", "10.0.0.1"), ranked());
+    }
+
+    @Test
+    public void skippingDnsStartsFurtherDown() throws UnknownHostException {
+        EdgeSelector.candidates(List.of(ip("10.0.0.1", "10"), ip("10.0.0.2", "20"), ip("10.0.0.3", "30")));
+        assertEquals(List.of("10.0.0.1", "10.0.0.2", "10.0.0.3"),
+                hosts(new HttpHelper.CustomDns().lookup(Common.host)));
+        assertEquals(List.of("10.0.0.2", "10.0.0.3", "10.0.0.1"),
+                hosts(new HttpHelper.CustomDns(1).lookup(Common.host)));
+        // never past the last edge
+        assertEquals(List.of("10.0.0.3", "10.0.0.1", "10.0.0.2"),
+                hosts(new HttpHelper.CustomDns(5).lookup(Common.host)));
+        // the ranking itself is left alone
+        assertEquals(List.of("10.0.0.1", "10.0.0.2", "10.0.0.3"), ranked());
+
+        EdgeSelector.candidates(List.of(ip("10.0.0.1", "10")));
+        assertEquals(List.of("10.0.0.1"), hosts(new HttpHelper.CustomDns(1).lookup(Common.host)));
+    }
+
+    @Test
+    public void otherHostsGoToTheSystem() throws UnknownHostException {
+        EdgeSelector.candidates(List.of(ip("10.0.0.1", "10")));
+        assertTrue(new HttpHelper.CustomDns().lookup("localhost").get(0).isLoopbackAddress());
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.data.bean.Blob;
+import com.github.jsbxyyx.xbook.data.bean.Book;
+import com.github.jsbxyyx.xbook.data.bean.Download;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The book, download and blob tables of {@link BookDbHelper} in memory, rows handed out as copies
+ * the way a query reads them.
+ *
+ * @author jsbxyyx
+ */
+class MemoryBookDb extends BookDbHelper {
+
+    final Map<Long, Book> books = new LinkedHashMap<>();
+    final Map<Long, Download> downloads = new LinkedHashMap<>();
+    final Map<String, Blob> blobs = new LinkedHashMap<>();
+    final Map<String, String> blobUrls = new HashMap<>();
+    private long nextId = 1;
+
+    MemoryBookDb() {
+        super(null);
+    }
+
+    private static <T> T copy(T row, Class<T> type) {
+        return row == null ? null : JsonUtil.fromJson(JsonUtil.toJson(row), type);
+    }
+
+    @Override
+    public synchronized void insertBook(Book e) {
+        books.put(e.getId(), copy(e, Book.class));
+    }
+
+    @Override
+    public synchronized Book findBookByBid(String bid) {
+        for (Book book : books.values()) {
+            if (book.getBid().equals(bid)) {
+                return copy(book, Book.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized Book findBookById(String id) {
+        return copy(books.get(Long.valueOf(id)), Book.class);
+    }
+
+    @Override
+    public synchronized List<Book> findAllBook() {
+        List<Book> list = new ArrayList<>();
+        for (Book book : books.values()) {
+            list.add(copy(book, Book.class));
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized void updateBook(Book book) {
+        books.put(book.getId(), copy(book, Book.class));
+    }
+
+    @Override
+    public synchronized long insertDownload(Download e) {
+        e.setId(nextId++);
+        downloads.put(e.getId(), copy(e, Download.class));
+        return e.getId();
+    }
+
+    @Override
+    public synchronized void updateDownload(Download e) {
+        downloads.put(e.getId(), copy(e, Download.class));
+    }
+
+    @Override
+    public synchronized void deleteDownload(Long id) {
+        downloads.remove(id);
+    }
+
+    @Override
+    public synchronized List<Download> findAllDownload() {
+        List<Download> list = new ArrayList<>();
+        for (Download d : downloads.values()) {
+            list.add(copy(d, Download.class));
+        }
+        list.sort(Comparator.comparing(Download::getPriority).reversed().thenComparing(Download::getId));
+        return list;
+    }
+
+    @Override
+    public synchronized void acquireBlob(Blob e, String url) {
+        Blob blob = blobs.get(e.getDigest());
+        if (blob == null) {
+            blob = copy(e, Blob.class);
+            blob.setRefs(0);
+            blobs.put(blob.getDigest(), blob);
+        }
+        blob.setRefs(blob.getRefs() + 1);
+        if (url != null) {
+            blobUrls.put(url, blob.getDigest());
+        }
+    }
+
+    @Override
+    public synchronized List<Blob> findUnreferencedBlobs() {
+        List<Blob> list = new ArrayList<>();
+        for (Blob blob : blobs.values()) {
+            if (blob.getRefs() <= 0) {
+                list.add(copy(blob, Blob.class));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public synchronized Blob findBlobByDigest(String digest) {
+        return copy(blobs.get(digest), Blob.class);
+    }
+
+    @Override
+    public synchronized Blob findBlobByUrl(String url) {
+        String digest = blobUrls.get(url);
+        return digest == null ? null : copy(blobs.get(digest), Blob.class);
+    }
+
+    @Override
+    public synchronized void updateBlobRefs(String digest, int refs) {
+        Blob blob = blobs.get(digest);
+        if (blob != null) {
+            blob.setRefs(refs);
+        }
+    }
+
+    @Override
+    public synchronized void deleteBlob(String digest) {
+        blobs.remove(digest);
+        blobUrls.values().removeIf(digest::equals);
+    }
+
+    @Override
+    public synchronized void saveBlobUrl(String url, String digest) {
+        blobUrls.put(url, digest);
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class PartFileTest {
+
+    private static final String URL = "https://example.org/book.epub";
+    private static final int HEADER = 8;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("part").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    static Response response(int code, String... headers) {
+        Response.Builder builder = new Response.Builder()
+                .request(new Request.Builder().url("https://proxy.example.org/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("");
+        for (int i = 0; i < headers.length; i += 2) {
+            builder.header(headers[i], headers[i + 1]);
+        }
+        return builder.build();
+    }
+
+    private PartFile open() {
+        return PartFile.open(dir.getPath(), URL, "uid", HEADER);
+    }
+
+    /**
+     * The first attempt got {@code body} bytes of the body on disk, after the header.
+     */
+    private PartFile interrupted(String etag, int body) throws IOException {
+        PartFile part = open();
+        assertEquals(0, part.begin(response(200, "ETag", etag)));
+        try (FileOutputStream out = new FileOutputStream(part.getFile(), true)) {
+            out.write(new byte[HEADER + body]);
+        }
+        part.progress(body);
+        return part;
+    }
+
+    private static JsonNode headers(PartFile part) throws IOException {
+        ProxyEnvelope envelope = ProxyEnvelope.get(URL);
+        part.applyTo(envelope);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        envelope.writeTo(out);
+        return JsonUtil.readTree(out.toString("UTF-8")).get("headers");
+    }
+
+    @Test
+    public void freshStartAsksForEverything() throws IOException {
+        PartFile part = open();
+        assertEquals(0, part.getDone());
+        assertNull(part.getValidator());
+        assertEquals(0, headers(part).size());
+    }
+
+    @Test
+    public void resumesWithRangeAndIfRange() throws IOException {
+        interrupted("\"v1\"", 100);
+        PartFile part = open();
+        assertEquals(100, part.getDone());
+        assertEquals("\"v1\"", part.getValidator());
+        JsonNode headers = headers(part);
+        assertEquals("bytes=100-", headers.get("Range").asText());
+        assertEquals("\"v1\"", headers.get("If-Range").asText());
+    }
+
+    @Test
+    public void otherUrlOrKeyStartsOver() throws IOException {
+        interrupted("\"v1\"", 100);
+        assertEquals(0, PartFile.open(dir.getPath(), URL + "?2", "uid", HEADER).getDone());
+        assertEquals(0, PartFile.open(dir.getPath(), URL, "other", HEADER).getDone());
+    }
+
+    @Test
+    public void doneIsClippedToTheFile() throws IOException {
+        PartFile part = interrupted("\"v1\"", 100);
+        part.progress(500);
+        assertEquals(100, open().getDone());
+    }
+
+    @Test
+    public void validatorPrefersStrongEtag() throws IOException {
+        String lastModified = "Tue, 14 Nov 2023 22:13:20 GMT";
+        PartFile part = open();
+        part.begin(response(200, "ETag", "W/\"weak\"", "Last-Modified", lastModified));
+        assertEquals(lastModified, part.getValidator());
+        part.begin(response(200, "ETag", "\"strong\"", "Last-Modified", lastModified));
+        assertEquals("\"strong\"", part.getValidator());
+    }
+
+    @Test
+    public void noValidatorNoResume() throws IOException {
+        PartFile part = open();
+        part.begin(response(200));
+        try (FileOutputStream out = new FileOutputStream(part.getFile(), true)) {
+            out.write(new byte[HEADER + 100]);
+        }
+        part.progress(100);
+        assertEquals(0, open().getDone());
+    }
+
+    @Test
+    public void partialAnswerKeepsTheHead() throws IOException {
+        interrupted("\"v1\"", 100);
+        PartFile part = open();
+        assertEquals(100, part.begin(response(206, "ETag", "\"v1\"", "Content-Range", "bytes 100-199/200")));
+        assertEquals(HEADER + 100, part.getFile().length());
+    }
+
+    @Test
+    public void mismatchedContentRangeStartsOver() throws IOException {
+        interrupted("\"v1\"", 100);
+        PartFile part = open();
+        assertEquals(0, part.begin(response(206, "ETag", "\"v1\"", "Content-Range", "bytes 50-199/200")));
+        assertEquals(0, part.getFile().length());
+        assertEquals(0, part.getDone());
+    }
+
+    @Test
+    public void changedFileStartsOver() throws IOException {
+        interrupted("\"v1\"", 100);
+        PartFile part = open();
+        // If-Range did not match, the whole new version comes back
+        assertEquals(0, part.begin(response(200, "ETag", "\"v2\"")));
+        assertEquals(0, part.getFile().length());
+        assertEquals("\"v2\"", part.getValidator());
+    }
+
+    @Test
+    public void completeAndDiscard() throws IOException {
+        PartFile part = interrupted("\"v1\"", 100);
+        File target = new File(dir, "book.epub");
+        part.complete(target);
+        assertEquals(HEADER + 100, target.length());
+        assertFalse(part.getFile().exists());
+        assertEquals(0, open().getDone());
+
+        part = interrupted("\"v1\"", 100);
+        part.discard();
+        assertFalse(part.getFile().exists());
+        assertEquals(0, open().getDone());
+    }
+
+}
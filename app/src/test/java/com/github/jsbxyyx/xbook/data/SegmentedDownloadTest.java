@@ -0,0 +1,164 @@
+package com.github.jsbxyyx.xbook.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.common.ProgressListener;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyEnvelope;
+import com.github.jsbxyyx.xbook.data.proxy.ProxyResponses;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * A slow first answer is split into ranged requests against a loopback proxy that serves the
+ * same bytes, and the part file still ends up exactly what a single stream writes.
+ *
+ * @author jsbxyyx
+ */
+public class SegmentedDownloadTest {
+
+    private static final String URL = "https://example.org/dl/big.epub";
+    private static final String ETAG = "\"big\"";
+    private static final int SIZE = 6 * 1024 * 1024 + 4321;
+
+    private byte[] plain;
+    private File dir;
+    private HttpServer server;
+    private final List<JsonNode> ranges = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        plain = new byte[SIZE];
+        new Random(22).nextBytes(plain);
+        dir = Files.createTempDirectory("segments").toFile();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::serveRange);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        int port = server.getAddress().getPort();
+        HttpHelper.setBaseClient(new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    HttpUrl url = request.url().newBuilder().scheme("http").host("127.0.0.1").port(port).build();
+                    return chain.proceed(request.newBuilder().url(url).build());
+                })
+                .build());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        HttpHelper.setBaseClient(null);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * The proxy side: the envelope's Range header answered from {@code plain}.
+     */
+    private void serveRange(HttpExchange exchange) throws IOException {
+        JsonNode envelope;
+        try (InputStream in = exchange.getRequestBody()) {
+            envelope = JsonUtil.getMapper().readTree(in);
+        }
+        JsonNode headers = envelope.get("headers");
+        ranges.add(headers);
+        String[] range = headers.get("Range").asText().substring("bytes=".length()).split("-");
+        int from = Integer.parseInt(range[0]);
+        int to = Integer.parseInt(range[1]);
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + SIZE);
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.sendResponseHeaders(206, to - from + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(plain, from, to - from + 1);
+        } catch (IOException e) {
+            // the client dropped a range another connection took over
+        }
+    }
+
+    /**
+     * The first answer, a read every 5ms, so ticks find it worth splitting.
+     */
+    private InputStream slow() {
+        return new FilterInputStream(new ByteArrayInputStream(plain)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return super.read(b, off, Math.min(len, 8 * 1024));
+            }
+        };
+    }
+
+    @Test
+    public void splitDownloadIsByteIdentical() throws IOException {
+        Response first = PartFileTest.response(200, "ETag", ETAG, "Accept-Ranges", "bytes").newBuilder()
+                .body(ResponseBody.create(Okio.buffer(Okio.source(slow())),
+                        MediaType.parse("application/epub+zip"), SIZE))
+                .build();
+        assertTrue(SegmentedDownload.eligible(first));
+        PartFile part = PartFile.open(dir.getPath(), URL, "segments", 8);
+        assertEquals(0, part.begin(first));
+
+        List<Long> progress = new CopyOnWriteArrayList<>();
+        ProgressListener listener = (bytesRead, total) -> {
+            assertEquals(SIZE, total);
+            progress.add(bytesRead);
+        };
+        new SegmentedDownload(part, () -> ProxyEnvelope.get(URL), Common.MAGIC, listener)
+                .run(ProxyResponses.of(URL, first));
+
+        assertFalse("never split", ranges.isEmpty());
+        for (JsonNode headers : ranges) {
+            assertEquals(ETAG, headers.get("If-Range").asText());
+        }
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue("progress went back", progress.get(i) >= progress.get(i - 1));
+        }
+        assertEquals(SIZE, (long) progress.get(progress.size() - 1));
+
+        byte[] expected = ByteBuffer.allocate(8 + SIZE).putLong(Common.MAGIC ^ Common.MG_XOR).array();
+        for (int i = 0; i < SIZE; i++) {
+            expected[8 + i] = (byte) (plain[i] ^ Common.MG_XOR);
+        }
+        assertArrayEquals(expected, Files.readAllBytes(part.getFile().toPath()));
+    }
+
+}
@@ -0,0 +1,196 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+import com.github.jsbxyyx.xbook.data.HttpHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Batch and fallback behaviour against {@link StandInProxy}.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyBatcherTest {
+
+    private static final ProxyEndpoint<JsonNode> ENDPOINT = ProxyEndpoint.of("batch test",
+                    ProxyEndpoint.Target.XURL, ResponseDecoder.data())
+            .batch();
+
+    private StandInProxy proxy;
+
+    private static class Result {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile JsonNode value;
+        volatile Throwable err;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        proxy = new StandInProxy(8);
+        HttpHelper.setBaseClient(proxy.client());
+        ProxyBatcher.advertise(Common.getXurl(), null);
+    }
+
+    @After
+    public void tearDown() {
+        proxy.close();
+        HttpHelper.setBaseClient(null);
+        ProxyBatcher.advertise(Common.getXurl(), null);
+    }
+
+    private static List<Result> enqueue(String... urls) {
+        List<Result> results = new ArrayList<>();
+        for (String url : urls) {
+            Result result = new Result();
+            ProxyClient.enqueue(ENDPOINT, ProxyEnvelope.get(url), (value, err) -> {
+                result.value = value;
+                result.err = err;
+                result.done.countDown();
+            });
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void await(List<Result> results) throws InterruptedException {
+        for (Result result : results) {
+            assertTrue("no answer", result.done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void learnsBatchSupportFromSingleAnswers() throws Exception {
+        assertFalse(ProxyBatcher.supported(Common.getXurl()));
+        List<Result> results = enqueue("https://example.org/a");
+        await(results);
+        assertNull(results.get(0).err);
+        assertEquals(1, proxy.singles());
+        assertTrue(ProxyBatcher.supported(Common.getXurl()));
+    }
+
+    @Test
+    public void batchEnvelope() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "8");
+        List<Result> results = enqueue("https://example.org/a", "https://example.org/b", "https://example.org/c");
+        await(results);
+        assertEquals(1, proxy.requests.size());
+        JsonNode batch = proxy.requests.get(0).get("batch");
+        assertEquals(3, batch.size());
+        for (int i = 0; i < 3; i++) {
+            String url = "https://example.org/" + (char) ('a' + i);
+            assertEquals("GET", batch.get(i).get("method").asText());
+            assertEquals(url, batch.get(i).get("url").asText());
+            assertNull(results.get(i).err);
+            assertEquals(url, results.get(i).value.get("url").asText());
+        }
+    }
+
+    @Test
+    public void perItemStatus() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "8");
+        List<Result> results = enqueue("https://example.org/a", "https://example.org/fail", "https://example.org/c");
+        await(results);
+        assertEquals(1, proxy.batches());
+        assertNull(results.get(0).err);
+        assertEquals("https://example.org/c", results.get(2).value.get("url").asText());
+        Throwable err = results.get(1).err;
+        assertTrue(String.valueOf(err), err instanceof HttpStatusException);
+        assertEquals(500, ((HttpStatusException) err).getStatusCode());
+        assertEquals(StandInProxy.FAIL_MESSAGE, err.getMessage());
+        assertNull(results.get(1).value);
+    }
+
+    @Test
+    public void batchesCappedAtAdvertisedSize() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "2");
+        List<Result> results = enqueue("https://example.org/a", "https://example.org/b",
+                "https://example.org/c", "https://example.org/d");
+        await(results);
+        assertEquals(2, proxy.batches());
+        for (JsonNode request : proxy.requests) {
+            assertEquals(2, request.get("batch").size());
+        }
+    }
+
+    @Test
+    public void fallsBackToSingles() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "8");
+        proxy.setBatchLimit(0);
+        List<Result> results = enqueue("https://example.org/a", "https://example.org/b", "https://example.org/c");
+        await(results);
+        assertEquals(1, proxy.batches());
+        assertEquals(3, proxy.singles());
+        for (int i = 0; i < 3; i++) {
+            assertNull(results.get(i).err);
+            assertEquals("https://example.org/" + (char) ('a' + i), results.get(i).value.get("url").asText());
+        }
+        assertFalse(ProxyBatcher.supported(Common.getXurl()));
+
+        List<Result> later = enqueue("https://example.org/d", "https://example.org/e");
+        await(later);
+        assertEquals(1, proxy.batches());
+        assertEquals(5, proxy.singles());
+    }
+
+    private static List<ProxyCall<JsonNode>> enqueueCalls(List<Result> results, String... urls) {
+        List<ProxyCall<JsonNode>> calls = new ArrayList<>();
+        for (String url : urls) {
+            Result result = new Result();
+            calls.add(ProxyClient.enqueue(ENDPOINT, ProxyEnvelope.get(url), (value, err) -> {
+                result.value = value;
+                result.err = err;
+                result.done.countDown();
+            }));
+            results.add(result);
+        }
+        return calls;
+    }
+
+    private void awaitRequests(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (proxy.requests.size() < n) {
+            assertTrue("no request", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void batchGoesOnWhileOneIsWaiting() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "8");
+        List<Result> results = new ArrayList<>();
+        List<ProxyCall<JsonNode>> calls = enqueueCalls(results, "https://example.org/slow/a", "https://example.org/slow/b");
+        awaitRequests(1);
+        calls.get(0).cancel();
+        assertTrue("no answer", results.get(1).done.await(10, TimeUnit.SECONDS));
+        assertNull(results.get(1).err);
+        assertEquals("https://example.org/slow/b", results.get(1).value.get("url").asText());
+    }
+
+    @Test
+    public void batchCancelledWithItsLastCall() throws Exception {
+        ProxyBatcher.advertise(Common.getXurl(), "8");
+        List<Result> results = new ArrayList<>();
+        List<ProxyCall<JsonNode>> calls = enqueueCalls(results, "https://example.org/slow/a", "https://example.org/slow/b");
+        awaitRequests(1);
+        long start = System.currentTimeMillis();
+        calls.get(0).cancel();
+        calls.get(1).cancel();
+        for (Result result : results) {
+            assertTrue("no answer", result.done.await(StandInProxy.SLOW / 2, TimeUnit.MILLISECONDS));
+            assertNotNull(result.err);
+        }
+        assertTrue(System.currentTimeMillis() - start < StandInProxy.SLOW);
+    }
+
+}
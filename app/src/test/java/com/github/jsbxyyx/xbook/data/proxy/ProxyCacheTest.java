@@ -0,0 +1,143 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class ProxyCacheTest {
+
+    private static final TypeReference<List<String>> LIST = new TypeReference<List<String>>() {
+    };
+    private static final ProxyEndpoint<List<String>> ENDPOINT = ProxyEndpoint.of("cache test",
+            ProxyEndpoint.Target.XURL, response -> null);
+
+    private static class Sent {
+        final ProxyCall<?> call;
+        final DataCallback<?> callback;
+
+        Sent(ProxyCall<?> call, DataCallback<?> callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+
+        @SuppressWarnings("unchecked")
+        void answer(List<String> value) {
+            ((DataCallback<List<String>>) callback).call(value, null);
+        }
+    }
+
+    private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<String>> results = new LinkedBlockingQueue<>();
+
+    private final ProxyInterceptor.Chain chain = new ProxyInterceptor.Chain() {
+        @Override
+        public <T> void proceed(ProxyCall<T> call, DataCallback<T> callback) {
+            sent.add(new Sent(call, callback));
+        }
+    };
+
+    private ProxyCall<List<String>> request(ProxyInterceptor cache, String url) {
+        ProxyCall<List<String>> call = new ProxyCall<>(ENDPOINT, ProxyEnvelope.get(url));
+        cache.intercept(call, (value, err) -> results.add(value), chain);
+        return call;
+    }
+
+    private Sent sent() throws InterruptedException {
+        Sent s = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull("not sent", s);
+        return s;
+    }
+
+    private List<String> result() throws InterruptedException {
+        List<String> value = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no result", value);
+        return value;
+    }
+
+    private void fill(ProxyInterceptor cache, String url, List<String> value) throws InterruptedException {
+        request(cache, url);
+        sent().answer(value);
+        assertEquals(value, result());
+    }
+
+    @Test
+    public void freshHitIsServedFromMemory() throws Exception {
+        ProxyInterceptor cache = ProxyCache.of(LIST, TimeUnit.MINUTES.toMillis(1), 0);
+        fill(cache, "https://example.org/fresh", Arrays.asList("a", "b"));
+
+        request(cache, "https://example.org/fresh");
+        assertEquals(Arrays.asList("a", "b"), result());
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void staleHitIsRefreshedOnItsOwnCall() throws Exception {
+        ProxyInterceptor cache = ProxyCache.of(LIST, 50, TimeUnit.MINUTES.toMillis(1));
+        fill(cache, "https://example.org/stale", Arrays.asList("old"));
+        Thread.sleep(100);
+
+        ProxyCall<List<String>> call = request(cache, "https://example.org/stale");
+        assertEquals(Arrays.asList("old"), result());
+        call.cancel();
+        Sent refresh = sent();
+        assertNotSame(call, refresh.call);
+        assertFalse(refresh.call.isCanceled());
+        refresh.answer(Arrays.asList("new"));
+
+        request(cache, "https://example.org/stale");
+        assertEquals(Arrays.asList("new"), result());
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void expiredAnswerGoesToTheNetwork() throws Exception {
+        ProxyInterceptor cache = ProxyCache.of(LIST, 50, 50);
+        fill(cache, "https://example.org/expired", Arrays.asList("old"));
+        Thread.sleep(150);
+
+        request(cache, "https://example.org/expired");
+        Sent s = sent();
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+        s.answer(Arrays.asList("new"));
+        assertEquals(Arrays.asList("new"), result());
+    }
+
+    @Test
+    public void answersRoundTripThroughDisk() throws Exception {
+        File dir = Files.createTempDirectory("proxy-cache").toFile();
+        try {
+            ProxyCache.init(dir);
+            ProxyInterceptor cache = ProxyCache.of(LIST, TimeUnit.MINUTES.toMillis(1), 0);
+            fill(cache, "https://example.org/disk", Arrays.asList("x", "y"));
+            assertTrue(dir.list().length > 0);
+
+            ProxyCache.clearMemory();
+            request(cache, "https://example.org/disk");
+            assertEquals(Arrays.asList("x", "y"), result());
+            assertNull(sent.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class ProxyEnvelopeTest {
+
+    private static ProxyEnvelope search(String cookie) {
+        ProxyEnvelope envelope = ProxyEnvelope.get("https://example.org/s/book")
+                .header("User-Agent", "xplay")
+                .param("page", "1");
+        return cookie == null ? envelope : envelope.header("cookie", cookie);
+    }
+
+    @Test
+    public void sameRequestSameKey() {
+        assertEquals(search("a=1").cacheKey(), search("a=1").cacheKey());
+        assertEquals(search(null).cacheKey(), search(null).cacheKey());
+    }
+
+    @Test
+    public void otherHeadersIgnored() {
+        assertEquals(search(null).cacheKey(), search(null).header("X-Request-Id", "7").cacheKey());
+    }
+
+    @Test
+    public void cookieSeparatesSessions() {
+        assertNotEquals(search("remix_userid=1").cacheKey(), search("remix_userid=2").cacheKey());
+        assertNotEquals(search(null).cacheKey(), search("remix_userid=1").cacheKey());
+        assertEquals(search("remix_userid=1").cacheKey(),
+                search(null).header("Cookie", "remix_userid=1").cacheKey());
+    }
+
+    @Test
+    public void requestPartsSeparateKeys() {
+        assertNotEquals(search(null).cacheKey(), search(null).param("page", "2").cacheKey());
+        assertNotEquals(ProxyEnvelope.get("https://example.org/a").cacheKey(),
+                ProxyEnvelope.post("https://example.org/a").cacheKey());
+        assertNotEquals(ProxyEnvelope.post("https://example.org/a").form("q=1").cacheKey(),
+                ProxyEnvelope.post("https://example.org/a").form("q=2").cacheKey());
+        assertNotEquals(ProxyEnvelope.post("https://example.org/a").data("q", new byte[]{1}).cacheKey(),
+                ProxyEnvelope.post("https://example.org/a").data("q", new byte[]{2}).cacheKey());
+    }
+
+    @Test
+    public void envelopeJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProxyEnvelope.post("https://example.org/a").header("cookie", "c")
+                .emptyParams().data("n", 1).data("b", new byte[]{1, 2, 3}).writeTo(out);
+        assertEquals("{\"method\":\"POST\",\"url\":\"https://example.org/a\",\"headers\":{\"cookie\":\"c\"},"
+                + "\"params\":{},\"data\":{\"n\":1,\"b\":\"AQID\"}}", out.toString("UTF-8"));
+    }
+
+}
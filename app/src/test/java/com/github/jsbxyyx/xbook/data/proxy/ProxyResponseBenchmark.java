@@ -0,0 +1,160 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.data.bean.Book;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding a search answer with {@link ProxyResponse#readData} against the tree it replaced: the
+ * body as a String, a JsonNode tree, then the beans. Only runs with {@code -Dxbook.bench=true},
+ * take numbers from one case per run, e.g.
+ * {@code ./gradlew testDebugUnitTest -Dxbook.bench=true --tests '*ProxyResponseBenchmark.tree500'}.
+ *
+ * @author jsbxyyx
+ */
+public class ProxyResponseBenchmark {
+
+    private static final TypeReference<List<Book>> BOOK_LIST = new TypeReference<List<Book>>() {
+    };
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final int ROUNDS = 2000;
+
+    @BeforeClass
+    public static void setUp() {
+        Assume.assumeTrue("benchmarks are off", Boolean.getBoolean("xbook.bench"));
+    }
+
+    /**
+     * A search answer of {@code books} books with the 20 fields the proxy sends, some of them not
+     * bound to {@link Book}.
+     */
+    private static byte[] answer(int books) throws IOException {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (int i = 0; i < books; i++) {
+            Map<String, Object> book = new LinkedHashMap<>();
+            book.put("id", (long) i);
+            book.put("bid", "bid" + i);
+            book.put("isbn", "978711" + i);
+            book.put("coverImage", "https://example.org/covers/" + i + ".jpg");
+            book.put("title", "A book with a title of some length #" + i);
+            book.put("publisher", "Some Publisher");
+            book.put("authors", "Author One, Author Two");
+            book.put("file", "EPUB, 1.2 MB");
+            book.put("language", "chinese");
+            book.put("year", "2021");
+            book.put("detailUrl", "/book/" + i + "/abcdef");
+            book.put("downloadUrl", "/dl/" + i + "/abcdef");
+            book.put("remark", "");
+            book.put("created", "2024-01-01 00:00:00");
+            book.put("user", "");
+            book.put("rating", "4.5");
+            book.put("quality", "5.0");
+            book.put("pages", 320);
+            book.put("series", "");
+            book.put("description", "A description that is never bound to the bean, only skipped.");
+            list.add(book);
+        }
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("list", list);
+        data.put("total", books);
+        Map<String, Object> answer = new LinkedHashMap<>();
+        answer.put("status", 200);
+        answer.put("data", data);
+        return JsonUtil.getMapper().writeValueAsBytes(answer);
+    }
+
+    private static ProxyResponse response(byte[] body) {
+        Response response = new Response.Builder()
+                .request(new Request.Builder().url("https://example.org/proxy").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(body, JSON))
+                .build();
+        return ProxyResponses.of("https://example.org/s/x", response);
+    }
+
+    private interface Decode {
+        List<Book> run(ProxyResponse response) throws IOException;
+    }
+
+    private static List<Book> tree(ProxyResponse response) throws IOException {
+        return JsonUtil.convertValue(response.checkedJson().get("data").get("list"), BOOK_LIST);
+    }
+
+    private static List<Book> stream(ProxyResponse response) throws IOException {
+        return response.readData(BOOK_LIST, "list");
+    }
+
+    private static void report(String name, int books, Decode decode) throws IOException {
+        byte[] body = answer(books);
+        List<Book> check = decode.run(response(body));
+        assertEquals(books, check.size());
+        assertEquals("bid" + (books - 1), check.get(books - 1).getBid());
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+        for (int i = 0; i < ROUNDS; i++) {
+            decode.run(response(body));
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decode.run(response(body));
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = mx.getThreadAllocatedBytes(tid) - allocated;
+        System.out.printf(Locale.US, "%-8s %4d books (%3d KB): %6.3f ms  %6d KB allocated per decode%n",
+                name, books, body.length / 1024, elapsed / 1e6 / ROUNDS, allocated / 1024 / ROUNDS);
+    }
+
+    @Test
+    public void tree50() throws IOException {
+        report("tree", 50, ProxyResponseBenchmark::tree);
+    }
+
+    @Test
+    public void stream50() throws IOException {
+        report("stream", 50, ProxyResponseBenchmark::stream);
+    }
+
+    @Test
+    public void tree500() throws IOException {
+        report("tree", 500, ProxyResponseBenchmark::tree);
+    }
+
+    @Test
+    public void stream500() throws IOException {
+        report("stream", 500, ProxyResponseBenchmark::stream);
+    }
+
+    @Test
+    public void sameBooks() throws IOException {
+        byte[] body = answer(20);
+        List<Book> tree = tree(response(body));
+        List<Book> stream = stream(response(body));
+        assertEquals(new String(JsonUtil.getMapper().writeValueAsBytes(tree), StandardCharsets.UTF_8),
+                new String(JsonUtil.getMapper().writeValueAsBytes(stream), StandardCharsets.UTF_8));
+    }
+
+}
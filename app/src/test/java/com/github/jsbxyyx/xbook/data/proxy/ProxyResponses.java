@@ -0,0 +1,22 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import okhttp3.Response;
+
+/**
+ * Builds the {@link ProxyResponse} the client would hand a decoder, for tests outside this package.
+ *
+ * @author jsbxyyx
+ */
+public final class ProxyResponses {
+
+    private static final ProxyEndpoint<Object> ENDPOINT = ProxyEndpoint.of("test", ProxyEndpoint.Target.XURL,
+            response -> null);
+
+    private ProxyResponses() {
+    }
+
+    public static ProxyResponse of(String url, Response response) {
+        return new ProxyResponse(new ProxyCall<>(ENDPOINT, ProxyEnvelope.get(url)), response);
+    }
+
+}
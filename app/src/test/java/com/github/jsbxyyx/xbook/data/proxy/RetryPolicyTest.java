@@ -0,0 +1,201 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+import com.github.jsbxyyx.xbook.common.HttpStatusException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class RetryPolicyTest {
+
+    private static final ProxyEndpoint<String> ENDPOINT = ProxyEndpoint.of("retry test",
+            ProxyEndpoint.Target.XURL, response -> null);
+
+    private static class Sent {
+        final ProxyCall<?> call;
+        final DataCallback<?> callback;
+
+        Sent(ProxyCall<?> call, DataCallback<?> callback) {
+            this.call = call;
+            this.callback = callback;
+        }
+
+        @SuppressWarnings("unchecked")
+        void answer(String value, Throwable err) {
+            ((DataCallback<String>) callback).call(value, err);
+        }
+    }
+
+    private static class Result {
+        final String value;
+        final Throwable err;
+
+        Result(String value, Throwable err) {
+            this.value = value;
+            this.err = err;
+        }
+    }
+
+    private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+
+    private final ProxyInterceptor.Chain chain = new ProxyInterceptor.Chain() {
+        @Override
+        public <T> void proceed(ProxyCall<T> call, DataCallback<T> callback) {
+            sent.add(new Sent(call, callback));
+        }
+    };
+
+    private ProxyCall<String> request(RetryPolicy policy) {
+        ProxyCall<String> call = new ProxyCall<>(ENDPOINT, ProxyEnvelope.get("https://example.org/retry"));
+        policy.intercept(call, (value, err) -> results.add(new Result(value, err)), chain);
+        return call;
+    }
+
+    private Sent sent() throws InterruptedException {
+        Sent s = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull("not sent", s);
+        return s;
+    }
+
+    private Result result() throws InterruptedException {
+        Result r = results.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no result", r);
+        return r;
+    }
+
+    /**
+     * Fails every attempt of one call, the number of attempts it took.
+     */
+    private int failAll(RetryPolicy policy) throws InterruptedException {
+        request(policy);
+        int attempts = 0;
+        while (true) {
+            Sent s = sent.poll(100, TimeUnit.MILLISECONDS);
+            if (s != null) {
+                attempts++;
+                s.answer(null, new IOException("reset"));
+                continue;
+            }
+            Result r = results.poll();
+            if (r != null) {
+                assertTrue(r.err instanceof IOException);
+                return attempts;
+            }
+        }
+    }
+
+    @Test
+    public void backoffStaysUnderItsCap() {
+        for (int i = 0; i < 1000; i++) {
+            long first = RetryPolicy.backoff(1);
+            assertTrue(first >= 0 && first <= 200);
+            long third = RetryPolicy.backoff(3);
+            assertTrue(third >= 0 && third <= 800);
+            long late = RetryPolicy.backoff(40);
+            assertTrue(late >= 0 && late <= 3000);
+        }
+    }
+
+    @Test
+    public void onlyTransientErrorsAreRetried() {
+        assertTrue(RetryPolicy.retryable(new IOException("reset")));
+        assertTrue(RetryPolicy.retryable(new HttpStatusException("busy", 503, "")));
+        assertTrue(RetryPolicy.retryable(new HttpStatusException("slow down", 429, "")));
+        assertFalse(RetryPolicy.retryable(new HttpStatusException("gone", 404, "")));
+        assertFalse(RetryPolicy.retryable(new JsonParseException(null, "not json")));
+        assertFalse(RetryPolicy.retryable(new IllegalStateException()));
+    }
+
+    @Test
+    public void failedCallIsSentAgain() throws Exception {
+        RetryPolicy policy = RetryPolicy.of(3);
+        request(policy);
+        sent().answer(null, new IOException("reset"));
+        sent().answer("ok", null);
+        Result r = result();
+        assertEquals("ok", r.value);
+        assertNull(r.err);
+    }
+
+    @Test
+    public void decodeErrorIsNotRetried() throws Exception {
+        RetryPolicy policy = RetryPolicy.of(3);
+        request(policy);
+        JsonParseException err = new JsonParseException(null, "not json");
+        sent().answer(null, err);
+        assertSame(err, result().err);
+        assertNull(sent.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void budgetRunsOut() throws Exception {
+        RetryPolicy policy = RetryPolicy.of(3);
+        // ten attempts in the budget, each failing call spends two
+        for (int i = 0; i < 5; i++) {
+            assertEquals(3, failAll(policy));
+        }
+        assertEquals(1, failAll(policy));
+    }
+
+    @Test
+    public void hedgeWaitsForTheP95() {
+        RetryPolicy policy = RetryPolicy.of(3);
+        assertEquals(1500, policy.hedgeDelay());
+        for (int i = 1; i <= 20; i++) {
+            policy.record(i * 10);
+        }
+        assertEquals(200, policy.hedgeDelay());
+        for (int i = 0; i < 64; i++) {
+            policy.record(1);
+        }
+        assertEquals(100, policy.hedgeDelay());
+    }
+
+    @Test
+    public void slowCallIsHedgedAndTheLoserCancelled() throws Exception {
+        RetryPolicy policy = RetryPolicy.of(2).hedge();
+        for (int i = 0; i < 16; i++) {
+            policy.record(100);
+        }
+        long start = System.nanoTime();
+        request(policy);
+        Sent first = sent();
+        assertFalse(first.call.isAlternate());
+        Sent hedge = sent();
+        assertTrue(hedge.call.isAlternate());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        hedge.answer("fast", null);
+        assertEquals("fast", result().value);
+        assertTrue(first.call.isCanceled());
+        first.answer(null, new IOException("Canceled"));
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+        assertNull(sent.poll());
+    }
+
+    @Test
+    public void cancelReachesEveryAttempt() throws Exception {
+        RetryPolicy policy = RetryPolicy.of(2).hedge();
+        for (int i = 0; i < 16; i++) {
+            policy.record(100);
+        }
+        ProxyCall<String> call = request(policy);
+        Sent first = sent();
+        Sent hedge = sent();
+        call.cancel();
+        assertTrue(first.call.isCanceled());
+        assertTrue(hedge.call.isCanceled());
+    }
+
+}
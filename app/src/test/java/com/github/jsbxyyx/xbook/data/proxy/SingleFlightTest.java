@@ -0,0 +1,99 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.jsbxyyx.xbook.common.DataCallback;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class SingleFlightTest {
+
+    private static final TypeReference<List<String>> LIST = new TypeReference<List<String>>() {
+    };
+    private static final ProxyEndpoint<List<String>> ENDPOINT = ProxyEndpoint.of("single flight test",
+            ProxyEndpoint.Target.XURL, response -> null);
+
+    private final ProxyInterceptor flight = SingleFlight.of(LIST);
+    private final AtomicInteger proceeded = new AtomicInteger();
+    private final List<ProxyCall<?>> sent = new ArrayList<>();
+    private final List<Object> answers = new ArrayList<>();
+    private final List<Throwable> errors = new ArrayList<>();
+    private final List<List<String>> results = new ArrayList<>();
+
+    private final ProxyInterceptor.Chain chain = new ProxyInterceptor.Chain() {
+        @Override
+        public <T> void proceed(ProxyCall<T> call, DataCallback<T> callback) {
+            proceeded.incrementAndGet();
+            sent.add(call);
+            answers.add(callback);
+        }
+    };
+
+    private ProxyCall<List<String>> join(String cookie) {
+        ProxyCall<List<String>> call = new ProxyCall<>(ENDPOINT,
+                ProxyEnvelope.get("https://example.org/list").header("cookie", cookie));
+        flight.intercept(call, (value, err) -> {
+            results.add(value);
+            errors.add(err);
+        }, chain);
+        return call;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void land(int i, List<String> value) {
+        ((DataCallback<List<String>>) answers.get(i)).call(value, null);
+    }
+
+    @Test
+    public void sharesOneRequestAndCopiesTheAnswer() {
+        join("a");
+        join("a");
+        join("a");
+        assertEquals(1, proceeded.get());
+        List<String> value = new ArrayList<>(Arrays.asList("x", "y"));
+        land(0, value);
+        assertEquals(3, results.size());
+        assertSame(value, results.get(0));
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(value, results.get(i));
+            assertNull(errors.get(i));
+        }
+        assertNotSame(results.get(0), results.get(1));
+        assertNotSame(results.get(1), results.get(2));
+        results.get(1).add("z");
+        assertEquals(2, results.get(0).size());
+        assertEquals(2, results.get(2).size());
+    }
+
+    @Test
+    public void sessionsDoNotShare() {
+        join("a");
+        join("b");
+        assertEquals(2, proceeded.get());
+        land(0, Arrays.asList("a"));
+        land(1, Arrays.asList("b"));
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), results);
+    }
+
+    @Test
+    public void cancelLeavesTheFlight() {
+        ProxyCall<List<String>> first = join("a");
+        join("a");
+        first.cancel();
+        assertEquals(1, results.size());
+        assertNotNull(errors.get(0));
+        assertFalse(sent.get(0).isCanceled());
+        land(0, Arrays.asList("x"));
+        assertEquals(Arrays.asList("x"), results.get(1));
+    }
+
+}
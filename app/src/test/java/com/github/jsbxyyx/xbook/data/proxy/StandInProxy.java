@@ -0,0 +1,147 @@
+package com.github.jsbxyyx.xbook.data.proxy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * An offline proxy on loopback. Every envelope is answered
+ * {@code {"status":200,"data":{"method":..,"url":..}}}, except those whose url contains
+ * {@code /fail}, which get {@code {"status":500}} and the message {@code boom}. A request with a
+ * url containing {@code /slow} is answered after {@link #SLOW} ms. With a batch limit above 0 it
+ * takes {@code {"batch":[...]}} and says so in {@code X-batch}; at 0 it is a proxy that has never
+ * heard of batches.
+ *
+ * @author jsbxyyx
+ */
+class StandInProxy implements AutoCloseable {
+
+    static final String FAIL_MESSAGE = "boom";
+    static final long SLOW = 3000;
+
+    private final HttpServer server;
+    private volatile int batchLimit;
+    /**
+     * The JSON of every request received, in order.
+     */
+    final List<JsonNode> requests = new CopyOnWriteArrayList<>();
+
+    StandInProxy(int batchLimit) throws IOException {
+        this.batchLimit = batchLimit;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    void setBatchLimit(int batchLimit) {
+        this.batchLimit = batchLimit;
+    }
+
+    /**
+     * A client sending every request to this proxy, whatever host and scheme it was meant for.
+     */
+    OkHttpClient client() {
+        int port = server.getAddress().getPort();
+        return new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    Request request = chain.request();
+                    HttpUrl url = request.url().newBuilder().scheme("http").host("127.0.0.1").port(port).build();
+                    return chain.proceed(request.newBuilder().url(url).build());
+                })
+                .build();
+    }
+
+    int batches() {
+        int n = 0;
+        for (JsonNode request : requests) {
+            if (request.has("batch")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    int singles() {
+        return requests.size() - batches();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode request;
+        try (InputStream in = exchange.getRequestBody()) {
+            request = JsonUtil.getMapper().readTree(in);
+        }
+        requests.add(request);
+        if (request.toString().contains("/slow")) {
+            try {
+                Thread.sleep(SLOW);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int limit = batchLimit;
+        if (limit > 0) {
+            exchange.getResponseHeaders().set(ProxyBatcher.X_BATCH, String.valueOf(limit));
+        }
+        int code = 200;
+        JsonNode answer;
+        if (!request.has("batch")) {
+            answer = answer(request);
+            if (answer.has("message")) {
+                exchange.getResponseHeaders().set(Common.x_message, answer.get("message").asText());
+            }
+        } else if (limit > 0) {
+            ArrayNode answers = JsonUtil.getMapper().createArrayNode();
+            for (JsonNode envelope : request.get("batch")) {
+                answers.add(answer(envelope));
+            }
+            ObjectNode batch = JsonUtil.getMapper().createObjectNode();
+            batch.set("batch", answers);
+            answer = batch;
+        } else {
+            code = 400;
+            answer = JsonUtil.getMapper().createObjectNode().put("status", 400);
+        }
+        byte[] body = JsonUtil.getMapper().writeValueAsBytes(answer);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static JsonNode answer(JsonNode envelope) {
+        ObjectNode answer = JsonUtil.getMapper().createObjectNode();
+        String url = envelope.path("url").asText();
+        if (url.contains("/fail")) {
+            return answer.put("status", 500).put("message", FAIL_MESSAGE);
+        }
+        answer.put("status", 200);
+        answer.putObject("data")
+                .put("method", envelope.path("method").asText())
+                .put("url", url);
+        return answer;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class ByteRangeTest {
+
+    private static ByteRange single(String header, long total) {
+        List<ByteRange> ranges = ByteRange.parse(header, total);
+        assertNotNull(header, ranges);
+        assertEquals(header, 1, ranges.size());
+        return ranges.get(0);
+    }
+
+    @Test
+    public void closedRange() {
+        ByteRange range = single("bytes=0-99", 1000);
+        assertEquals(0, range.getStart());
+        assertEquals(99, range.getEnd());
+        assertEquals(100, range.getLength());
+        assertEquals("bytes 0-99/1000", range.toContentRange(1000));
+    }
+
+    @Test
+    public void openRangeRunsToTheEnd() {
+        ByteRange range = single("bytes=900-", 1000);
+        assertEquals(900, range.getStart());
+        assertEquals(999, range.getEnd());
+    }
+
+    @Test
+    public void endIsClippedToTheRepresentation() {
+        ByteRange range = single("bytes=990-5000", 1000);
+        assertEquals(990, range.getStart());
+        assertEquals(999, range.getEnd());
+    }
+
+    @Test
+    public void suffixRange() {
+        ByteRange range = single("bytes=-100", 1000);
+        assertEquals(900, range.getStart());
+        assertEquals(999, range.getEnd());
+
+        range = single("bytes=-5000", 1000);
+        assertEquals(0, range.getStart());
+        assertEquals(999, range.getEnd());
+    }
+
+    @Test
+    public void unitAndSpacesAreLenient() {
+        ByteRange range = single("  Bytes=10 - 19 ", 1000);
+        assertEquals(10, range.getStart());
+        assertEquals(19, range.getEnd());
+    }
+
+    @Test
+    public void rangesKeepRequestOrder() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-599, 0-9", 1000);
+        assertEquals(2, ranges.size());
+        assertEquals(500, ranges.get(0).getStart());
+        assertEquals(0, ranges.get(1).getStart());
+    }
+
+    @Test
+    public void unsatisfiableRangesAreDropped() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+
+        List<ByteRange> ranges = ByteRange.parse("bytes=2000-2100,0-0", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void malformedHeadersAreIgnored() {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=--1", 1000));
+        assertNull(ByteRange.parse("bytes=0-1,x", 1000));
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class DirectoryIndexTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("index").toFile();
+        new File(dir, "b").mkdir();
+        new File(dir, "A").mkdir();
+        Files.write(new File(dir, "c.txt").toPath(), new byte[3]);
+        Files.write(new File(dir, "a.txt").toPath(), new byte[10]);
+        Files.write(new File(dir, "D <1>.txt").toPath(), new byte[1]);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private String get(String query, String accept) throws Exception {
+        String head = "GET /books/?" + query + " HTTP/1.1\r\n"
+                + (accept == null ? "" : "Accept: " + accept + "\r\n") + "\r\n";
+        NioSession session = NioSession.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)), "127.0.0.1");
+        LocalResponse response = DirectoryIndex.list(session, dir, "/books");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = response.getData()) {
+            byte[] buf = new byte[7];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                body.write(buf, 0, n);
+            }
+        }
+        return body.toString("UTF-8");
+    }
+
+    private JsonNode json(String query) throws Exception {
+        return JsonUtil.readTree(get("format=json&" + query, null));
+    }
+
+    private static List<String> names(JsonNode page) {
+        List<String> names = new ArrayList<>();
+        for (JsonNode entry : page.get("entries")) {
+            names.add(entry.get("name").asText());
+        }
+        return names;
+    }
+
+    @Test
+    public void pagesSliceTheListing() throws Exception {
+        JsonNode first = json("limit=2");
+        assertEquals(5, first.get("total").asInt());
+        assertEquals(List.of("A", "b"), names(first));
+        assertTrue(first.get("entries").get(0).get("directory").asBoolean());
+        assertEquals("/books/A/", first.get("entries").get(0).get("href").asText());
+
+        assertEquals(List.of("a.txt", "c.txt"), names(json("limit=2&offset=2")));
+        assertEquals(List.of("D <1>.txt"), names(json("limit=2&offset=4")));
+        assertEquals(List.of(), names(json("limit=2&offset=9")));
+        // out of range values are clamped
+        assertEquals(List.of("A"), names(json("limit=0&offset=-3")));
+        assertEquals(5, names(json("limit=x")).size());
+    }
+
+    @Test
+    public void descendingKeepsDirectoriesFirst() throws Exception {
+        assertEquals(List.of("b", "A", "D <1>.txt", "c.txt", "a.txt"), names(json("order=desc")));
+        assertEquals(List.of("b", "A"), names(json("order=desc&limit=2")));
+        assertEquals(List.of("c.txt", "a.txt"), names(json("order=desc&offset=3")));
+        List<String> bySize = names(json("sort=size&order=desc"));
+        assertEquals(List.of("a.txt", "c.txt", "D <1>.txt"), bySize.subList(2, 5));
+        bySize = names(json("sort=size"));
+        assertEquals(List.of("D <1>.txt", "c.txt", "a.txt"), bySize.subList(2, 5));
+    }
+
+    @Test
+    public void htmlIsEscapedAndLinksTheNextPage() throws Exception {
+        String html = get("limit=4", "text/html");
+        assertFalse(html, html.contains("D &lt;1&gt;"));
+        assertTrue(html, html.contains("0-4 / 5"));
+        assertTrue(html, html.contains("offset=4&amp;limit=4\">next</a>"));
+        html = get("offset=4&limit=4", "text/html");
+        assertTrue(html, html.contains(">D &lt;1&gt;.txt</a>"));
+        assertTrue(html, html.contains("offset=0&amp;limit=4\">prev</a>"));
+        assertFalse(html, html.contains("next"));
+        assertTrue(get("", "application/json").startsWith("{"));
+    }
+
+    @Test
+    public void snapshotIsReusedUntilTheDirectoryChangesOrItExpires() throws Exception {
+        DirectoryIndex.Snapshot snapshot = DirectoryIndex.snapshot(dir);
+        assertSame(snapshot, DirectoryIndex.snapshot(dir));
+
+        Files.write(new File(dir, "e.txt").toPath(), new byte[1]);
+        dir.setLastModified(snapshot.modified + 2000);
+        DirectoryIndex.Snapshot changed = DirectoryIndex.snapshot(dir);
+        assertNotSame(snapshot, changed);
+        assertEquals(6, changed.entries.length);
+        assertSame(changed, DirectoryIndex.snapshot(dir));
+
+        Thread.sleep(3100);
+        assertNotSame(changed, DirectoryIndex.snapshot(dir));
+    }
+
+}
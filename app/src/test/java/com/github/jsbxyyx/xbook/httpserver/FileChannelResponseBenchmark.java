@@ -0,0 +1,191 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.XorCodec;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loopback throughput of one large book body sent as a {@link FileChannelResponse} against the
+ * stream response it replaced, a {@link FileInputStream} (XOR decoded in the read loop for MAGIC
+ * files) copied through the response's buffer. Prints the median MB/s of {@code RUNS} warm GETs.
+ * Only runs with {@code -Dxbook.bench=true}, one case per run, e.g.
+ * {@code ./gradlew testDebugUnitTest -Dxbook.bench=true --tests '*FileChannelResponseBenchmark.channelPlain'}.
+ *
+ * @author jsbxyyx
+ */
+public class FileChannelResponseBenchmark {
+
+    private static final int SIZE = 256 * 1024 * 1024;
+    private static final int RUNS = 10;
+
+    private static File plain;
+    private static File magic;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Assume.assumeTrue("benchmarks are off", Boolean.getBoolean("xbook.bench"));
+        byte[] chunk = new byte[1024 * 1024];
+        new Random(7).nextBytes(chunk);
+        plain = File.createTempFile("bench", ".epub");
+        magic = File.createTempFile("bench", ".epub");
+        try (RandomAccessFile p = new RandomAccessFile(plain, "rw");
+             RandomAccessFile m = new RandomAccessFile(magic, "rw")) {
+            m.write(new byte[8]);
+            for (int i = 0; i < SIZE / chunk.length; i++) {
+                p.write(chunk);
+                m.write(chunk);
+            }
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File file : new File[]{plain, magic}) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * The book server's stream before FileChannelResponse.
+     */
+    private static class XorInputStream extends FilterInputStream {
+        XorInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                XorCodec.xor(b, off, read, Common.MG_XOR);
+            }
+            return read;
+        }
+    }
+
+    private static LocalResponse channel(HttpRequest session) {
+        try {
+            if ("/magic".equals(session.getUri())) {
+                return new FileChannelResponse(NanoHTTPD.Response.Status.OK, "application/epub+zip",
+                        FileChannel.open(magic.toPath()), 8, SIZE, true, Common.MG_XOR);
+            }
+            return new FileChannelResponse(NanoHTTPD.Response.Status.OK, "application/epub+zip",
+                    FileChannel.open(plain.toPath()), 0, SIZE, false, (byte) 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static LocalResponse stream(HttpRequest session) {
+        try {
+            InputStream in;
+            if ("/magic".equals(session.getUri())) {
+                in = new FileInputStream(magic);
+                in.skip(8);
+                in = new XorInputStream(in);
+            } else {
+                in = new FileInputStream(plain);
+            }
+            return LocalResponse.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, "application/epub+zip", in, SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void run(String name, HttpHandler handler, String uri) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        NioHttpServer server = new NioHttpServer("127.0.0.1", 0, handler, workers);
+        server.start();
+        byte[] request = ("GET " + uri + " HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] buf = new byte[256 * 1024];
+        double[] rates = new double[RUNS];
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            socket.setSoTimeout(30000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            for (int i = -1; i < RUNS; i++) {
+                long start = System.nanoTime();
+                out.write(request);
+                out.flush();
+                String head = head(in);
+                assertTrue(head, head.startsWith("HTTP/1.1 200"));
+                long left = SIZE;
+                while (left > 0) {
+                    int read = in.read(buf, 0, (int) Math.min(buf.length, left));
+                    assertTrue("body ended early", read > 0);
+                    left -= read;
+                }
+                long elapsed = System.nanoTime() - start;
+                if (i >= 0) {
+                    rates[i] = SIZE / 1048576.0 / (elapsed / 1e9);
+                }
+            }
+        } finally {
+            server.stop();
+            workers.shutdownNow();
+        }
+        Arrays.sort(rates);
+        System.out.printf(Locale.US, "%-16s %8.0f MB/s%n", name, rates[RUNS / 2]);
+    }
+
+    private static String head(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            head.append((char) c);
+            if (head.length() >= 4 && head.lastIndexOf("\r\n\r\n") == head.length() - 4) {
+                break;
+            }
+        }
+        return head.toString();
+    }
+
+    @Test
+    public void channelPlain() throws Exception {
+        run("channel, plain", FileChannelResponseBenchmark::channel, "/plain");
+    }
+
+    @Test
+    public void channelMagic() throws Exception {
+        run("channel, MAGIC", FileChannelResponseBenchmark::channel, "/magic");
+    }
+
+    @Test
+    public void streamPlain() throws Exception {
+        run("stream, plain", FileChannelResponseBenchmark::stream, "/plain");
+    }
+
+    @Test
+    public void streamMagic() throws Exception {
+        run("stream, MAGIC", FileChannelResponseBenchmark::stream, "/magic");
+    }
+
+}
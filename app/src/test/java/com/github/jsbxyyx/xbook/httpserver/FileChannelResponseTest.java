@@ -0,0 +1,122 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.Common;
+import com.github.jsbxyyx.xbook.common.XorCodec;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import fi.iki.elonen.NanoHTTPD.Response.Status;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ranges of a MAGIC book come out as the same bytes as the plain book would give.
+ *
+ * @author jsbxyyx
+ */
+public class FileChannelResponseTest {
+
+    private static final int SIZE = 200 * 1024 + 17;
+
+    private static byte[] plain;
+    private static File magicFile;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        plain = new byte[SIZE];
+        new Random(1).nextBytes(plain);
+        byte[] encoded = plain.clone();
+        XorCodec.xor(encoded, 0, encoded.length, Common.MG_XOR);
+        magicFile = File.createTempFile("magic", ".epub");
+        try (FileOutputStream out = new FileOutputStream(magicFile)) {
+            out.write(ByteBuffer.allocate(8).putLong(Common.MAGIC ^ Common.MG_XOR).array());
+            out.write(encoded);
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        magicFile.delete();
+    }
+
+    private static FileChannelResponse magicRange(String header) throws IOException {
+        List<ByteRange> ranges = ByteRange.parse(header, SIZE);
+        ByteRange range = ranges.get(0);
+        return new FileChannelResponse(Status.PARTIAL_CONTENT, "application/epub+zip",
+                FileChannel.open(magicFile.toPath()), 8 + range.getStart(), range.getLength(),
+                true, Common.MG_XOR);
+    }
+
+    private static byte[] slice(long start, long end) {
+        return Arrays.copyOfRange(plain, (int) start, (int) end + 1);
+    }
+
+    private static byte[] sent(FileChannelResponse response) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.send(out);
+        byte[] bytes = out.toByteArray();
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        int body = text.indexOf("\r\n\r\n") + 4;
+        assertTrue(text, body > 4);
+        return Arrays.copyOfRange(bytes, body, bytes.length);
+    }
+
+    /**
+     * The selector path: pooled direct buffers filled chunk by chunk.
+     */
+    private static byte[] filled(FileChannelResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buf = FileChannelResponse.acquire();
+        try {
+            long done = 0;
+            while (done < response.getLength()) {
+                done += response.fill(buf, done);
+                byte[] chunk = new byte[buf.remaining()];
+                buf.get(chunk);
+                out.write(chunk);
+            }
+        } finally {
+            FileChannelResponse.release(buf);
+            response.close();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void sendDecodesTheRange() throws IOException {
+        assertArrayEquals(slice(65530, 165529), sent(magicRange("bytes=65530-165529")));
+        assertArrayEquals(slice(0, 0), sent(magicRange("bytes=0-0")));
+        assertArrayEquals(slice(SIZE - 1000, SIZE - 1), sent(magicRange("bytes=-1000")));
+    }
+
+    @Test
+    public void fillDecodesTheRange() throws IOException {
+        assertArrayEquals(slice(65530, 165529), filled(magicRange("bytes=65530-165529")));
+        assertArrayEquals(slice(7, SIZE - 1), filled(magicRange("bytes=7-")));
+    }
+
+    @Test
+    public void headAnnouncesTheRange() throws IOException {
+        FileChannelResponse response = magicRange("bytes=100-199");
+        response.addHeader("Content-Range", "bytes 100-199/" + SIZE);
+        String head = new String(response.head(), StandardCharsets.ISO_8859_1);
+        response.close();
+        assertTrue(head, head.startsWith("HTTP/1.1 206 Partial Content \r\n"));
+        assertTrue(head, head.contains("Content-Range: bytes 100-199/" + SIZE + "\r\n"));
+        assertTrue(head, head.endsWith("Content-Length: 100\r\n\r\n"));
+    }
+
+}
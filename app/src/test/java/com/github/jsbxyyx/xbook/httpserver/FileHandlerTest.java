@@ -0,0 +1,78 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response.Status;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class FileHandlerTest {
+
+    @Test
+    public void pathsCannotLeaveTheRoot() {
+        File root = new File(System.getProperty("java.io.tmpdir"), "xbook");
+        assertTrue(FileHandler.inside(root, new File(root + "/a/b.epub")));
+        assertTrue(FileHandler.inside(root, new File(root + "/")));
+        assertTrue(FileHandler.inside(root, new File(root + "/a/../b.epub")));
+        assertFalse(FileHandler.inside(root, new File(root + "/../etc/passwd")));
+        assertFalse(FileHandler.inside(root, new File(root + "/a/../../xbook2/b.epub")));
+        assertFalse(FileHandler.inside(root, new File(root + "2/b.epub")));
+    }
+
+    private static LocalResponse serve(String range) throws IOException, NanoHTTPD.ResponseException {
+        File file = File.createTempFile("range", ".epub");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[100]);
+            }
+            String head = "GET /range.epub HTTP/1.1\r\nRange: " + range + "\r\n\r\n";
+            NioSession session = NioSession.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)), "127.0.0.1");
+            LocalResponse response = FileHandler.serveChannel(session, file.getName(),
+                    FileChannel.open(file.toPath()), "\"e\"", "Tue, 14 Nov 2023 22:13:20 GMT");
+            if (response instanceof FileChannelResponse) {
+                ((FileChannelResponse) response).close();
+            }
+            return response;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void singleRangeIsPartial() throws Exception {
+        LocalResponse response = serve("bytes=10-19");
+        assertEquals(Status.PARTIAL_CONTENT, response.getStatus());
+        assertEquals("bytes 10-19/100", response.getHeader("Content-Range"));
+        // only one of the ranges overlaps the file
+        response = serve("bytes=10-19,200-300");
+        assertEquals(Status.PARTIAL_CONTENT, response.getStatus());
+        assertEquals("bytes 10-19/100", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void severalSatisfiableRangesGetTheFullBody() throws Exception {
+        LocalResponse response = serve("bytes=0-9,20-29");
+        assertEquals(Status.OK, response.getStatus());
+        assertNull(response.getHeader("Content-Range"));
+        assertEquals(100, ((FileChannelResponse) response).getLength());
+    }
+
+    @Test
+    public void noOverlapIsNotSatisfiable() throws Exception {
+        LocalResponse response = serve("bytes=100-,200-300");
+        assertEquals(Status.RANGE_NOT_SATISFIABLE, response.getStatus());
+        assertEquals("bytes */100", response.getHeader("Content-Range"));
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class HttpServerUtilsTest {
+
+    private static final String ETAG = "\"3e8-18b3a1c2d00\"";
+    private static final long MODIFIED = 1_700_000_000_123L;
+
+    private static Map<String, String> header(String... pairs) {
+        Map<String, String> header = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            header.put(pairs[i], pairs[i + 1]);
+        }
+        return header;
+    }
+
+    @Test
+    public void etagFollowsSizeAndModificationTime() throws IOException {
+        File file = File.createTempFile("etag", ".bin");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[1000]);
+            }
+            assertTrue(file.setLastModified(1_700_000_000_000L));
+            String etag = HttpServerUtils.etag(file);
+            assertEquals("\"3e8-" + Long.toHexString(file.lastModified()) + "\"", etag);
+
+            assertTrue(file.setLastModified(1_700_000_100_000L));
+            assertNotEquals(etag, HttpServerUtils.etag(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void httpDateRoundTripsToTheSecond() {
+        String date = HttpServerUtils.httpDate(MODIFIED);
+        assertEquals("Tue, 14 Nov 2023 22:13:20 GMT", date);
+        assertEquals(MODIFIED / 1000 * 1000, HttpServerUtils.parseHttpDate(date));
+        assertEquals(-1, HttpServerUtils.parseHttpDate("yesterday"));
+        assertEquals(-1, HttpServerUtils.parseHttpDate(null));
+    }
+
+    @Test
+    public void ifNoneMatch() {
+        assertTrue(HttpServerUtils.notModified(header("if-none-match", ETAG), ETAG, MODIFIED));
+        assertTrue(HttpServerUtils.notModified(header("if-none-match", "\"x\", W/" + ETAG), ETAG, MODIFIED));
+        assertTrue(HttpServerUtils.notModified(header("if-none-match", "*"), ETAG, MODIFIED));
+        assertFalse(HttpServerUtils.notModified(header("if-none-match", "\"x\""), ETAG, MODIFIED));
+        assertFalse(HttpServerUtils.notModified(header(), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifModifiedSinceComparesSeconds() {
+        String same = HttpServerUtils.httpDate(MODIFIED);
+        assertTrue(HttpServerUtils.notModified(header("if-modified-since", same), ETAG, MODIFIED));
+        assertTrue(HttpServerUtils.notModified(header("if-modified-since", HttpServerUtils.httpDate(MODIFIED + 60_000)), ETAG, MODIFIED));
+        assertFalse(HttpServerUtils.notModified(header("if-modified-since", HttpServerUtils.httpDate(MODIFIED - 1000)), ETAG, MODIFIED));
+        assertFalse(HttpServerUtils.notModified(header("if-modified-since", "garbage"), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifNoneMatchWinsOverIfModifiedSince() {
+        Map<String, String> header = header(
+                "if-none-match", "\"other\"",
+                "if-modified-since", HttpServerUtils.httpDate(MODIFIED));
+        assertFalse(HttpServerUtils.notModified(header, ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifRange() {
+        String lastModified = HttpServerUtils.httpDate(MODIFIED);
+        assertTrue(HttpServerUtils.ifRangeMatches(null, ETAG, lastModified));
+        assertTrue(HttpServerUtils.ifRangeMatches(ETAG, ETAG, lastModified));
+        assertTrue(HttpServerUtils.ifRangeMatches(lastModified, ETAG, lastModified));
+        assertFalse(HttpServerUtils.ifRangeMatches("\"other\"", ETAG, lastModified));
+        assertFalse(HttpServerUtils.ifRangeMatches("W/" + ETAG, ETAG, lastModified));
+        assertFalse(HttpServerUtils.ifRangeMatches(HttpServerUtils.httpDate(MODIFIED - 1000), ETAG, lastModified));
+    }
+
+    @Test
+    public void acceptsGzip() {
+        assertTrue(HttpServerUtils.acceptsGzip("gzip"));
+        assertTrue(HttpServerUtils.acceptsGzip("br, GZIP;q=0.5"));
+        assertTrue(HttpServerUtils.acceptsGzip("*"));
+        assertFalse(HttpServerUtils.acceptsGzip("gzip;q=0"));
+        assertFalse(HttpServerUtils.acceptsGzip("gzip; q=0.0, deflate"));
+        assertFalse(HttpServerUtils.acceptsGzip("gzip;q=x"));
+        assertFalse(HttpServerUtils.acceptsGzip("deflate, br"));
+        assertFalse(HttpServerUtils.acceptsGzip(""));
+        assertFalse(HttpServerUtils.acceptsGzip(null));
+    }
+
+    private static NioSession request(String origin) throws NanoHTTPD.ResponseException {
+        String head = "GET /suid HTTP/1.1\r\n" + (origin == null ? "" : "Origin: " + origin + "\r\n") + "\r\n";
+        return NioSession.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)), "127.0.0.1");
+    }
+
+    @Test
+    public void corsOnlyAnswersAllowedOrigins() throws NanoHTTPD.ResponseException {
+        LocalResponse allowed = LocalResponse.newFixedLengthResponse("{}");
+        HttpServerUtils.cors(request("https://xxzkid.github.io"), allowed);
+        assertEquals("https://xxzkid.github.io", allowed.getHeader("Access-Control-Allow-Origin"));
+        assertEquals("true", allowed.getHeader("Access-Control-Allow-Credentials"));
+
+        for (String origin : new String[]{"https://evil.example", "null", "http://127.0.0.1:1", null}) {
+            LocalResponse response = LocalResponse.newFixedLengthResponse("{}");
+            HttpServerUtils.cors(request(origin), response);
+            assertNull(origin, response.getHeader("Access-Control-Allow-Origin"));
+            assertNull(origin, response.getHeader("Access-Control-Allow-Credentials"));
+        }
+
+        HttpServerUtils.allowOrigin("http://127.0.0.1:1");
+        LocalResponse own = LocalResponse.newFixedLengthResponse("{}");
+        HttpServerUtils.cors(request("http://127.0.0.1:1"), own);
+        assertEquals("http://127.0.0.1:1", own.getHeader("Access-Control-Allow-Origin"));
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.jsbxyyx.xbook.common.JsonUtil;
+import com.github.jsbxyyx.xbook.data.NetMetrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * The routes as mounted by {@link LocalHttpServer}, served over loopback. The file handler needs a
+ * real Context, a stub answering 404 stands in for it.
+ *
+ * @author jsbxyyx
+ */
+public class LocalHttpServerTest {
+
+    private static final String BASE = "/0123456789abcdef";
+
+    private ExecutorService workers;
+    private NioHttpServer biz;
+    private NioHttpServer files;
+
+    @Before
+    public void setUp() throws IOException {
+        workers = Executors.newFixedThreadPool(2);
+        biz = new NioHttpServer("127.0.0.1", 0, LocalHttpServer.bizRouter(new BizHandler(null)), workers);
+        biz.start();
+        Router fileRouter = LocalHttpServer.fileRouter(BASE, session -> LocalResponse.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "file"));
+        files = new NioHttpServer("127.0.0.1", 0, fileRouter, workers);
+        files.start();
+    }
+
+    @After
+    public void tearDown() {
+        biz.stop();
+        files.stop();
+        workers.shutdownNow();
+    }
+
+    private static NioHttpServerTest.Reply get(NioHttpServer server, String uri, String origin) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getListeningPort())) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + uri + " HTTP/1.1\r\nOrigin: " + origin + "\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return NioHttpServerTest.read(socket.getInputStream());
+        }
+    }
+
+    @Test
+    public void metricsIsBehindTheToken() throws IOException {
+        NetMetrics.retried("metrics test");
+        NioHttpServerTest.Reply reply = get(files, BASE + "/metrics", "https://xxzkid.github.io");
+        assertEquals(200, reply.status);
+        JsonNode json = JsonUtil.readTree(reply.body);
+        assertTrue(reply.body, json.get("endpoints").has("metrics test"));
+        assertTrue(reply.body, json.has("edges"));
+        assertEquals("https://xxzkid.github.io", reply.headers.get("access-control-allow-origin"));
+
+        assertEquals(404, get(biz, "/metrics", "https://xxzkid.github.io").status);
+        assertEquals(404, get(files, "/metrics", "https://xxzkid.github.io").status);
+    }
+
+    @Test
+    public void versionsIsMounted() throws IOException {
+        NioHttpServerTest.Reply reply = get(biz, "/versions", "https://example.com");
+        assertEquals(200, reply.status);
+        assertEquals("0", JsonUtil.readTree(reply.body).get("vc").asText());
+        assertNull(reply.headers.get("access-control-allow-origin"));
+    }
+
+    @Test
+    public void bizPortServesNoFiles() throws IOException {
+        assertEquals(404, get(biz, "/www/epub.html", "null").status);
+        assertEquals(404, get(biz, BASE + "/www/epub.html", "null").status);
+        assertEquals("Not Found", get(biz, "/", "null").body);
+    }
+
+    @Test
+    public void filesNeedTheToken() throws IOException {
+        NioHttpServerTest.Reply reply = get(files, BASE + "/www/epub.html", "null");
+        assertEquals(404, reply.status);
+        assertEquals("file", reply.body);
+        // a file that merely starts with metrics is a file
+        assertEquals("file", get(files, BASE + "/metrics.epub", "null").body);
+
+        reply = get(files, "/www/epub.html", "null");
+        assertEquals(404, reply.status);
+        assertEquals("Not Found", reply.body);
+        assertEquals("Not Found", get(files, "/0123456789abcdee/x.epub", "null").body);
+    }
+
+}
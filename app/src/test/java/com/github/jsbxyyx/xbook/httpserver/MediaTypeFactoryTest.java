@@ -0,0 +1,84 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * The generated {@link MimeTable} against a plain parse of mime.types.
+ *
+ * @author jsbxyyx
+ */
+public class MediaTypeFactoryTest {
+
+    private static final String DEFAULT = "application/octet-stream";
+
+    /**
+     * mime.types read the way the generateMimeTable task does, later lines winning. Unit tests
+     * run in the module directory.
+     */
+    private static Map<String, String> parse() throws IOException {
+        Map<String, String> table = new TreeMap<>();
+        for (String line : Files.readAllLines(new File("src/main/mime/mime.types").toPath(), StandardCharsets.US_ASCII)) {
+            String[] tokens = line.trim().split("\\s+");
+            if (line.startsWith("#") || tokens.length < 2) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                table.put(tokens[i].toLowerCase(Locale.ENGLISH), tokens[0]);
+            }
+        }
+        return table;
+    }
+
+    @Test
+    public void everyExtensionIsFound() throws IOException {
+        Map<String, String> table = parse();
+        assertTrue(table.size() > 500);
+        int slots = 0;
+        for (String ext : MimeTable.EXTENSIONS) {
+            if (ext != null) {
+                slots++;
+            }
+        }
+        assertEquals(table.size(), slots);
+        for (Map.Entry<String, String> entry : table.entrySet()) {
+            String ext = entry.getKey();
+            assertEquals(ext, entry.getValue(), MediaTypeFactory.getMediaTypes("book." + ext, DEFAULT));
+            assertEquals(ext, entry.getValue(), MediaTypeFactory.getMediaTypes("/a.b/BOOK." + ext.toUpperCase(Locale.ENGLISH), DEFAULT));
+        }
+    }
+
+    @Test
+    public void commonBookTypes() {
+        assertEquals("application/epub+zip", MediaTypeFactory.getMediaTypes("a.epub", DEFAULT));
+        assertEquals("application/pdf", MediaTypeFactory.getMediaTypes("a.PDF", DEFAULT));
+        assertEquals("text/html", MediaTypeFactory.getMediaTypes("index.html", DEFAULT));
+    }
+
+    @Test
+    public void unknownOrMissingExtensionGetsTheDefault() {
+        assertEquals(DEFAULT, MediaTypeFactory.getMediaTypes("a.nosuchext", DEFAULT));
+        assertEquals(DEFAULT, MediaTypeFactory.getMediaTypes("a.", DEFAULT));
+        assertEquals(DEFAULT, MediaTypeFactory.getMediaTypes("README", DEFAULT));
+        assertEquals(DEFAULT, MediaTypeFactory.getMediaTypes("books.epub/README", DEFAULT));
+        assertEquals(DEFAULT, MediaTypeFactory.getMediaTypes(null, DEFAULT));
+    }
+
+    @Test
+    public void filenameExtension() {
+        assertEquals("epub", MediaTypeFactory.getFilenameExtension("/a/b.epub"));
+        assertNull(MediaTypeFactory.getFilenameExtension("/a.b/c"));
+        assertNull(MediaTypeFactory.getFilenameExtension("c"));
+        assertNull(MediaTypeFactory.getFilenameExtension(null));
+    }
+
+}
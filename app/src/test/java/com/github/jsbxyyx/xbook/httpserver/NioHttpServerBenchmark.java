@@ -0,0 +1,210 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import com.github.jsbxyyx.xbook.common.Common;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Load harness for the loopback server: keep-alive raw sockets issuing GETs back to back for
+ * {@code SECONDS}, against {@link NioHttpServer} and against the NanoHTTPD loop it replaced.
+ * Prints requests per second and the 99th percentile latency. Only runs with
+ * {@code -Dxbook.bench=true}, one case per run, e.g.
+ * {@code ./gradlew testDebugUnitTest -Dxbook.bench=true --tests '*NioHttpServerBenchmark.nioSmall'}.
+ *
+ * @author jsbxyyx
+ */
+public class NioHttpServerBenchmark {
+
+    private static final int SECONDS = 8;
+    private static final int SMALL = 1000;
+    private static final int LARGE = 64 * 1024;
+
+    private static File small;
+    private static File plain;
+    private static File magic;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Assume.assumeTrue("benchmarks are off", Boolean.getBoolean("xbook.bench"));
+        Random random = new Random(5);
+        byte[] bytes = new byte[LARGE + 8];
+        random.nextBytes(bytes);
+        small = File.createTempFile("bench", ".txt");
+        Files.write(small.toPath(), Arrays.copyOf(bytes, SMALL));
+        plain = File.createTempFile("bench", ".epub");
+        Files.write(plain.toPath(), Arrays.copyOf(bytes, LARGE));
+        magic = File.createTempFile("bench", ".epub");
+        Files.write(magic.toPath(), bytes);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File file : new File[]{small, plain, magic}) {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private static LocalResponse nioServe(HttpRequest session) {
+        try {
+            switch (session.getUri()) {
+                case "/small":
+                    return new FileChannelResponse(NanoHTTPD.Response.Status.OK, "text/plain",
+                            FileChannel.open(small.toPath()), 0, SMALL, false, (byte) 0);
+                case "/plain":
+                    return new FileChannelResponse(NanoHTTPD.Response.Status.OK, "application/epub+zip",
+                            FileChannel.open(plain.toPath()), 0, LARGE, false, (byte) 0);
+                default:
+                    return new FileChannelResponse(NanoHTTPD.Response.Status.OK, "application/epub+zip",
+                            FileChannel.open(magic.toPath()), 8, LARGE, true, Common.MG_XOR);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class NanoServer extends NanoHTTPD {
+        NanoServer() {
+            super("127.0.0.1", 0);
+        }
+
+        @Override
+        public Response serve(IHTTPSession session) {
+            File file = "/small".equals(session.getUri()) ? small : plain;
+            try {
+                return newFixedLengthResponse(Response.Status.OK, "application/octet-stream",
+                        new FileInputStream(file), file.length());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void nio(String name, String uri, int connections) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        NioHttpServer server = new NioHttpServer("127.0.0.1", 0, NioHttpServerBenchmark::nioServe, workers);
+        server.start();
+        try {
+            run(name, server.getListeningPort(), uri, connections);
+        } finally {
+            server.stop();
+            workers.shutdownNow();
+        }
+    }
+
+    private static void nano(String name, String uri, int connections) throws Exception {
+        NanoServer server = new NanoServer();
+        server.start(NanoHTTPD.SOCKET_READ_TIMEOUT, true);
+        try {
+            run(name, server.getListeningPort(), uri, connections);
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void run(String name, int port, String uri, int connections) throws Exception {
+        byte[] request = ("GET " + uri + " HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: keep-alive\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        long deadline = System.nanoTime() + SECONDS * 1000_000_000L;
+        ExecutorService clients = Executors.newFixedThreadPool(connections);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            results.add(clients.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    socket.setSoTimeout(30000);
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        out.write(request);
+                        out.flush();
+                        NioHttpServerTest.Reply reply = NioHttpServerTest.read(in);
+                        assertEquals(200, reply.status);
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+        long[] all = new long[0];
+        for (Future<long[]> result : results) {
+            long[] latencies = result.get();
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        clients.shutdown();
+        Arrays.sort(all);
+        double p99 = all.length == 0 ? 0 : all[(int) (all.length * 0.99)] / 1e6;
+        System.out.printf(Locale.US, "%-28s %8.0f req/s  p99 %8.1f ms%n", name, all.length / (double) SECONDS, p99);
+    }
+
+    @Test
+    public void nioSmall() throws Exception {
+        nio("nio, 6 conns, small", "/small", 6);
+    }
+
+    @Test
+    public void nioSmallCrowded() throws Exception {
+        nio("nio, 32 conns, small", "/small", 32);
+    }
+
+    @Test
+    public void nioMagic() throws Exception {
+        nio("nio, 6 conns, 64KB MAGIC", "/magic", 6);
+    }
+
+    @Test
+    public void nioPlain() throws Exception {
+        nio("nio, 6 conns, 64KB plain", "/plain", 6);
+    }
+
+    @Test
+    public void nanoSmall() throws Exception {
+        nano("nanohttpd, 6 conns, small", "/small", 6);
+    }
+
+    @Test
+    public void nanoSmallCrowded() throws Exception {
+        nano("nanohttpd, 32 conns, small", "/small", 32);
+    }
+
+    @Test
+    public void nanoPlain() throws Exception {
+        nano("nanohttpd, 6 conns, 64KB plain", "/plain", 6);
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * Raw requests over loopback against a handler that answers with the size of the body it got.
+ *
+ * @author jsbxyyx
+ */
+public class NioHttpServerTest {
+
+    private ExecutorService workers;
+    private NioHttpServer server;
+
+    static class Reply {
+        int status;
+        Map<String, String> headers = new HashMap<>();
+        String body;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        workers = Executors.newFixedThreadPool(2);
+        server = new NioHttpServer("127.0.0.1", 0, session -> {
+            long size = 0;
+            try (InputStream in = session.getInputStream()) {
+                while (in.read() >= 0) {
+                    size++;
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return LocalResponse.newFixedLengthResponse(NanoHTTPD.Response.Status.OK,
+                    NanoHTTPD.MIME_PLAINTEXT, session.getUri() + " " + size);
+        }, workers);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        workers.shutdownNow();
+    }
+
+    static Reply read(InputStream in) throws IOException {
+        Reply reply = new Reply();
+        String statusLine = line(in);
+        reply.status = Integer.parseInt(statusLine.split(" ")[1]);
+        for (String line; !(line = line(in)).isEmpty(); ) {
+            int colon = line.indexOf(':');
+            reply.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        byte[] body = new byte[Integer.parseInt(reply.headers.get("content-length"))];
+        for (int off = 0; off < body.length; ) {
+            int n = in.read(body, off, body.length - off);
+            if (n < 0) {
+                throw new IOException("eof");
+            }
+            off += n;
+        }
+        reply.body = new String(body, StandardCharsets.UTF_8);
+        return reply;
+    }
+
+    private static String line(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b < 0) {
+                throw new IOException("eof");
+            }
+            if (b != '\r') {
+                out.write(b);
+            }
+        }
+        return out.toString("UTF-8");
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", server.getListeningPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static byte[] post(String uri, int length) {
+        byte[] head = ("POST " + uri + " HTTP/1.1\r\nContent-Length: " + length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] request = Arrays.copyOf(head, head.length + length);
+        Arrays.fill(request, head.length, request.length, (byte) 'x');
+        return request;
+    }
+
+    @Test
+    public void keepAliveAndPipelining() throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.write(post("/c", 3));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            assertEquals("/a 0", read(in).body);
+            assertEquals("/b 0", read(in).body);
+            Reply c = read(in);
+            assertEquals(200, c.status);
+            assertEquals("/c 3", c.body);
+        }
+    }
+
+    @Test
+    public void bodyLargerThanReadBuffer() throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(post("/big", NioSession.MAX_BODY));
+            out.write(post("/small", 10));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            assertEquals("/big " + NioSession.MAX_BODY, read(in).body);
+            assertEquals("/small 10", read(in).body);
+        }
+    }
+
+    @Test
+    public void bodyTooLarge() throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST / HTTP/1.1\r\nContent-Length: " + (NioSession.MAX_BODY + 1) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Reply reply = read(socket.getInputStream());
+            assertEquals(413, reply.status);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void headTooLarge() throws IOException {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            // exactly fills the read buffer, nothing is left unread when the server closes
+            byte[] request = new byte[16 * 1024];
+            Arrays.fill(request, (byte) 'a');
+            System.arraycopy("GET / HTTP/1.1\r\nX-Padding: ".getBytes(StandardCharsets.US_ASCII), 0, request, 0, 27);
+            out.write(request);
+            out.flush();
+            assertEquals(413, read(socket.getInputStream()).status);
+        }
+    }
+
+}
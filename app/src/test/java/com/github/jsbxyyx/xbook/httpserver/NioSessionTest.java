@@ -0,0 +1,108 @@
+package com.github.jsbxyyx.xbook.httpserver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jsbxyyx
+ */
+public class NioSessionTest {
+
+    private static ByteBuffer buffer(String request) {
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String body(NioSession session) throws IOException {
+        InputStream in = session.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[256];
+        for (int n; (n = in.read(buf)) > 0; ) {
+            out.write(buf, 0, n);
+        }
+        return out.toString("UTF-8");
+    }
+
+    private static NanoHTTPD.Response.IStatus status(String request) {
+        try {
+            NioSession.parse(buffer(request), "127.0.0.1");
+        } catch (NanoHTTPD.ResponseException e) {
+            return e.getStatus();
+        }
+        fail(request);
+        return null;
+    }
+
+    @Test
+    public void requestLineHeadersAndQuery() throws Exception {
+        NioSession session = NioSession.parse(buffer("GET /book/%E4%B9%A6.epub?a=1&b=x%20y&a=2&flag HTTP/1.1\r\n"
+                + "Host: 127.0.0.1\r\nRange:  bytes=0-9 \r\n\r\n"), "127.0.0.1");
+        assertNotNull(session);
+        assertEquals(NanoHTTPD.Method.GET, session.getMethod());
+        assertEquals("/book/书.epub", session.getUri());
+        assertEquals("bytes=0-9", session.getHeaders().get("range"));
+        assertEquals("127.0.0.1", session.getHeaders().get("host"));
+        assertEquals(Arrays.asList("1", "2"), session.getParameters().get("a"));
+        assertEquals("x y", session.getParms().get("b"));
+        assertEquals("1", session.getParms().get("a"));
+        assertTrue(session.getParameters().containsKey("flag"));
+        assertEquals("127.0.0.1", session.getRemoteIpAddress());
+        assertEquals("", body(session));
+    }
+
+    @Test
+    public void incompleteLeavesBufferUntouched() throws Exception {
+        ByteBuffer head = buffer("GET / HTTP/1.1\r\nHost: x\r\n");
+        assertNull(NioSession.parse(head, "127.0.0.1"));
+        assertEquals(0, head.position());
+        assertEquals(-1, NioSession.length(head));
+
+        ByteBuffer partBody = buffer("POST /api HTTP/1.1\r\nContent-Length: 10\r\n\r\n12345");
+        assertNull(NioSession.parse(partBody, "127.0.0.1"));
+        assertEquals(0, partBody.position());
+        assertEquals(partBody.limit() + 5, NioSession.length(partBody));
+    }
+
+    @Test
+    public void pipelined() throws Exception {
+        String first = "POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello";
+        ByteBuffer buf = buffer(first + "GET /b HTTP/1.1\r\n\r\n");
+        NioSession a = NioSession.parse(buf, "127.0.0.1");
+        assertEquals("/a", a.getUri());
+        assertEquals("hello", body(a));
+        assertEquals(first.length(), buf.position());
+        NioSession b = NioSession.parse(buf, "127.0.0.1");
+        assertEquals("/b", b.getUri());
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void keepAlive() throws Exception {
+        assertTrue(NioSession.parse(buffer("GET / HTTP/1.1\r\n\r\n"), "").isKeepAlive());
+        assertFalse(NioSession.parse(buffer("GET / HTTP/1.1\r\nConnection: close\r\n\r\n"), "").isKeepAlive());
+        assertFalse(NioSession.parse(buffer("GET / HTTP/1.0\r\n\r\n"), "").isKeepAlive());
+        assertTrue(NioSession.parse(buffer("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n"), "").isKeepAlive());
+    }
+
+    @Test
+    public void rejected() {
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, status("GET /\r\n\r\n"));
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, status("GET / SPDY/3\r\n\r\n"));
+        assertEquals(NanoHTTPD.Response.Status.NOT_IMPLEMENTED, status("BREW / HTTP/1.1\r\n\r\n"));
+        assertEquals(NanoHTTPD.Response.Status.LENGTH_REQUIRED,
+                status("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        assertEquals(NanoHTTPD.Response.Status.BAD_REQUEST, status("POST / HTTP/1.1\r\nContent-Length: x\r\n\r\n"));
+        assertEquals(NanoHTTPD.Response.Status.PAYLOAD_TOO_LARGE,
+                status("POST / HTTP/1.1\r\nContent-Length: " + (NioSession.MAX_BODY + 1) + "\r\n\r\n"));
+    }
+
+}